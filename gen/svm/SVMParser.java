@@ -23,7 +23,8 @@ public class SVMParser extends Parser {
 		PUSH=1, POP=2, ADD=3, SUB=4, MULT=5, DIV=6, STOREW=7, LOADW=8, BRANCH=9, 
 		BRANCHEQ=10, BRANCHLESSEQ=11, JS=12, LOADRA=13, STORERA=14, LOADTM=15, 
 		STORETM=16, LOADFP=17, STOREFP=18, COPYFP=19, LOADHP=20, STOREHP=21, PRINT=22, 
-		HALT=23, COL=24, LABEL=25, INTEGER=26, COMMENT=27, WHITESP=28, ERR=29;
+		HALT=23, CHECKPOINT=24, MEMOGET=25, MEMOPUT=26, COL=27, LABEL=28, INTEGER=29, 
+		COMMENT=30, WHITESP=31, ERR=32;
 	public static final int
 		RULE_assembly = 0, RULE_instruction = 1;
 	private static String[] makeRuleNames() {
@@ -38,7 +39,7 @@ public class SVMParser extends Parser {
 			null, "'push'", "'pop'", "'add'", "'sub'", "'mult'", "'div'", "'sw'", 
 			"'lw'", "'b'", "'beq'", "'bleq'", "'js'", "'lra'", "'sra'", "'ltm'", 
 			"'stm'", "'lfp'", "'sfp'", "'cfp'", "'lhp'", "'shp'", "'print'", "'halt'", 
-			"':'"
+			"'chkp'", "'memoget'", "'memoput'", "':'"
 		};
 	}
 	private static final String[] _LITERAL_NAMES = makeLiteralNames();
@@ -47,7 +48,8 @@ public class SVMParser extends Parser {
 			null, "PUSH", "POP", "ADD", "SUB", "MULT", "DIV", "STOREW", "LOADW", 
 			"BRANCH", "BRANCHEQ", "BRANCHLESSEQ", "JS", "LOADRA", "STORERA", "LOADTM", 
 			"STORETM", "LOADFP", "STOREFP", "COPYFP", "LOADHP", "STOREHP", "PRINT", 
-			"HALT", "COL", "LABEL", "INTEGER", "COMMENT", "WHITESP", "ERR"
+			"HALT", "CHECKPOINT", "MEMOGET", "MEMOPUT", "COL", "LABEL", "INTEGER", 
+			"COMMENT", "WHITESP", "ERR"
 		};
 	}
 	private static final String[] _SYMBOLIC_NAMES = makeSymbolicNames();
@@ -99,7 +101,7 @@ public class SVMParser extends Parser {
 	 
 	public int[] code = new int[ExecuteVM.CODESIZE];    
 	private int i = 0;
-	private Map<String,Integer> labelDef = new HashMap<>();
+	public Map<String,Integer> labelDef = new HashMap<>(); // pubblica: serve a CodeMap per risalire alle etichette
 	private Map<Integer,String> labelRef = new HashMap<>();
 
 	public SVMParser(TokenStream input) {
@@ -145,7 +147,7 @@ public class SVMParser extends Parser {
 			setState(7);
 			_errHandler.sync(this);
 			_la = _input.LA(1);
-			while ((((_la) & ~0x3f) == 0 && ((1L << _la) & 50331646L) != 0)) {
+			while ((((_la) & ~0x3f) == 0 && ((1L << _la) & 402653182L) != 0)) {
 				{
 				{
 				setState(4);
@@ -204,6 +206,9 @@ public class SVMParser extends Parser {
 		public TerminalNode STOREHP() { return getToken(SVMParser.STOREHP, 0); }
 		public TerminalNode PRINT() { return getToken(SVMParser.PRINT, 0); }
 		public TerminalNode HALT() { return getToken(SVMParser.HALT, 0); }
+		public TerminalNode CHECKPOINT() { return getToken(SVMParser.CHECKPOINT, 0); }
+		public TerminalNode MEMOGET() { return getToken(SVMParser.MEMOGET, 0); }
+		public TerminalNode MEMOPUT() { return getToken(SVMParser.MEMOPUT, 0); }
 		public InstructionContext(ParserRuleContext parent, int invokingState) {
 			super(parent, invokingState);
 		}
@@ -227,7 +232,7 @@ public class SVMParser extends Parser {
 		InstructionContext _localctx = new InstructionContext(_ctx, getState());
 		enterRule(_localctx, 2, RULE_instruction);
 		try {
-			setState(69);
+			setState(77);
 			_errHandler.sync(this);
 			switch ( getInterpreter().adaptivePredict(_input,1,_ctx) ) {
 			case 1:
@@ -447,6 +452,36 @@ public class SVMParser extends Parser {
 				code[i++] = HALT;
 				}
 				break;
+			case 26:
+				enterOuterAlt(_localctx, 26);
+				{
+				setState(69);
+				match(CHECKPOINT);
+				code[i++] = CHECKPOINT;
+				}
+				break;
+			case 27:
+				enterOuterAlt(_localctx, 27);
+				{
+				setState(71);
+				match(MEMOGET);
+				setState(72);
+				((InstructionContext)_localctx).n = match(INTEGER);
+				code[i++] = MEMOGET;
+					                       code[i++] = Integer.parseInt((((InstructionContext)_localctx).n!=null?((InstructionContext)_localctx).n.getText():null));
+				}
+				break;
+			case 28:
+				enterOuterAlt(_localctx, 28);
+				{
+				setState(74);
+				match(MEMOPUT);
+				setState(75);
+				((InstructionContext)_localctx).l = match(LABEL);
+				code[i++] = MEMOPUT;
+					                     labelRef.put(i++,(((InstructionContext)_localctx).l!=null?((InstructionContext)_localctx).l.getText():null));
+				}
+				break;
 			}
 		}
 		catch (RecognitionException re) {
@@ -461,9 +496,10 @@ public class SVMParser extends Parser {
 	}
 
 	public static final String _serializedATN =
-		"\u0004\u0001\u001dH\u0002\u0000\u0007\u0000\u0002\u0001\u0007\u0001\u0001"+
-		"\u0000\u0005\u0000\u0006\b\u0000\n\u0000\f\u0000\t\t\u0000\u0001\u0000"+
-		"\u0001\u0000\u0001\u0000\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001"+
+		"\u0004\u0001 P\u0002\u0000\u0007\u0000\u0002\u0001\u0007\u0001\u0001\u0000"+
+		"\u0005\u0000\u0006\b\u0000\n\u0000\f\u0000\t\t\u0000\u0001\u0000\u0001"+
+		"\u0000\u0001\u0000\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001"+
+		"\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001"+
 		"\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001"+
 		"\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001"+
 		"\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001"+
@@ -472,48 +508,53 @@ public class SVMParser extends Parser {
 		"\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001"+
 		"\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001"+
 		"\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001"+
-		"\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0003\u0001F\b\u0001"+
-		"\u0001\u0001\u0000\u0000\u0002\u0000\u0002\u0000\u0000^\u0000\u0007\u0001"+
-		"\u0000\u0000\u0000\u0002E\u0001\u0000\u0000\u0000\u0004\u0006\u0003\u0002"+
-		"\u0001\u0000\u0005\u0004\u0001\u0000\u0000\u0000\u0006\t\u0001\u0000\u0000"+
-		"\u0000\u0007\u0005\u0001\u0000\u0000\u0000\u0007\b\u0001\u0000\u0000\u0000"+
-		"\b\n\u0001\u0000\u0000\u0000\t\u0007\u0001\u0000\u0000\u0000\n\u000b\u0005"+
-		"\u0000\u0000\u0001\u000b\f\u0006\u0000\uffff\uffff\u0000\f\u0001\u0001"+
-		"\u0000\u0000\u0000\r\u000e\u0005\u0001\u0000\u0000\u000e\u000f\u0005\u001a"+
-		"\u0000\u0000\u000fF\u0006\u0001\uffff\uffff\u0000\u0010\u0011\u0005\u0001"+
-		"\u0000\u0000\u0011\u0012\u0005\u0019\u0000\u0000\u0012F\u0006\u0001\uffff"+
-		"\uffff\u0000\u0013\u0014\u0005\u0002\u0000\u0000\u0014F\u0006\u0001\uffff"+
-		"\uffff\u0000\u0015\u0016\u0005\u0003\u0000\u0000\u0016F\u0006\u0001\uffff"+
-		"\uffff\u0000\u0017\u0018\u0005\u0004\u0000\u0000\u0018F\u0006\u0001\uffff"+
-		"\uffff\u0000\u0019\u001a\u0005\u0005\u0000\u0000\u001aF\u0006\u0001\uffff"+
-		"\uffff\u0000\u001b\u001c\u0005\u0006\u0000\u0000\u001cF\u0006\u0001\uffff"+
-		"\uffff\u0000\u001d\u001e\u0005\u0007\u0000\u0000\u001eF\u0006\u0001\uffff"+
-		"\uffff\u0000\u001f \u0005\b\u0000\u0000 F\u0006\u0001\uffff\uffff\u0000"+
-		"!\"\u0005\u0019\u0000\u0000\"#\u0005\u0018\u0000\u0000#F\u0006\u0001\uffff"+
-		"\uffff\u0000$%\u0005\t\u0000\u0000%&\u0005\u0019\u0000\u0000&F\u0006\u0001"+
-		"\uffff\uffff\u0000\'(\u0005\n\u0000\u0000()\u0005\u0019\u0000\u0000)F"+
-		"\u0006\u0001\uffff\uffff\u0000*+\u0005\u000b\u0000\u0000+,\u0005\u0019"+
-		"\u0000\u0000,F\u0006\u0001\uffff\uffff\u0000-.\u0005\f\u0000\u0000.F\u0006"+
-		"\u0001\uffff\uffff\u0000/0\u0005\r\u0000\u00000F\u0006\u0001\uffff\uffff"+
-		"\u000012\u0005\u000e\u0000\u00002F\u0006\u0001\uffff\uffff\u000034\u0005"+
-		"\u000f\u0000\u00004F\u0006\u0001\uffff\uffff\u000056\u0005\u0010\u0000"+
-		"\u00006F\u0006\u0001\uffff\uffff\u000078\u0005\u0011\u0000\u00008F\u0006"+
-		"\u0001\uffff\uffff\u00009:\u0005\u0012\u0000\u0000:F\u0006\u0001\uffff"+
-		"\uffff\u0000;<\u0005\u0013\u0000\u0000<F\u0006\u0001\uffff\uffff\u0000"+
-		"=>\u0005\u0014\u0000\u0000>F\u0006\u0001\uffff\uffff\u0000?@\u0005\u0015"+
-		"\u0000\u0000@F\u0006\u0001\uffff\uffff\u0000AB\u0005\u0016\u0000\u0000"+
-		"BF\u0006\u0001\uffff\uffff\u0000CD\u0005\u0017\u0000\u0000DF\u0006\u0001"+
-		"\uffff\uffff\u0000E\r\u0001\u0000\u0000\u0000E\u0010\u0001\u0000\u0000"+
-		"\u0000E\u0013\u0001\u0000\u0000\u0000E\u0015\u0001\u0000\u0000\u0000E"+
-		"\u0017\u0001\u0000\u0000\u0000E\u0019\u0001\u0000\u0000\u0000E\u001b\u0001"+
-		"\u0000\u0000\u0000E\u001d\u0001\u0000\u0000\u0000E\u001f\u0001\u0000\u0000"+
-		"\u0000E!\u0001\u0000\u0000\u0000E$\u0001\u0000\u0000\u0000E\'\u0001\u0000"+
-		"\u0000\u0000E*\u0001\u0000\u0000\u0000E-\u0001\u0000\u0000\u0000E/\u0001"+
-		"\u0000\u0000\u0000E1\u0001\u0000\u0000\u0000E3\u0001\u0000\u0000\u0000"+
-		"E5\u0001\u0000\u0000\u0000E7\u0001\u0000\u0000\u0000E9\u0001\u0000\u0000"+
-		"\u0000E;\u0001\u0000\u0000\u0000E=\u0001\u0000\u0000\u0000E?\u0001\u0000"+
-		"\u0000\u0000EA\u0001\u0000\u0000\u0000EC\u0001\u0000\u0000\u0000F\u0003"+
-		"\u0001\u0000\u0000\u0000\u0002\u0007E";
+		"\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0003"+
+		"\u0001N\b\u0001\u0001\u0001\u0000\u0000\u0002\u0000\u0002\u0000\u0000"+
+		"i\u0000\u0007\u0001\u0000\u0000\u0000\u0002M\u0001\u0000\u0000\u0000\u0004"+
+		"\u0006\u0003\u0002\u0001\u0000\u0005\u0004\u0001\u0000\u0000\u0000\u0006"+
+		"\t\u0001\u0000\u0000\u0000\u0007\u0005\u0001\u0000\u0000\u0000\u0007\b"+
+		"\u0001\u0000\u0000\u0000\b\n\u0001\u0000\u0000\u0000\t\u0007\u0001\u0000"+
+		"\u0000\u0000\n\u000b\u0005\u0000\u0000\u0001\u000b\f\u0006\u0000\uffff"+
+		"\uffff\u0000\f\u0001\u0001\u0000\u0000\u0000\r\u000e\u0005\u0001\u0000"+
+		"\u0000\u000e\u000f\u0005\u001d\u0000\u0000\u000fN\u0006\u0001\uffff\uffff"+
+		"\u0000\u0010\u0011\u0005\u0001\u0000\u0000\u0011\u0012\u0005\u001c\u0000"+
+		"\u0000\u0012N\u0006\u0001\uffff\uffff\u0000\u0013\u0014\u0005\u0002\u0000"+
+		"\u0000\u0014N\u0006\u0001\uffff\uffff\u0000\u0015\u0016\u0005\u0003\u0000"+
+		"\u0000\u0016N\u0006\u0001\uffff\uffff\u0000\u0017\u0018\u0005\u0004\u0000"+
+		"\u0000\u0018N\u0006\u0001\uffff\uffff\u0000\u0019\u001a\u0005\u0005\u0000"+
+		"\u0000\u001aN\u0006\u0001\uffff\uffff\u0000\u001b\u001c\u0005\u0006\u0000"+
+		"\u0000\u001cN\u0006\u0001\uffff\uffff\u0000\u001d\u001e\u0005\u0007\u0000"+
+		"\u0000\u001eN\u0006\u0001\uffff\uffff\u0000\u001f \u0005\b\u0000\u0000"+
+		" N\u0006\u0001\uffff\uffff\u0000!\"\u0005\u001c\u0000\u0000\"#\u0005\u001b"+
+		"\u0000\u0000#N\u0006\u0001\uffff\uffff\u0000$%\u0005\t\u0000\u0000%&\u0005"+
+		"\u001c\u0000\u0000&N\u0006\u0001\uffff\uffff\u0000\'(\u0005\n\u0000\u0000"+
+		"()\u0005\u001c\u0000\u0000)N\u0006\u0001\uffff\uffff\u0000*+\u0005\u000b"+
+		"\u0000\u0000+,\u0005\u001c\u0000\u0000,N\u0006\u0001\uffff\uffff\u0000"+
+		"-.\u0005\f\u0000\u0000.N\u0006\u0001\uffff\uffff\u0000/0\u0005\r\u0000"+
+		"\u00000N\u0006\u0001\uffff\uffff\u000012\u0005\u000e\u0000\u00002N\u0006"+
+		"\u0001\uffff\uffff\u000034\u0005\u000f\u0000\u00004N\u0006\u0001\uffff"+
+		"\uffff\u000056\u0005\u0010\u0000\u00006N\u0006\u0001\uffff\uffff\u0000"+
+		"78\u0005\u0011\u0000\u00008N\u0006\u0001\uffff\uffff\u00009:\u0005\u0012"+
+		"\u0000\u0000:N\u0006\u0001\uffff\uffff\u0000;<\u0005\u0013\u0000\u0000"+
+		"<N\u0006\u0001\uffff\uffff\u0000=>\u0005\u0014\u0000\u0000>N\u0006\u0001"+
+		"\uffff\uffff\u0000?@\u0005\u0015\u0000\u0000@N\u0006\u0001\uffff\uffff"+
+		"\u0000AB\u0005\u0016\u0000\u0000BN\u0006\u0001\uffff\uffff\u0000CD\u0005"+
+		"\u0017\u0000\u0000DN\u0006\u0001\uffff\uffff\u0000EF\u0005\u0018\u0000"+
+		"\u0000FN\u0006\u0001\uffff\uffff\u0000GH\u0005\u0019\u0000\u0000HI\u0005"+
+		"\u001d\u0000\u0000IN\u0006\u0001\uffff\uffff\u0000JK\u0005\u001a\u0000"+
+		"\u0000KL\u0005\u001c\u0000\u0000LN\u0006\u0001\uffff\uffff\u0000M\r\u0001"+
+		"\u0000\u0000\u0000M\u0010\u0001\u0000\u0000\u0000M\u0013\u0001\u0000\u0000"+
+		"\u0000M\u0015\u0001\u0000\u0000\u0000M\u0017\u0001\u0000\u0000\u0000M"+
+		"\u0019\u0001\u0000\u0000\u0000M\u001b\u0001\u0000\u0000\u0000M\u001d\u0001"+
+		"\u0000\u0000\u0000M\u001f\u0001\u0000\u0000\u0000M!\u0001\u0000\u0000"+
+		"\u0000M$\u0001\u0000\u0000\u0000M\'\u0001\u0000\u0000\u0000M*\u0001\u0000"+
+		"\u0000\u0000M-\u0001\u0000\u0000\u0000M/\u0001\u0000\u0000\u0000M1\u0001"+
+		"\u0000\u0000\u0000M3\u0001\u0000\u0000\u0000M5\u0001\u0000\u0000\u0000"+
+		"M7\u0001\u0000\u0000\u0000M9\u0001\u0000\u0000\u0000M;\u0001\u0000\u0000"+
+		"\u0000M=\u0001\u0000\u0000\u0000M?\u0001\u0000\u0000\u0000MA\u0001\u0000"+
+		"\u0000\u0000MC\u0001\u0000\u0000\u0000ME\u0001\u0000\u0000\u0000MG\u0001"+
+		"\u0000\u0000\u0000MJ\u0001\u0000\u0000\u0000N\u0003\u0001\u0000\u0000"+
+		"\u0000\u0002\u0007M";
 	public static final ATN _ATN =
 		new ATNDeserializer().deserialize(_serializedATN.toCharArray());
 	static {
@@ -36,13 +36,15 @@ public class AST {
 
     public static class FunNode extends DecNode {
         final String id;
+        final int sym; // id internato (vedi Symbols)
         final TypeNode retType;
         final List<ParNode> parlist;
         final List<DecNode> declist;
         final Node exp;
 
-        FunNode(String i, TypeNode rt, List<ParNode> pl, List<DecNode> dl, Node e) {
+        FunNode(String i, int s, TypeNode rt, List<ParNode> pl, List<DecNode> dl, Node e) {
             id = i;
+            sym = s;
             retType = rt;
             parlist = Collections.unmodifiableList(pl);
             declist = Collections.unmodifiableList(dl);
@@ -59,9 +61,11 @@ public class AST {
 
     public static class ParNode extends DecNode {
         final String id;
+        final int sym;
 
-        ParNode(String i, TypeNode t) {
+        ParNode(String i, int s, TypeNode t) {
             id = i;
+            sym = s;
             type = t;
         }
 
@@ -73,10 +77,13 @@ public class AST {
 
     public static class VarNode extends DecNode {
         final String id;
+        final int sym;
         final Node exp;
+        STentry entry; //della dichiarazione, per confrontarla con quelle degli usi
 
-        VarNode(String i, TypeNode t, Node v) {
+        VarNode(String i, int s, TypeNode t, Node v) {
             id = i;
+            sym = s;
             type = t;
             exp = v;
         }
@@ -267,12 +274,14 @@ public class AST {
 
     public static class CallNode extends Node {
         final String id;
+        final int sym;
         final List<Node> arglist;
         STentry entry;
         int nl;
 
-        CallNode(String i, List<Node> p) {
+        CallNode(String i, int s, List<Node> p) {
             id = i;
+            sym = s;
             arglist = Collections.unmodifiableList(p);
         }
 
@@ -284,11 +293,13 @@ public class AST {
 
     public static class IdNode extends Node {
         final String id;
+        final int sym;
         STentry entry;
         int nl;
 
-        IdNode(String i) {
+        IdNode(String i, int s) {
             id = i;
+            sym = s;
         }
 
         @Override
@@ -445,10 +456,13 @@ public class AST {
         final List<MethodNode> methods;
         final List<FieldNode> fields;
         final String superId; //nulla se non c'è
+        final int sym, superSym; //superSym -1 se non c'è
         STentry superEntry;
 
-        public ClassNode(String id, List<MethodNode> methods, List<FieldNode> fields, String superId, TypeNode t) {
+        public ClassNode(String id, int sym, List<MethodNode> methods, List<FieldNode> fields, String superId, int superSym, TypeNode t) {
             this.id = id;
+            this.sym = sym;
+            this.superSym = superSym;
             this.methods = Collections.unmodifiableList(methods);
             this.fields = Collections.unmodifiableList(fields);
             this.superId = superId;
@@ -472,9 +486,10 @@ public class AST {
             this.allMethods = new ArrayList<>(methods);
         }
 
-        //se si eredita
+        //se si eredita: le liste del padre sono condivise, non copiate
         ClassTypeNode(final ClassTypeNode parent) {
-            this(parent.allFields, parent.allMethods);
+            this.allFields = new OverlayList<>(parent.allFields);
+            this.allMethods = new OverlayList<>(parent.allMethods);
         }
 
         @Override
@@ -486,11 +501,13 @@ public class AST {
 
     public static class NewNode extends Node {
         final String className;//nome classe
+        final int classSym;
         final List<Node> argumentList;//argomenti del costruttore
         STentry classEntry;
 
-        NewNode(String id, final List<Node> args) {
+        NewNode(String id, int sym, final List<Node> args) {
             this.className = id;
+            this.classSym = sym;
             this.argumentList = Collections.unmodifiableList(args);
         }
 
@@ -502,14 +519,16 @@ public class AST {
 
     public static class ClassCallNode extends Node {
         final String classId;//classe
+        final int classSym;
         final String methodId;//metodo
         final List<Node> argumentList;//argomenti del metodo
         STentry classEntry;
         STentry methodEntry;
         int nestingLevel;
 
-        ClassCallNode(final String classId, final String methodId, final List<Node> args) {
+        ClassCallNode(final String classId, final int classSym, final String methodId, final List<Node> args) {
             this.classId = classId;
+            this.classSym = classSym;
             this.methodId = methodId;
             this.argumentList = Collections.unmodifiableList(args);
             this.nestingLevel = 0;
@@ -14,9 +14,11 @@ public class ASTGenerationSTVisitor extends FOOLBaseVisitor<Node> {
 
 	String indent;
     public boolean print;
+    final Symbols symbols; // identificatori internati nei nodi (campi sym)
 	
-    ASTGenerationSTVisitor() {}    
-    ASTGenerationSTVisitor(boolean debug) { print=debug; }
+    ASTGenerationSTVisitor() { this(new Symbols()); }    
+    ASTGenerationSTVisitor(boolean debug) { this(new Symbols()); print=debug; }
+    ASTGenerationSTVisitor(Symbols symbols) { this.symbols = symbols; } // simboli condivisi tra compilazioni
         
     private void printVarAndProdName(ParserRuleContext ctx) {
         String prefix="";        
@@ -142,7 +144,7 @@ public class ASTGenerationSTVisitor extends FOOLBaseVisitor<Node> {
 		if (print) printVarAndProdName(c);
 		Node n = null;
 		if (c.ID()!=null) { //non-incomplete ST
-			n = new VarNode(c.ID().getText(), (TypeNode) visit(c.type()), visit(c.exp()));
+			n = new VarNode(c.ID().getText(), symbols.intern(c.ID().getText()), (TypeNode) visit(c.type()), visit(c.exp()));
 			n.setLine(c.VAR().getSymbol().getLine());
 		}
         return n;
@@ -153,7 +155,7 @@ public class ASTGenerationSTVisitor extends FOOLBaseVisitor<Node> {
 		if (print) printVarAndProdName(c);
 		List<ParNode> parList = new ArrayList<>();
 		for (int i = 1; i < c.ID().size(); i++) { 
-			ParNode p = new ParNode(c.ID(i).getText(),(TypeNode) visit(c.type(i)));
+			ParNode p = new ParNode(c.ID(i).getText(),symbols.intern(c.ID(i).getText()),(TypeNode) visit(c.type(i)));
 			p.setLine(c.ID(i).getSymbol().getLine());
 			parList.add(p);
 		}
@@ -161,7 +163,7 @@ public class ASTGenerationSTVisitor extends FOOLBaseVisitor<Node> {
 		for (DecContext dec : c.dec()) decList.add((DecNode) visit(dec));
 		Node n = null;
 		if (c.ID().size()>0) { //non-incomplete ST
-			n = new FunNode(c.ID(0).getText(),(TypeNode)visit(c.type(0)),parList,decList,visit(c.exp()));
+			n = new FunNode(c.ID(0).getText(),symbols.intern(c.ID(0).getText()),(TypeNode)visit(c.type(0)),parList,decList,visit(c.exp()));
 			n.setLine(c.FUN().getSymbol().getLine());
 		}
         return n;
@@ -170,13 +172,13 @@ public class ASTGenerationSTVisitor extends FOOLBaseVisitor<Node> {
 	@Override
 	public Node visitIntType(IntTypeContext c) {
 		if (print) printVarAndProdName(c);
-		return new IntTypeNode();
+		return TypeFactory.intType();
 	}
 
 	@Override
 	public Node visitBoolType(BoolTypeContext c) {
 		if (print) printVarAndProdName(c);
-		return new BoolTypeNode();
+		return TypeFactory.boolType();
 	}
 
 	@Override
@@ -224,7 +226,7 @@ public class ASTGenerationSTVisitor extends FOOLBaseVisitor<Node> {
 	@Override
 	public Node visitId(IdContext c) {
 		if (print) printVarAndProdName(c);
-		Node n = new IdNode(c.ID().getText());
+		Node n = new IdNode(c.ID().getText(), symbols.intern(c.ID().getText()));
 		n.setLine(c.ID().getSymbol().getLine());
 		return n;
 	}
@@ -234,7 +236,7 @@ public class ASTGenerationSTVisitor extends FOOLBaseVisitor<Node> {
 		if (print) printVarAndProdName(c);		
 		List<Node> arglist = new ArrayList<>();
 		for (ExpContext arg : c.exp()) arglist.add(visit(arg));
-		Node n = new CallNode(c.ID().getText(), arglist);
+		Node n = new CallNode(c.ID().getText(), symbols.intern(c.ID().getText()), arglist);
 		n.setLine(c.ID().getSymbol().getLine());
 		return n;
 	}
@@ -288,12 +290,12 @@ public class ASTGenerationSTVisitor extends FOOLBaseVisitor<Node> {
 				MethodNode method = (MethodNode) visit(x);
 				methods.add(method);
 
-				ArrowTypeNode methodArrowType = new ArrowTypeNode(method.parlist.stream().map(ParNode::getType).toList(),method.retType);
+				ArrowTypeNode methodArrowType = TypeFactory.arrowType(method.parlist.stream().map(ParNode::getType).toList(),method.retType);
 				methodsArrowTypes.add(methodArrowType);
 			}
 		}
 
-		Node n = new ClassNode(name, methods, fields, superClass, new ClassTypeNode(new ArrayList<>(fieldTypes), new ArrayList<>(methodsArrowTypes)));
+		Node n = new ClassNode(name, symbols.intern(name), methods, fields, superClass, superClass == null ? -1 : symbols.intern(superClass), new ClassTypeNode(new ArrayList<>(fieldTypes), new ArrayList<>(methodsArrowTypes)));
 		n.setLine(ctx.CLASS().getSymbol().getLine());
 
 		return n;
@@ -315,7 +317,7 @@ public class ASTGenerationSTVisitor extends FOOLBaseVisitor<Node> {
 		List<TypeNode> parTypes = new ArrayList<>();
 
 		for (int i = 1; i < ctx.ID().size(); i++) {
-			ParNode param = new ParNode(ctx.ID(i).getText(), (TypeNode) visit(ctx.type(i)));
+			ParNode param = new ParNode(ctx.ID(i).getText(), symbols.intern(ctx.ID(i).getText()), (TypeNode) visit(ctx.type(i)));
 			param.setLine(ctx.ID(i).getSymbol().getLine());
 			parList.add(param);
 			parTypes.add(param.getType());
@@ -331,7 +333,7 @@ public class ASTGenerationSTVisitor extends FOOLBaseVisitor<Node> {
 					parList,
 					decList,
 					visit(ctx.exp()),
-					new ArrowTypeNode(new ArrayList<>(parTypes), returnType)
+					TypeFactory.arrowType(parTypes, returnType)
 			);
 
 			n.setLine(ctx.FUN().getSymbol().getLine());
@@ -352,7 +354,7 @@ public class ASTGenerationSTVisitor extends FOOLBaseVisitor<Node> {
 
 		for (ExpContext arg : ctx.exp()) args.add(visit(arg));
 
-		final Node n = new NewNode(cId, args);
+		final Node n = new NewNode(cId, symbols.intern(cId), args);
 
 		n.setLine(ctx.NEW().getSymbol().getLine());
 		return n;
@@ -373,7 +375,7 @@ public class ASTGenerationSTVisitor extends FOOLBaseVisitor<Node> {
 
 		for (ExpContext param : ctx.exp()) params.add(visit(param));
 
-		Node n = new ClassCallNode(cId, mId, params);
+		Node n = new ClassCallNode(cId, symbols.intern(cId), mId, params);
 		n.setLine(ctx.DOT().getSymbol().getLine());
 		return n;
 	}
@@ -382,9 +384,7 @@ public class ASTGenerationSTVisitor extends FOOLBaseVisitor<Node> {
 	public Node visitIdType(IdTypeContext ctx) {
 		if (this.print) this.printVarAndProdName(ctx);
 		final String id = ctx.ID().getText();
-		final RefTypeNode node = new RefTypeNode(id);
-		node.setLine(ctx.ID().getSymbol().getLine());
-		return node;
+		return TypeFactory.refType(id); //interned: condiviso da tutte le occorrenze, quindi senza linea
 	}
 
 
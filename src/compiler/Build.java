@@ -0,0 +1,58 @@
+package compiler;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import org.antlr.v4.runtime.CharStreams;
+import svm.*;
+
+/**
+ * Compilazione separata da riga di comando:  java compiler.Build lib.fool ... main.fool
+ *
+ * Ogni modulo (il nome e' quello del file senza .fool) e' compilato contro i moduli che lo
+ * precedono nel file oggetto <nome>.fo accanto al sorgente; un file oggetto esistente e' riusato
+ * se il sorgente e le interfacce dei moduli precedenti non sono cambiati, quindi una libreria
+ * condivisa si compila una volta sola. I moduli sono poi collegati (l'ultimo e' il principale),
+ * l'asm e' scritto in <principale>.fool.asm e il programma eseguito.
+ */
+public class Build {
+	public static void main(String[] args) throws IOException {
+		FoolCompiler compiler = new FoolCompiler();
+		List<ObjectModule> modules = new ArrayList<>();
+		for (String arg : args) {
+			Path source = Paths.get(arg);
+			String name = source.getFileName().toString().replaceFirst("\\.fool$", "");
+			if (!ObjectModule.validName(name)) {
+				System.out.println("Invalid module name "+name+" (only letters and digits)");
+				System.exit(1);
+			}
+			Path object = source.resolveSibling(name+".fo");
+			String text = CharStreams.fromFileName(arg).toString(); // come Test: i byte non UTF-8 non bloccano la lettura
+			ObjectModule cached = null;
+			if (Files.exists(object)) {
+				try {
+					cached = ObjectModule.read(object);
+				} catch (IllegalArgumentException e) { // file oggetto illeggibile: si ricompila
+				}
+			}
+			if (cached != null && cached.name.equals(name) && cached.upToDate(text, modules)) {
+				System.out.println(name+": up to date");
+				modules.add(cached);
+				continue;
+			}
+			System.out.println(name+": compiling");
+			FoolCompiler.Result result = compiler.compileModule(name, text, modules);
+			for (FoolCompiler.Diagnostic d : result.diagnostics) System.out.println(d);
+			if (!result.ok()) System.exit(1);
+			result.module.write(object);
+			modules.add(result.module);
+		}
+
+		FoolCompiler.Result image = compiler.link(modules);
+		for (FoolCompiler.Diagnostic d : image.diagnostics) System.out.println(d);
+		if (!image.ok()) System.exit(1);
+		Files.writeString(Paths.get(args[args.length-1]+".asm"), image.asm);
+		System.out.println("Running linked program via Stack Virtual Machine.");
+		new ExecuteVM(image.code).cpu();
+	}
+}
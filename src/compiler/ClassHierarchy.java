@@ -0,0 +1,98 @@
+package compiler;
+
+import java.util.*;
+
+/**
+ * Indice della gerarchia delle classi, costruito una sola volta a partire dalla mappa superType.
+ * - sottotipo in O(1): numerazione a intervalli di una visita in profondita' della foresta
+ *   delle classi (a <= b sse l'intervallo di a e' contenuto in quello di b)
+ * - antenato comune piu' basso in O(log n): binary lifting sugli antenati a distanza 2^k
+ */
+class ClassHierarchy {
+
+	private final Map<String,Integer> index = new HashMap<>();
+	private final String[] names;
+	private final int[] pre, post, depth;
+	private final int[][] up; // up[k][v] = antenato di v a distanza 2^k (la radice e' antenato di se stessa)
+
+	ClassHierarchy(Map<String,String> superType) {
+		for (Map.Entry<String,String> e : superType.entrySet()) {
+			index.putIfAbsent(e.getKey(), index.size());
+			index.putIfAbsent(e.getValue(), index.size());
+		}
+		int n = index.size();
+		names = new String[n];
+		for (Map.Entry<String,Integer> e : index.entrySet()) names[e.getValue()] = e.getKey();
+
+		int[] parent = new int[n];
+		List<List<Integer>> children = new ArrayList<>();
+		for (int v = 0; v < n; v++) {
+			children.add(new ArrayList<>());
+			parent[v] = v;
+		}
+		for (Map.Entry<String,String> e : superType.entrySet()) {
+			int c = index.get(e.getKey()), p = index.get(e.getValue());
+			parent[c] = p;
+			children.get(p).add(c);
+		}
+
+		int log = 1;
+		while ((1 << log) < n) log++;
+		up = new int[log][n];
+		pre = new int[n];
+		post = new int[n];
+		depth = new int[n];
+		up[0] = parent;
+
+		// visita in profondita' iterativa (le gerarchie possono essere molto profonde)
+		int counter = 0;
+		int[] stack = new int[n], next = new int[n];
+		for (int root = 0; root < n; root++) {
+			if (parent[root] != root) continue;
+			int top = 0;
+			stack[0] = root;
+			pre[root] = counter++;
+			while (top >= 0) {
+				int v = stack[top];
+				if (next[v] < children.get(v).size()) {
+					int c = children.get(v).get(next[v]++);
+					depth[c] = depth[v] + 1;
+					pre[c] = counter++;
+					stack[++top] = c;
+				} else {
+					post[v] = counter++;
+					top--;
+				}
+			}
+		}
+		for (int k = 1; k < log; k++)
+			for (int v = 0; v < n; v++) up[k][v] = up[k-1][up[k-1][v]];
+	}
+
+	// a e' la classe b o una sua sottoclasse (anche indiretta)
+	boolean isSubclass(String a, String b) {
+		if (a.equals(b)) return true;
+		Integer x = index.get(a), y = index.get(b);
+		if (x == null || y == null) return false;
+		return pre[y] <= pre[x] && post[x] <= post[y];
+	}
+
+	// antenato comune piu' basso di a e b, null se non ne hanno
+	String lowestCommonAncestor(String a, String b) {
+		if (a.equals(b)) return a;
+		Integer x = index.get(a), y = index.get(b);
+		if (x == null || y == null) return null;
+		int u = x, v = y;
+		if (depth[u] < depth[v]) { int t = u; u = v; v = t; }
+		for (int k = up.length - 1; k >= 0; k--)
+			if (depth[u] - (1 << k) >= depth[v]) u = up[k][u];
+		if (u == v) return names[u];
+		for (int k = up.length - 1; k >= 0; k--)
+			if (up[k][u] != up[k][v]) {
+				u = up[k][u];
+				v = up[k][v];
+			}
+		return up[0][u] == up[0][v] ? names[up[0][u]] : null; // radici diverse: alberi diversi
+	}
+
+}
@@ -7,34 +7,149 @@ import svm.ExecuteVM;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import static compiler.lib.FOOLlib.*;
 
 public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidException> {
 
     private final List<List<String>> dispatchTables = new ArrayList<>();
+    private final CompilationContext ctx; //etichette e codice delle funzioni di questa compilazione
+    private boolean checkpoint; //emette "chkp" dopo le dichiarazioni del let principale
+    private boolean parallel; //funzioni e metodi del let principale generati in parallelo (fork-join)
 
-    CodeGenerationASTVisitor() {
+    CodeGenerationASTVisitor(CompilationContext ctx) {
+        this.ctx = ctx;
     }
 
-    CodeGenerationASTVisitor(boolean debug) {
+    CodeGenerationASTVisitor(CompilationContext ctx, boolean debug) {
         super(false, debug);
+        this.ctx = ctx;
     } //enables print for debugging
 
+    CodeGenerationASTVisitor(CompilationContext ctx, boolean debug, boolean checkpoint) {
+        super(false, debug);
+        this.ctx = ctx;
+        this.checkpoint = checkpoint;
+    }
+
+    CodeGenerationASTVisitor(CompilationContext ctx, boolean debug, boolean checkpoint, boolean parallel) {
+        this(ctx, debug, checkpoint);
+        this.parallel = parallel && !debug && ctx.declarations == null; // niente DeclarationCache: ha i suoi namespace
+    }
+
     @Override
     public String visitNode(ProgLetInNode n) {
         if (print) printNode(n);
-        String declCode = null;
-        for (Node dec : n.declist) declCode = nlJoin(declCode, visit(dec));
+        if (parallel) return program(declarationsParallel(n.declist), n.exp);
+        StringBuilder declCode = new StringBuilder();
+        for (Node dec : n.declist) {
+            String code = declaration(dec);
+            if (code != null) declCode.append(declCode.isEmpty() ? "" : "\n").append(code);
+        }
+        return program(declCode.isEmpty() ? null : declCode.toString(), n.exp);
+    }
+
+    // codice delle dichiarazioni del let principale generato in parallelo: ogni dichiarazione (per
+    // le classi, ogni metodo) e' un frammento compilato da un proprio visitor, in un contesto
+    // (CompilationContext.branch) con un namespace di etichette proprio; i frammenti sono poi
+    // collegati in ordine, quindi il codice e' deterministico, con etichette "p<frammento>x..."
+    private String declarationsParallel(List<DecNode> decs) {
+        List<Fragment> fragments = new ArrayList<>();
+        for (Node dec : decs) {
+            if (dec instanceof ClassNode c) for (MethodNode m : c.methods) fragments.add(new Fragment(m, fragments.size()));
+            else fragments.add(new Fragment(dec, fragments.size()));
+        }
+        ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(fragments);
+            }
+        });
+        StringBuilder declCode = new StringBuilder();
+        int next = 0;
+        for (Node dec : decs) {
+            String code;
+            if (dec instanceof ClassNode c) {
+                for (int i = 0; i < c.methods.size(); i++) fragments.get(next++).link();
+                code = classCode(c);
+            } else code = fragments.get(next++).link();
+            if (code != null) declCode.append(declCode.isEmpty() ? "" : "\n").append(code);
+        }
+        return declCode.isEmpty() ? null : declCode.toString();
+    }
+
+    private class Fragment extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final Node node;
+        final CompilationContext context = ctx.branch(ctx::report);
+        String code;
+
+        Fragment(Node node, int index) {
+            this.node = node;
+            context.enterLabelNamespace("p" + index + "x");
+        }
+
+        @Override
+        protected void compute() {
+            code = new CodeGenerationASTVisitor(context).visit(node);
+        }
+
+        // aggiunge il codice delle funzioni del frammento e ritorna il codice della dichiarazione
+        String link() {
+            for (String c : context.codeFragmentsSince(0)) ctx.putCode(c);
+            return code;
+        }
+    }
+
+    // slot globale di un modulo importato (FoolCompiler.compileModule): le classi hanno gia' la loro
+    // dispatch table, le altre dichiarazioni null; va chiamato prima delle dichiarazioni del modulo
+    void importSlot(List<String> dispatchTable) {
+        this.dispatchTables.add(dispatchTable);
+    }
+
+    // dispatch table della classe nello slot globale index, dopo averne generato il codice
+    List<String> dispatchTable(int index) {
+        return this.dispatchTables.get(index);
+    }
+
+    // codice del let principale dato quello delle sue dichiarazioni (FoolCompiler con FlatAST
+    // genera le dichiarazioni una alla volta con declaration)
+    String program(String declCode, Node exp) {
         return nlJoin(
                 "push 0",
                 declCode, // generate code for declarations (allocation)
-                visit(n.exp),
+                checkpoint ? "chkp" : null, // snapshot della macchina con le dichiarazioni gia' valutate
+                visit(exp),
                 "halt",
-                getCode()
+                ctx.getCode()
         );
     }
 
+    // codice di una dichiarazione del let principale; con la compilazione incrementale
+    // viene preso dalla DeclarationCache o generato in un namespace di etichette proprio e salvato
+    String declaration(Node dec) {
+        DeclarationCache cache = ctx.declarations;
+        DeclarationCache.Entry cached = cache == null ? null : cache.reused(dec);
+        if (cached != null) {
+            for (String c : cached.functionCode) ctx.putCode(c);
+            if (cached.dispatchTable != null) this.dispatchTables.add(cached.dispatchTable);
+            return cached.code;
+        }
+        DeclarationCache.Entry fresh = cache == null ? null : cache.fresh(dec);
+        if (fresh == null) return visit(dec);
+        int mark = ctx.codeFragments();
+        ctx.enterLabelNamespace(fresh.labelNamespace());
+        fresh.code = visit(dec);
+        ctx.exitLabelNamespace();
+        fresh.functionCode = ctx.codeFragmentsSince(mark);
+        if (dec instanceof ClassNode) fresh.dispatchTable = this.dispatchTables.get(this.dispatchTables.size() - 1);
+        fresh.complete = true;
+        return fresh.code;
+    }
+
     @Override
     public String visitNode(ProgNode n) {
         if (print) printNode(n);
@@ -53,8 +168,8 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
             popDecl = nlJoin(popDecl, "pop");
         }
         for (int i = 0; i < n.parlist.size(); i++) popParl = nlJoin(popParl, "pop");
-        String funl = freshFunLabel();
-        putCode(
+        String funl = ctx.freshFunLabel(n.parlist.size());
+        ctx.putCode(
                 nlJoin(
                         funl + ":",
                         "cfp", // set $fp to $sp value
@@ -93,8 +208,8 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
     @Override
     public String visitNode(IfNode n) {
         if (print) printNode(n);
-        String l1 = freshLabel();
-        String l2 = freshLabel();
+        String l1 = ctx.freshLabel();
+        String l2 = ctx.freshLabel();
         return nlJoin(
                 visit(n.cond),
                 "push 1",
@@ -110,8 +225,8 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
     @Override
     public String visitNode(EqualNode n) {
         if (print) printNode(n);
-        String l1 = freshLabel();
-        String l2 = freshLabel();
+        String l1 = ctx.freshLabel();
+        String l2 = ctx.freshLabel();
         return nlJoin(
                 visit(n.left),
                 visit(n.right),
@@ -127,8 +242,8 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
     @Override
     public String visitNode(LessEqualNode n) {
         if (print) printNode(n);
-        String l1 = freshLabel();
-        String l2 = freshLabel();
+        String l1 = ctx.freshLabel();
+        String l2 = ctx.freshLabel();
         return nlJoin(
                 visit(n.left),
                 visit(n.right),
@@ -144,8 +259,8 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
     @Override
     public String visitNode(GreaterEqualNode n) {
         if (print) printNode(n);
-        String l1 = freshLabel();
-        String l2 = freshLabel();
+        String l1 = ctx.freshLabel();
+        String l2 = ctx.freshLabel();
         return nlJoin(
                 visit(n.right),
                 visit(n.left),
@@ -161,8 +276,8 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
     @Override
     public String visitNode(AndNode n) {
         if (print) printNode(n);
-        String falseLabel = freshLabel();
-        String trueLabel = freshLabel();
+        String falseLabel = ctx.freshLabel();
+        String trueLabel = ctx.freshLabel();
         return nlJoin(
                 visit(n.left),    //visito left
                 "push " + 0,            //compara con 0
@@ -181,8 +296,8 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
     @Override
     public String visitNode(OrNode n) {
         if (print) printNode(n);
-        String falseLabel = freshLabel();
-        String trueLabel = freshLabel();
+        String falseLabel = ctx.freshLabel();
+        String trueLabel = ctx.freshLabel();
         return nlJoin(
                 visit(n.left),    //visito right
                 "push " + 1,            //true?
@@ -201,8 +316,8 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
     @Override
     public String visitNode(NotNode n) {
         if (print) printNode(n);
-        String falseLabel = freshLabel();
-        String trueLabel = freshLabel();
+        String falseLabel = ctx.freshLabel();
+        String trueLabel = ctx.freshLabel();
         return nlJoin(
                 visit(n.exp),
                 "push " + 1,
@@ -312,7 +427,7 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
     @Override
     public String visitNode(MethodNode n) throws VoidException {
         if (print) printNode(n);
-        String label = freshMethodLabel();
+        String label = ctx.freshMethodLabel(n.parlist.size());
         n.label = label;
 
         String declCode = null, popDecl = null, popParl = null;
@@ -323,7 +438,7 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
         for (int i = 0; i < n.parlist.size(); i++) popParl = nlJoin(popParl, "pop");
 
 
-        putCode(
+        ctx.putCode(
                 nlJoin(
                         label + ":",
                         "cfp", // set $fp to $sp value
@@ -349,16 +464,22 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
     public String visitNode(ClassNode n) throws VoidException {
         if (print) printNode(n, n.superId!=null? n.id + " Extends " + n.superId : n.id);
 
+        for (var method : n.methods) visit(method);
+        return classCode(n);
+    }
+
+    // dispatch table della classe (i metodi sono gia' generati: ne servono le etichette)
+    // e codice che la copia nello heap
+    private String classCode(ClassNode n) {
         List<String> dispatchTable = new ArrayList<>();
-        this.dispatchTables.add(dispatchTable);
         if (n.superId != null) {
-            //eredito
+            //eredito: la dispatch table della superclasse e' condivisa, non copiata
             final List<String> superDispatchTable = this.dispatchTables.get(-n.superEntry.offset - 2);
-            dispatchTable.addAll(superDispatchTable);
+            dispatchTable = new OverlayList<>(superDispatchTable);
         }
+        this.dispatchTables.add(dispatchTable);
 
         for (var method : n.methods) {
-            visit(method);
             String methodLabel = method.label;
             int methodOffset = method.offset;
 
@@ -478,6 +599,7 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
 
         return nlJoin(
                 argCode,
+                ctx.freshNewLabel() + ":", //sito di allocazione (solo per il profiling, non genera istruzioni)
                 argValue,
                 dispatch,
                 code
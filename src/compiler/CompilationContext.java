@@ -0,0 +1,128 @@
+package compiler;
+
+import compiler.lib.*;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Stato di una singola compilazione, condiviso dai visitor che la compongono: contatore degli
+ * errori di tipo, contatori delle etichette, codice delle funzioni/metodi accumulato durante la
+ * generazione e relazioni tra tipi (gerarchia delle classi).
+ * Compilazioni diverse usano contesti diversi, quindi possono essere eseguite in parallelo
+ * e il codice generato non dipende da quelle precedenti.
+ */
+public class CompilationContext {
+
+	private final Consumer<String> reporter; // destinazione dei messaggi di errore dei visitor
+
+	public CompilationContext() {
+		this(System.out::println);
+	}
+
+	public CompilationContext(Consumer<String> reporter) {
+		this(reporter, new TypeRels(), new ConcurrentHashMap<>());
+	}
+
+	private CompilationContext(Consumer<String> reporter, TypeRels typeRels, Map<String,Integer> arities) {
+		this.reporter = reporter;
+		this.typeRels = typeRels;
+		this.arities = arities;
+	}
+
+	// contesto di un sotto-compito (type checking parallelo): stesse relazioni tra tipi e stessa
+	// DeclarationCache, ma contatore degli errori e messaggi propri, che il chiamante riporta qui
+	CompilationContext branch(Consumer<String> reporter) {
+		CompilationContext branch = new CompilationContext(reporter, typeRels, arities);
+		branch.declarations = declarations;
+		return branch;
+	}
+
+	public void report(String message) {
+		reporter.accept(message);
+	}
+
+	public int typeErrors = 0;
+
+	final TypeRels typeRels;
+
+	DeclarationCache declarations; // null se la compilazione non e' incrementale
+
+	// le etichette sono <tipo><namespace><contatore>; il codice di una dichiarazione che finisce
+	// nella DeclarationCache e' generato in un namespace proprio, cosi' le sue etichette restano
+	// uniche quando viene riusato in un'altra compilazione
+	private String labelNamespace = "";
+	private int[] savedCounters;
+
+	void enterLabelNamespace(String namespace) {
+		savedCounters = new int[] {labCount, funlabCount, methlabCount, newlabCount};
+		labCount = funlabCount = methlabCount = newlabCount = 0;
+		labelNamespace = namespace;
+	}
+
+	void exitLabelNamespace() {
+		labCount = savedCounters[0];
+		funlabCount = savedCounters[1];
+		methlabCount = savedCounters[2];
+		newlabCount = savedCounters[3];
+		labelNamespace = "";
+	}
+
+	private int labCount = 0;
+
+	public String freshLabel() {
+		return "label"+labelNamespace+(labCount++);
+	}
+
+	// numero di parametri di funzioni e metodi per etichetta, per la CodeMap della SVM
+	// (il profiler a campionamento risale i record di attivazione)
+	private final Map<String,Integer> arities;
+
+	public Map<String,Integer> getArities() {
+		return arities;
+	}
+
+	private int funlabCount = 0;
+
+	public String freshFunLabel(int arity) {
+		String label = "function"+labelNamespace+(funlabCount++);
+		arities.put(label, arity);
+		return label;
+	}
+
+	private int methlabCount = 0;
+
+	public String freshMethodLabel(int arity) {
+		String label = "method"+labelNamespace+(methlabCount++);
+		arities.put(label, arity);
+		return label;
+	}
+
+	private int newlabCount = 0;
+
+	public String freshNewLabel() { // marca i siti di allocazione (usata dal profiler della SVM)
+		return "new"+labelNamespace+(newlabCount++);
+	}
+
+	private final List<String> funCode = new ArrayList<>(); // codice di funzioni e metodi, in ordine
+
+	public void putCode(String c) {
+		funCode.add(c);
+	}
+
+	public String getCode() {
+		if (funCode.isEmpty()) return null;
+		StringBuilder code = new StringBuilder(); // non nlJoin in un ciclo: quadratico con molte funzioni
+		for (String c : funCode) code.append("\n\n").append(c); //linea vuota di separazione prima di codice funzione
+		return code.substring(1);
+	}
+
+	int codeFragments() {
+		return funCode.size();
+	}
+
+	List<String> codeFragmentsSince(int mark) {
+		return new ArrayList<>(funCode.subList(mark, funCode.size()));
+	}
+}
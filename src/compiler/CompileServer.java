@@ -0,0 +1,139 @@
+package compiler;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import svm.*;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Server di compilazione: un processo che resta attivo e compila (ed eventualmente esegue) un
+ * programma FOOL per ogni richiesta. Il FoolCompiler (con lexer e parser) viene riusato tra le
+ * richieste, le cache DFA di ANTLR restano calde e il codice del compilatore e della SVM e' gia'
+ * ottimizzato dalla JIT, quindi ogni richiesta costa millisecondi invece di un avvio della JVM.
+ *
+ * Protocollo a righe su stdin/stdout, oppure su un socket Unix con -Dsocket=<path>:
+ *   richiesta:  <comando> <n>   seguita da n righe di sorgente FOOL
+ *               check: solo front-end; asm: anche codice SVM; run: compila ed esegue
+ *               quit: chiude la connessione (su stdin termina il server)
+ *   risposta:   <ok|error> <microsecondi>
+ *               diagnostics <n>  seguita da n righe (messaggi delle fasi di compilazione)
+ *               asm <n>          seguita da n righe (solo per asm)
+ *               output <n>       seguita da n righe (solo per run: output del programma)
+ *               end
+ *
+ * Le richieste di una connessione sono servite una alla volta.
+ */
+public class CompileServer {
+
+	static final long DEFAULT_FUEL = 1_000_000_000L; // -Dfuel=<n>: limite all'esecuzione di run
+
+	private final FoolCompiler compiler = new FoolCompiler();
+	private final long fuel;
+
+	CompileServer(long fuel) {
+		this.fuel = fuel;
+	}
+
+	public static void main(String[] args) throws IOException {
+		CompileServer server = new CompileServer(Long.getLong("fuel", DEFAULT_FUEL));
+		String socket = System.getProperty("socket");
+		if (socket == null) {
+			server.serve(new BufferedReader(new InputStreamReader(System.in, UTF_8)), System.out);
+			return;
+		}
+		Path path = Paths.get(socket);
+		Files.deleteIfExists(path);
+		try (ServerSocketChannel listener = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+			listener.bind(UnixDomainSocketAddress.of(path));
+			System.out.println("FOOL compile server listening on "+path);
+			while (true) {
+				try (SocketChannel conn = listener.accept()) {
+					server.serve(new BufferedReader(new InputStreamReader(Channels.newInputStream(conn), UTF_8)),
+							new PrintStream(Channels.newOutputStream(conn), false, UTF_8));
+				} catch (IOException e) {
+					System.err.println("Connection error: "+e.getMessage());
+				}
+			}
+		}
+	}
+
+	// serve le richieste di una connessione fino a quit o alla fine dell'input
+	void serve(BufferedReader in, PrintStream out) throws IOException {
+		String line;
+		while ((line = in.readLine()) != null) {
+			String[] request = line.trim().split("\\s+");
+			if (request[0].isEmpty()) continue;
+			if (request[0].equals("quit")) break;
+			int n;
+			try {
+				n = request.length > 1 ? Integer.parseInt(request[1]) : 0;
+			} catch (NumberFormatException e) {
+				n = -1;
+			}
+			StringBuilder source = new StringBuilder();
+			for (int i = 0; i < n && (line = in.readLine()) != null; i++) source.append(line).append('\n');
+			if (n < 0) respond(out, false, 0, List.of("Malformed request: "+request[0]+" <lines>"), null, null);
+			else job(request[0], source.toString(), out);
+			out.flush();
+		}
+	}
+
+	private void job(String command, String source, PrintStream out) {
+		long start = System.nanoTime();
+		List<String> diagnostics = new ArrayList<>();
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		FoolCompiler.Result result = null;
+		boolean ok = false;
+		switch (command) {
+			case "check", "asm", "run" -> {
+				try {
+					result = compiler.compile(source);
+					for (FoolCompiler.Diagnostic d : result.diagnostics) diagnostics.add(d.message);
+					ok = result.ok();
+					if (ok && command.equals("run")) ok = run(result, output, diagnostics);
+				} catch (RuntimeException e) {
+					diagnostics.add("Internal error: "+e);
+				}
+			}
+			default -> diagnostics.add("Unknown command: "+command);
+		}
+		respond(out, ok, (System.nanoTime() - start) / 1000, diagnostics,
+				ok && command.equals("asm") ? result.asm.lines().toList() : null,
+				command.equals("run") ? output.toString(UTF_8).lines().toList() : null);
+	}
+
+	private boolean run(FoolCompiler.Result result, OutputStream output, List<String> diagnostics) {
+		try {
+			if (result.newVM(new BufferedOutputSink(output)).run(fuel)) return true;
+			diagnostics.add("Execution stopped: fuel of "+fuel+" exhausted.");
+		} catch (RuntimeException e) { // es. stack o heap esauriti
+			diagnostics.add("Execution failed: "+e);
+		}
+		return false;
+	}
+
+	private static void respond(PrintStream out, boolean ok, long micros, List<String> diagnostics,
+			List<String> asm, List<String> output) {
+		out.println((ok ? "ok " : "error ")+micros);
+		section(out, "diagnostics", diagnostics);
+		if (asm != null) section(out, "asm", asm);
+		if (output != null) section(out, "output", output);
+		out.println("end");
+	}
+
+	private static void section(PrintStream out, String name, List<String> lines) {
+		out.println(name+" "+lines.size());
+		for (String l : lines) out.println(l);
+	}
+
+}
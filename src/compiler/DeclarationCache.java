@@ -0,0 +1,337 @@
+package compiler;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.misc.Interval;
+import compiler.AST.*;
+import compiler.FOOLParser.*;
+import compiler.lib.*;
+import compiler.exc.*;
+
+/**
+ * Cache delle dichiarazioni del let principale per la compilazione incrementale (FoolCompiler).
+ *
+ * Ogni dichiarazione ha una chiave: hash del suo testo, della gerarchia delle classi (usata dal
+ * type checking per nome) e delle chiavi delle dichiarazioni precedenti che hanno il nome di uno
+ * dei suoi identificatori, con la loro posizione (il codice ne contiene gli offset). La posizione
+ * della dichiarazione stessa entra nella chiave solo se il suo codice la usa (ricorsione).
+ * Una dichiarazione con la chiave di una gia' compilata senza errori, e le cui dipendenze sono
+ * anch'esse riusate, non viene rivisitata: symbol table, type checking e generazione del codice
+ * riusano il suo nodo arricchito, la sua STentry (e virtual table), il suo codice e, per le classi,
+ * la sua dispatch table. Se la dichiarazione si e' spostata se ne aggiornano l'offset della
+ * STentry e le linee dei nodi.
+ */
+class DeclarationCache {
+
+	static class Entry {
+		final String key;
+		final DecNode node;
+		final int sym; // simbolo del nome dichiarato (i Symbols sono condivisi tra le compilazioni)
+		STentry entry;
+		Map<String, STentry> virtualTable; // solo classi
+		boolean complete; // codice generato: l'entry puo' essere riusata
+		int index; // posizione nel let principale, da cui dipende l'offset della STentry
+		int line; // linea di inizio, da cui dipendono quelle dei nodi
+		String code; // codice nel let principale
+		List<String> functionCode; // codice di funzioni e metodi (CompilationContext.putCode)
+		List<String> dispatchTable; // solo classi
+
+		Entry(String key, DecNode node, int index, int line) {
+			this.key = key;
+			this.node = node;
+			this.index = index;
+			this.line = line;
+			this.sym = node instanceof ClassNode c ? c.sym : node instanceof FunNode f ? f.sym : ((VarNode) node).sym;
+		}
+
+		// namespace delle etichette del suo codice (vedi CompilationContext)
+		String labelNamespace() {
+			return "d"+key.substring(0, 16);
+		}
+	}
+
+	private Map<String, Entry> entries = new HashMap<>();
+
+	// dichiarazioni della compilazione in corso
+	private final Map<Node, Entry> reused = new IdentityHashMap<>();
+	private final Map<Node, Entry> fresh = new IdentityHashMap<>();
+
+	Entry reused(Node dec) {
+		return reused.get(dec);
+	}
+
+	Entry fresh(Node dec) {
+		return fresh.get(dec);
+	}
+
+	int reusedCount() {
+		return reused.size();
+	}
+
+	// sorgente di una dichiarazione del let principale: testo, linea di inizio, identificatori usati
+	static class Source {
+		final String text;
+		final int line;
+		final Set<String> names;
+
+		Source(String text, int line, Set<String> names) {
+			this.text = text;
+			this.line = line;
+			this.names = names;
+		}
+	}
+
+	// sorgenti delle dichiarazioni dal parse tree di ANTLR (FOOLDirectParser li calcola da se')
+	static List<Source> sources(LetInProgContext prog, TokenStream tokens) {
+		List<ParserRuleContext> decs = new ArrayList<>(prog.cldec());
+		decs.addAll(prog.dec());
+		List<Source> sources = new ArrayList<>();
+		for (ParserRuleContext c : decs) {
+			Set<String> names = new TreeSet<>();
+			for (Token t : ((BufferedTokenStream) tokens).get(c.start.getTokenIndex(), c.stop.getTokenIndex()))
+				if (t.getType() == FOOLLexer.ID) names.add(t.getText());
+			sources.add(new Source(c.start.getInputStream().getText(Interval.of(c.start.getStartIndex(), c.stop.getStopIndex())),
+					c.start.getLine(), names));
+		}
+		return sources;
+	}
+
+	// calcola le chiavi delle dichiarazioni e sostituisce quelle riusabili con i nodi gia' compilati;
+	// declist e' la lista del ProgLetInNode (classi, poi le altre), sources i sorgenti nello stesso ordine
+	List<DecNode> prepare(List<DecNode> declist, List<Source> sources) {
+		if (sources.size() != declist.size() || declist.contains(null)) return declist;
+
+		StringBuilder hierarchy = new StringBuilder();
+		for (DecNode d : declist)
+			if (d instanceof ClassNode c) hierarchy.append(c.id).append(c.superId != null ? "<"+c.superId : "").append(';');
+
+		List<DecNode> result = new ArrayList<>();
+		Map<String, Entry> latest = new HashMap<>(); // nome -> ultima dichiarazione con quel nome
+		for (int i = 0; i < sources.size(); i++) {
+			Source s = sources.get(i);
+			DecNode dec = declist.get(i);
+			StringBuilder key = new StringBuilder();
+			key.append(hierarchy).append('\n').append(s.text);
+			boolean depsReused = true;
+			for (String n : s.names) {
+				Entry dep = latest.get(n);
+				key.append('\n').append(n).append('=');
+				if (n.equals(name(dec)) && !(dec instanceof VarNode)) key.append("self@").append(i); // si riferisce a se stessa
+				else if (dep == null) key.append('-');
+				else key.append(dep.key).append('@').append(dep.index);
+				if (dep != null) depsReused &= reused.containsKey(dep.node);
+			}
+			String k = hash(key.toString());
+			Entry cached = entries.get(k);
+			Entry e;
+			if (cached != null && depsReused) {
+				e = cached;
+				rebase(e, i, s.line);
+				reused.put(e.node, e);
+			} else {
+				e = new Entry(k, dec, i, s.line);
+				fresh.put(e.node, e);
+			}
+			latest.put(name(e.node), e);
+			result.add(e.node);
+		}
+		return result;
+	}
+
+	// dichiarazione riusata in un'altra posizione: offset (le dichiarazioni globali hanno offset
+	// -2-indice) e linee relativi alla nuova posizione
+	private static void rebase(Entry e, int index, int line) {
+		if (index != e.index) {
+			e.entry = new STentry(e.entry.nl, e.entry.type, e.entry.offset+e.index-index);
+			if (e.node instanceof VarNode v) v.entry = e.entry;
+			e.index = index;
+		}
+		if (line != e.line) {
+			new LineShift(line-e.line).visit(e.node);
+			e.line = line;
+		}
+	}
+
+	// sposta le linee dei nodi di una dichiarazione (non dei tipi, condivisi tra le dichiarazioni)
+	private static class LineShift extends BaseASTVisitor<Void, VoidException> {
+		private final int delta;
+
+		LineShift(int delta) {
+			this.delta = delta;
+		}
+
+		private Void shift(Node n, Node... children) {
+			if (n.getLine() != -1) n.setLine(n.getLine()+delta);
+			for (Node c : children) visit(c);
+			return null;
+		}
+
+		private void shiftAll(List<? extends Node> list) {
+			for (Node n : list) visit(n);
+		}
+
+		@Override
+		public Void visitNode(FunNode n) {
+			shiftAll(n.parlist);
+			shiftAll(n.declist);
+			return shift(n, n.exp);
+		}
+
+		@Override
+		public Void visitNode(ParNode n) {
+			return shift(n);
+		}
+
+		@Override
+		public Void visitNode(VarNode n) {
+			return shift(n, n.exp);
+		}
+
+		@Override
+		public Void visitNode(PrintNode n) {
+			return shift(n, n.exp);
+		}
+
+		@Override
+		public Void visitNode(IfNode n) {
+			return shift(n, n.cond, n.th, n.el);
+		}
+
+		@Override
+		public Void visitNode(EqualNode n) {
+			return shift(n, n.left, n.right);
+		}
+
+		@Override
+		public Void visitNode(LessEqualNode n) {
+			return shift(n, n.left, n.right);
+		}
+
+		@Override
+		public Void visitNode(GreaterEqualNode n) {
+			return shift(n, n.left, n.right);
+		}
+
+		@Override
+		public Void visitNode(AndNode n) {
+			return shift(n, n.left, n.right);
+		}
+
+		@Override
+		public Void visitNode(OrNode n) {
+			return shift(n, n.left, n.right);
+		}
+
+		@Override
+		public Void visitNode(NotNode n) {
+			return shift(n, n.exp);
+		}
+
+		@Override
+		public Void visitNode(TimesNode n) {
+			return shift(n, n.left, n.right);
+		}
+
+		@Override
+		public Void visitNode(DivNode n) {
+			return shift(n, n.left, n.right);
+		}
+
+		@Override
+		public Void visitNode(PlusNode n) {
+			return shift(n, n.left, n.right);
+		}
+
+		@Override
+		public Void visitNode(MinusNode n) {
+			return shift(n, n.left, n.right);
+		}
+
+		@Override
+		public Void visitNode(CallNode n) {
+			shiftAll(n.arglist);
+			return shift(n);
+		}
+
+		@Override
+		public Void visitNode(IdNode n) {
+			return shift(n);
+		}
+
+		@Override
+		public Void visitNode(BoolNode n) {
+			return shift(n);
+		}
+
+		@Override
+		public Void visitNode(IntNode n) {
+			return shift(n);
+		}
+
+		@Override
+		public Void visitNode(EmptyNode n) {
+			return shift(n);
+		}
+
+		@Override
+		public Void visitNode(ClassNode n) {
+			shiftAll(n.fields);
+			shiftAll(n.methods);
+			return shift(n);
+		}
+
+		@Override
+		public Void visitNode(FieldNode n) {
+			return shift(n);
+		}
+
+		@Override
+		public Void visitNode(MethodNode n) {
+			shiftAll(n.parlist);
+			shiftAll(n.declist);
+			return shift(n, n.exp);
+		}
+
+		@Override
+		public Void visitNode(NewNode n) {
+			shiftAll(n.argumentList);
+			return shift(n);
+		}
+
+		@Override
+		public Void visitNode(ClassCallNode n) {
+			shiftAll(n.argumentList);
+			return shift(n);
+		}
+	}
+
+	private static String name(DecNode dec) {
+		return dec instanceof ClassNode c ? c.id : dec instanceof FunNode f ? f.id : ((VarNode) dec).id;
+	}
+
+	// fine compilazione: restano in cache le dichiarazioni riusate e quelle compilate per intero;
+	// se la compilazione e' fallita si tengono anche le precedenti (servono quando l'errore e' corretto)
+	void commit(boolean failed) {
+		Map<String, Entry> next = failed ? entries : new HashMap<>();
+		for (Entry e : reused.values()) next.put(e.key, e);
+		for (Entry e : fresh.values()) if (e.complete) next.put(e.key, e);
+		entries = next;
+		reused.clear();
+		fresh.clear();
+	}
+
+	static String hash(String s) {
+		try {
+			byte[] d = MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder();
+			for (byte b : d) hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
@@ -0,0 +1,203 @@
+package compiler;
+
+import compiler.AST.*;
+import compiler.lib.*;
+import compiler.exc.*;
+
+import java.util.*;
+
+/**
+ * Analisi di fuga sull'AST arricchito: trova gli oggetti che possono stare nel record di
+ * attivazione di chi li crea invece che nello heap. Un oggetto creato come valore di una
+ * dichiarazione (var x:C = new C(...)) non sfugge se x e' usata solo per chiamarne i metodi o
+ * in un confronto ==: i metodi non possono riferirsi all'oggetto stesso (solo ai suoi campi) e
+ * le funzioni non sopravvivono al frame che le contiene, quindi nessun riferimento all'oggetto
+ * resta dopo il ritorno. Qualunque altro uso (argomento, campo di un altro oggetto, risultato,
+ * stampa, altra dichiarazione, confronto <= o >=) lo fa sfuggire.
+ * Non essendoci cicli, ogni new e' eseguita al piu' una volta per attivazione.
+ */
+public class EscapeAnalysisASTVisitor extends BaseASTVisitor<Void, VoidException> {
+
+	private final Map<STentry, NewNode> candidates = new HashMap<>();
+	private final Set<STentry> escaped = new HashSet<>();
+	private boolean compared; //il valore corrente e' solo confrontato con ==
+
+	// new che non sfuggono
+	Set<NewNode> frameObjects(Node ast) {
+		visit(ast);
+		Set<NewNode> result = new HashSet<>();
+		for (Map.Entry<STentry, NewNode> c : candidates.entrySet())
+			if (!escaped.contains(c.getKey())) result.add(c.getValue());
+		return result;
+	}
+
+	// valore che sfugge (tutti tranne gli operandi di == e i rami di un if confrontato)
+	private void value(Node n) {
+		boolean outer = compared;
+		compared = false;
+		visit(n);
+		compared = outer;
+	}
+
+	private void values(List<? extends Node> list) {
+		for (Node n : list) value(n);
+	}
+
+	@Override
+	public Void visitNode(ProgLetInNode n) {
+		values(n.declist);
+		value(n.exp);
+		return null;
+	}
+
+	@Override
+	public Void visitNode(ProgNode n) {
+		value(n.exp);
+		return null;
+	}
+
+	@Override
+	public Void visitNode(FunNode n) {
+		values(n.declist);
+		value(n.exp);
+		return null;
+	}
+
+	@Override
+	public Void visitNode(VarNode n) {
+		if (n.exp instanceof NewNode o && n.entry != null) {
+			candidates.put(n.entry, o);
+			values(o.argumentList);
+		} else value(n.exp);
+		return null;
+	}
+
+	@Override
+	public Void visitNode(PrintNode n) {
+		value(n.exp);
+		return null;
+	}
+
+	@Override
+	public Void visitNode(IfNode n) {
+		value(n.cond);
+		visit(n.th); //il valore dell'if e' quello di un ramo
+		visit(n.el);
+		return null;
+	}
+
+	@Override
+	public Void visitNode(EqualNode n) {
+		boolean outer = compared;
+		compared = true;
+		visit(n.left);
+		visit(n.right);
+		compared = outer;
+		return null;
+	}
+
+	private Void operands(Node left, Node right) {
+		value(left);
+		value(right);
+		return null;
+	}
+
+	@Override
+	public Void visitNode(LessEqualNode n) {
+		return operands(n.left, n.right);
+	}
+
+	@Override
+	public Void visitNode(GreaterEqualNode n) {
+		return operands(n.left, n.right);
+	}
+
+	@Override
+	public Void visitNode(AndNode n) {
+		return operands(n.left, n.right);
+	}
+
+	@Override
+	public Void visitNode(OrNode n) {
+		return operands(n.left, n.right);
+	}
+
+	@Override
+	public Void visitNode(TimesNode n) {
+		return operands(n.left, n.right);
+	}
+
+	@Override
+	public Void visitNode(DivNode n) {
+		return operands(n.left, n.right);
+	}
+
+	@Override
+	public Void visitNode(PlusNode n) {
+		return operands(n.left, n.right);
+	}
+
+	@Override
+	public Void visitNode(MinusNode n) {
+		return operands(n.left, n.right);
+	}
+
+	@Override
+	public Void visitNode(NotNode n) {
+		value(n.exp);
+		return null;
+	}
+
+	@Override
+	public Void visitNode(CallNode n) {
+		values(n.arglist);
+		return null;
+	}
+
+	@Override
+	public Void visitNode(IdNode n) {
+		if (!compared) escaped.add(n.entry);
+		return null;
+	}
+
+	@Override
+	public Void visitNode(BoolNode n) {
+		return null;
+	}
+
+	@Override
+	public Void visitNode(IntNode n) {
+		return null;
+	}
+
+	@Override
+	public Void visitNode(EmptyNode n) {
+		return null;
+	}
+
+	@Override
+	public Void visitNode(ClassNode n) {
+		values(n.methods);
+		return null;
+	}
+
+	@Override
+	public Void visitNode(MethodNode n) {
+		values(n.declist);
+		value(n.exp);
+		return null;
+	}
+
+	@Override
+	public Void visitNode(ClassCallNode n) { //chiamare un metodo non fa sfuggire l'oggetto
+		values(n.argumentList);
+		return null;
+	}
+
+	@Override
+	public Void visitNode(NewNode n) {
+		values(n.argumentList);
+		return null;
+	}
+
+}
@@ -2,6 +2,7 @@ grammar FOOL;
  
 @lexer::members {
 public int lexicalErrors=0;
+public java.util.function.Consumer<String> errorReporter = System.out::println; // destinazione dei messaggi di errore
 }
    
 /*------------------------------------------------------------------
@@ -104,6 +105,6 @@ WHITESP  : ( '\t' | ' ' | '\r' | '\n' )+    -> channel(HIDDEN) ;
 
 COMMENT : '/*' .*? '*/' -> channel(HIDDEN) ;
 
-ERR   	 : . { System.out.println("Invalid char: "+ getText() +" at line "+getLine()); lexicalErrors++; } -> channel(HIDDEN);
+ERR   	 : . { errorReporter.accept("Invalid char: "+ getText() +" at line "+getLine()); lexicalErrors++; } -> channel(HIDDEN);
 
 
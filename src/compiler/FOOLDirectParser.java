@@ -0,0 +1,485 @@
+package compiler;
+
+import java.util.*;
+import compiler.AST.*;
+import compiler.lib.*;
+
+import static compiler.FOOLLexer.*;
+
+/**
+ * Lexer e parser FOOL scritti a mano: discesa ricorsiva con precedence climbing per exp, senza
+ * parse tree e senza la predizione adattiva di ANTLR; i nodi dell'AST sono costruiti direttamente.
+ * Riconoscono lo stesso linguaggio di FOOL.g4 e producono lo stesso AST di ASTGenerationSTVisitor
+ * (stesse linee, stessi tipi, stessi simboli). Al primo errore lessicale o sintattico rinunciano:
+ * parse ritorna null e il chiamante ripete l'analisi con FOOLLexer/FOOLParser, che riportano gli
+ * errori in dettaglio.
+ */
+class FOOLDirectParser {
+
+	// precedenze come nel FOOLParser generato: timesDiv 16, plusMinus 15, comp 14, andOr 13;
+	// l'operando di NOT e' analizzato con precedenza 12, quindi include tutti gli operatori binari
+	private static final int NOT_OPERAND = 12;
+
+	private static final Map<String,Integer> KEYWORDS = Map.ofEntries(
+			Map.entry("true", TRUE), Map.entry("false", FALSE), Map.entry("if", IF), Map.entry("then", THEN),
+			Map.entry("else", ELSE), Map.entry("print", PRINT), Map.entry("let", LET), Map.entry("in", IN),
+			Map.entry("var", VAR), Map.entry("fun", FUN), Map.entry("class", CLASS), Map.entry("extends", EXTENDS),
+			Map.entry("new", NEW), Map.entry("null", NULL), Map.entry("int", INT), Map.entry("bool", BOOL));
+
+	private static class SyntaxError extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		SyntaxError() {
+			super(null, null, false, false); // niente stack trace: serve solo a rinunciare
+		}
+	}
+
+	private static final SyntaxError ERROR = new SyntaxError();
+
+	private Symbols symbols;
+	private String src;
+
+	// token: tipo (costanti di FOOLLexer), testo (solo ID e NUM), posizione nel sorgente e linea
+	private int[] type, start, stop, line;
+	private String[] text;
+	private int count, pos;
+
+	private List<DeclarationCache.Source> declarations; // sorgente delle dichiarazioni del let principale
+	private String error; // errore che riporta il parser stesso (vedi error()), null se non c'e'
+	private FlatAST flat; // non null durante parseFlat
+
+	FOOLDirectParser(Symbols symbols) {
+		this.symbols = symbols;
+		allocateTokens(1024);
+	}
+
+	void setSymbols(Symbols symbols) {
+		this.symbols = symbols;
+	}
+
+	// AST del programma, null se il sorgente contiene errori
+	Node parse(String src) {
+		this.src = src;
+		declarations = new ArrayList<>();
+		error = null;
+		try {
+			lex();
+			pos = 0;
+			return prog();
+		} catch (SyntaxError e) {
+			return null;
+		} finally {
+			if (type.length > 1024) allocateTokens(1024); // non trattiene i token di un sorgente grande
+			else Arrays.fill(text, 0, count, null);
+		}
+	}
+
+	List<DeclarationCache.Source> declarations() {
+		return declarations;
+	}
+
+	// messaggio (nel formato di quelli di ANTLR) dell'errore che ha fermato l'ultimo parse, se e' uno
+	// che ANTLR non rileva; null se gli errori vanno cercati con lexer e parser di ANTLR
+	String error() {
+		return error;
+	}
+
+	// programma in forma compatta: ogni dichiarazione del let principale e' compattata appena letta,
+	// quindi l'AST a oggetti dell'intero programma non esiste mai; null se il sorgente contiene errori
+	FlatAST parseFlat(String src) {
+		flat = new FlatAST(symbols);
+		try {
+			return parse(src) == null ? null : flat;
+		} finally {
+			flat = null;
+		}
+	}
+
+	/*------------------------------------------------------------------
+	 * LEXER
+	 *------------------------------------------------------------------*/
+
+	private void lex() {
+		count = 0;
+		int n = src.length(), ln = 1, i = 0;
+		while (i < n) {
+			char c = src.charAt(i);
+			int s = i++, t;
+			if (c == ' ' || c == '\t' || c == '\r') continue;
+			if (c == '\n') {
+				ln++;
+				continue;
+			}
+			if (c == '/' && i < n && src.charAt(i) == '*') { // COMMENT
+				int close = src.indexOf("*/", i + 1);
+				if (close < 0) throw ERROR;
+				for (int k = i; k < close; k++) if (src.charAt(k) == '\n') ln++;
+				i = close + 2;
+				continue;
+			}
+			if (isLetter(c)) {
+				while (i < n && (isLetter(src.charAt(i)) || isDigit(src.charAt(i)))) i++;
+				String id = src.substring(s, i);
+				Integer keyword = KEYWORDS.get(id);
+				t = keyword != null ? keyword : ID;
+				add(t, s, i, ln, keyword != null ? null : id);
+				continue;
+			}
+			if (isDigit(c)) { // '0' | ('1'..'9')('0'..'9')*
+				if (c != '0') while (i < n && isDigit(src.charAt(i))) i++;
+				add(NUM, s, i, ln, src.substring(s, i));
+				continue;
+			}
+			char next = i < n ? src.charAt(i) : 0;
+			switch (c) {
+				case '+' -> t = PLUS;
+				case '-' -> t = MINUS;
+				case '*' -> t = TIMES;
+				case '/' -> t = DIV;
+				case '(' -> t = LPAR;
+				case ')' -> t = RPAR;
+				case '{' -> t = CLPAR;
+				case '}' -> t = CRPAR;
+				case ';' -> t = SEMIC;
+				case ':' -> t = COLON;
+				case ',' -> t = COMMA;
+				case '.' -> t = DOT;
+				case '!' -> t = NOT;
+				case '|' -> t = next == '|' ? OR : ERR;
+				case '&' -> t = next == '&' ? AND : ERR;
+				case '>' -> t = next == '=' ? GE : ERR;
+				case '<' -> t = next == '=' ? LE : ERR;
+				case '=' -> t = next == '=' ? EQ : ASS;
+				default -> t = ERR;
+			}
+			if (t == ERR) throw ERROR;
+			if (t == OR || t == AND || t == GE || t == LE || t == EQ) i++;
+			add(t, s, i, ln, null);
+		}
+		add(EOF, n, n, ln, null);
+	}
+
+	private static boolean isLetter(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private void allocateTokens(int size) {
+		type = new int[size];
+		start = new int[size];
+		stop = new int[size];
+		line = new int[size];
+		text = new String[size];
+	}
+
+	private void add(int t, int s, int e, int ln, String txt) {
+		if (count == type.length) {
+			int size = 2 * count;
+			type = Arrays.copyOf(type, size);
+			start = Arrays.copyOf(start, size);
+			stop = Arrays.copyOf(stop, size);
+			line = Arrays.copyOf(line, size);
+			text = Arrays.copyOf(text, size);
+		}
+		type[count] = t;
+		start[count] = s;
+		stop[count] = e;
+		line[count] = ln;
+		text[count++] = txt;
+	}
+
+	/*------------------------------------------------------------------
+	 * PARSER
+	 *------------------------------------------------------------------*/
+
+	private int peek() {
+		return type[pos];
+	}
+
+	private int expect(int t) { // ritorna l'indice del token
+		if (type[pos] != t) throw ERROR;
+		return pos++;
+	}
+
+	private boolean accept(int t) {
+		if (type[pos] != t) return false;
+		pos++;
+		return true;
+	}
+
+	private int sym(int tok) {
+		return symbols.intern(text[tok]);
+	}
+
+	// prog : progbody EOF ;
+	private Node prog() {
+		Node n;
+		if (accept(LET)) {
+			List<DecNode> declist = new ArrayList<>();
+			int decs = 0;
+			for (; peek() == CLASS; decs++) topLevel(declist, true);
+			for (; peek() == VAR || peek() == FUN; decs++) topLevel(declist, false);
+			if (decs == 0) throw ERROR;
+			expect(IN);
+			Node exp = exp(0);
+			expect(SEMIC);
+			n = new ProgLetInNode(declist, exp);
+			if (flat != null) flat.expression(exp, true);
+		} else {
+			n = new ProgNode(exp(0));
+			expect(SEMIC);
+			if (flat != null) flat.expression(((ProgNode) n).exp, false);
+		}
+		expect(EOF);
+		return n;
+	}
+
+	// dichiarazione del let principale, di cui si ricorda il sorgente (per la DeclarationCache);
+	// con parseFlat viene invece compattata subito
+	private void topLevel(List<DecNode> declist, boolean isClass) {
+		int first = pos;
+		DecNode n = isClass ? cldec() : dec();
+		if (flat != null) {
+			flat.declaration(n);
+			return;
+		}
+		Set<String> names = new TreeSet<>();
+		for (int i = first; i < pos; i++) if (type[i] == ID) names.add(text[i]);
+		declarations.add(new DeclarationCache.Source(src.substring(start[first], stop[pos - 1]), line[first], names));
+		declist.add(n);
+	}
+
+	private DecNode cldec() {
+		int cls = expect(CLASS);
+		int id = expect(ID);
+		String superId = accept(EXTENDS) ? text[expect(ID)] : null;
+		List<FieldNode> fields = new ArrayList<>();
+		List<TypeNode> fieldTypes = new ArrayList<>();
+		expect(LPAR);
+		if (peek() != RPAR)
+			do {
+				int f = expect(ID);
+				expect(COLON);
+				TypeNode t = type();
+				FieldNode field = new FieldNode(text[f], t);
+				field.setLine(line[f]);
+				fields.add(field);
+				fieldTypes.add(t);
+			} while (accept(COMMA));
+		expect(RPAR);
+		expect(CLPAR);
+		List<MethodNode> methods = new ArrayList<>();
+		List<ArrowTypeNode> methodsArrowTypes = new ArrayList<>();
+		while (peek() == FUN) {
+			MethodNode method = methdec();
+			methods.add(method);
+			if (superId == null) // come ASTGenerationSTVisitor
+				methodsArrowTypes.add(TypeFactory.arrowType(method.parlist.stream().map(ParNode::getType).toList(), method.retType));
+		}
+		expect(CRPAR);
+		Node n = new ClassNode(text[id], sym(id), methods, fields, superId, superId == null ? -1 : symbols.intern(superId),
+				new ClassTypeNode(new ArrayList<>(fieldTypes), new ArrayList<>(methodsArrowTypes)));
+		n.setLine(line[cls]);
+		return (DecNode) n;
+	}
+
+	private MethodNode methdec() {
+		int fun = expect(FUN);
+		int id = expect(ID);
+		expect(COLON);
+		TypeNode retType = type();
+		List<ParNode> parList = pars();
+		List<TypeNode> parTypes = new ArrayList<>();
+		for (ParNode par : parList) parTypes.add(par.getType());
+		List<DecNode> decList = letDecs();
+		Node exp = exp(0);
+		expect(SEMIC);
+		MethodNode n = new MethodNode(text[id], retType, parList, decList, exp, TypeFactory.arrowType(parTypes, retType));
+		n.setLine(line[fun]);
+		return n;
+	}
+
+	private DecNode dec() {
+		if (peek() == VAR) {
+			int var = pos++;
+			int id = expect(ID);
+			expect(COLON);
+			TypeNode t = type();
+			expect(ASS);
+			Node exp = exp(0);
+			expect(SEMIC);
+			VarNode n = new VarNode(text[id], sym(id), t, exp);
+			n.setLine(line[var]);
+			return n;
+		}
+		int fun = expect(FUN);
+		int id = expect(ID);
+		expect(COLON);
+		TypeNode retType = type();
+		List<ParNode> parList = pars();
+		List<DecNode> decList = letDecs();
+		Node exp = exp(0);
+		expect(SEMIC);
+		FunNode n = new FunNode(text[id], sym(id), retType, parList, decList, exp);
+		n.setLine(line[fun]);
+		return n;
+	}
+
+	// LPAR (ID COLON type (COMMA ID COLON type)* )? RPAR
+	private List<ParNode> pars() {
+		List<ParNode> parList = new ArrayList<>();
+		expect(LPAR);
+		if (peek() != RPAR)
+			do {
+				int id = expect(ID);
+				expect(COLON);
+				ParNode p = new ParNode(text[id], sym(id), type());
+				p.setLine(line[id]);
+				parList.add(p);
+			} while (accept(COMMA));
+		expect(RPAR);
+		return parList;
+	}
+
+	// (LET dec+ IN)?
+	private List<DecNode> letDecs() {
+		List<DecNode> decList = new ArrayList<>();
+		if (!accept(LET)) return decList;
+		do decList.add(dec()); while (peek() == VAR || peek() == FUN);
+		expect(IN);
+		return decList;
+	}
+
+	private TypeNode type() {
+		switch (type[pos++]) {
+			case INT: return TypeFactory.intType();
+			case BOOL: return TypeFactory.boolType();
+			case ID: return TypeFactory.refType(text[pos - 1]);
+			default: throw ERROR;
+		}
+	}
+
+	// letterale intero, letto col segno (-2147483648 e' un int valido); se e' fuori dall'intervallo di
+	// int l'errore lo riporta il parser: ANTLR lo accetta e ASTGenerationSTVisitor fallirebbe
+	private IntNode integer(int tok, boolean negative) {
+		try {
+			return new IntNode(Integer.parseInt(negative ? "-"+text[tok] : text[tok]));
+		} catch (NumberFormatException e) {
+			int column = start[tok]-(src.lastIndexOf('\n', start[tok]-1)+1);
+			error = "line "+line[tok]+":"+column+" integer literal out of range";
+			throw ERROR;
+		}
+	}
+
+	private static int precedence(int t) {
+		switch (t) {
+			case TIMES: case DIV: return 16;
+			case PLUS: case MINUS: return 15;
+			case EQ: case GE: case LE: return 14;
+			case AND: case OR: return 13;
+			default: return -1;
+		}
+	}
+
+	// operatori binari di precedenza >= p, associativi a sinistra
+	private Node exp(int p) {
+		Node left = primary();
+		while (precedence(peek()) >= p) {
+			int op = pos++;
+			Node right = exp(precedence(type[op]) + 1);
+			switch (type[op]) {
+				case TIMES -> left = new TimesNode(left, right);
+				case DIV -> left = new DivNode(left, right);
+				case PLUS -> left = new PlusNode(left, right);
+				case MINUS -> left = new MinusNode(left, right);
+				case EQ -> left = new EqualNode(left, right);
+				case LE -> left = new LessEqualNode(left, right);
+				case GE -> left = new GreaterEqualNode(left, right);
+				case AND -> left = new AndNode(left, right);
+				default -> left = new OrNode(left, right);
+			}
+			left.setLine(line[op]);
+		}
+		return left;
+	}
+
+	private Node primary() {
+		Node n;
+		int tok = pos++;
+		switch (type[tok]) {
+			case NOT:
+				n = new NotNode(exp(NOT_OPERAND));
+				n.setLine(line[tok]);
+				return n;
+			case LPAR:
+				n = exp(0);
+				expect(RPAR);
+				return n;
+			case MINUS:
+				return integer(expect(NUM), true);
+			case NUM:
+				return integer(tok, false);
+			case TRUE:
+				return new BoolNode(true);
+			case FALSE:
+				return new BoolNode(false);
+			case NULL:
+				return new EmptyNode();
+			case NEW: {
+				int id = expect(ID);
+				n = new NewNode(text[id], sym(id), args());
+				n.setLine(line[tok]);
+				return n;
+			}
+			case IF: {
+				Node cond = exp(0);
+				expect(THEN);
+				expect(CLPAR);
+				Node th = exp(0);
+				expect(CRPAR);
+				expect(ELSE);
+				expect(CLPAR);
+				Node el = exp(0);
+				expect(CRPAR);
+				n = new IfNode(cond, th, el);
+				n.setLine(line[tok]);
+				return n;
+			}
+			case PRINT:
+				expect(LPAR);
+				n = exp(0);
+				expect(RPAR);
+				return new PrintNode(n);
+			case ID:
+				if (peek() == LPAR) {
+					n = new CallNode(text[tok], sym(tok), args());
+					n.setLine(line[tok]);
+				} else if (peek() == DOT) {
+					int dot = pos++;
+					int method = expect(ID);
+					n = new ClassCallNode(text[tok], sym(tok), text[method], args());
+					n.setLine(line[dot]);
+				} else {
+					n = new IdNode(text[tok], sym(tok));
+					n.setLine(line[tok]);
+				}
+				return n;
+			default:
+				throw ERROR;
+		}
+	}
+
+	// LPAR (exp (COMMA exp)* )? RPAR
+	private List<Node> args() {
+		List<Node> args = new ArrayList<>();
+		expect(LPAR);
+		if (peek() != RPAR)
+			do args.add(exp(0)); while (accept(COMMA));
+		expect(RPAR);
+		return args;
+	}
+
+}
@@ -0,0 +1,302 @@
+package compiler;
+
+import java.util.*;
+import compiler.AST.*;
+import compiler.lib.*;
+
+/**
+ * AST compatto per programmi molto grandi ("structure of arrays"): un nodo e' un indice e i suoi
+ * campi stanno in array di primitivi, senza un oggetto, una lista o un valore boxed per nodo.
+ * I nodi sono in ordine posticipato (figli prima del padre, nell'ordine del sorgente): per ogni nodo
+ * bastano il tipo di nodo, la linea, un campo intero e la dimensione del sottoalbero, con cui si
+ * ritrovano i figli (l'ultimo figlio di i e' i-1, il precedente di un figlio j e' j-size[j]).
+ * Gli identificatori sono simboli (Symbols) e i tipi indici in types (sono interned da TypeFactory,
+ * quindi pochi); i tipi che si ricavano da altri (ClassTypeNode, tipo funzionale dei metodi) non
+ * sono memorizzati. I nodi con piu' di un campo (dichiarazioni e CLASS_CALL) hanno in data
+ * l'indice dei campi in extra.
+ *
+ * Campi per tipo di nodo (figli in ordine):
+ *   FUN, METHOD: sym, tipo di ritorno, n. parametri; parametri, dichiarazioni, exp
+ *   CLASS: sym, sym della superclasse (-1), n. campi; campi, metodi
+ *   PAR, FIELD: sym, tipo    VAR: sym, tipo; exp    CLASS_CALL: sym della classe, sym del metodo; argomenti
+ *   CALL, NEW: sym (della classe per NEW); argomenti    ID: sym    INT, BOOL: valore (BOOL 0/1)
+ *   operatori, IF, PRINT, NOT: operandi                 EMPTY: -
+ * Le dichiarazioni del let principale e la sua espressione sono radici separate (in roots).
+ *
+ * I visitor lavorano sugli oggetti dell'AST: node(i) materializza il
+ * sottoalbero di i. FoolCompiler materializza una dichiarazione del let principale alla volta, cosi'
+ * in memoria insieme all'AST compatto c'e' un solo sottoalbero a oggetti.
+ */
+final class FlatAST {
+
+	static final byte FUN = 0, PAR = 1, VAR = 2, PRINT = 3, IF = 4, EQUAL = 5, LESS_EQUAL = 6, GREATER_EQUAL = 7,
+			AND = 8, OR = 9, NOT = 10, TIMES = 11, DIV = 12, PLUS = 13, MINUS = 14, CALL = 15, ID = 16, BOOL = 17,
+			INT = 18, EMPTY = 19, FIELD = 20, METHOD = 21, CLASS = 22, NEW = 23, CLASS_CALL = 24;
+
+	private final Symbols symbols;
+
+	private byte[] kind = new byte[1024];
+	private int[] line = new int[1024], data = new int[1024], size = new int[1024];
+	private int nodes;
+
+	private int[] extra = new int[256];
+	private int extraSize;
+
+	private final List<TypeNode> types = new ArrayList<>();
+	private final Map<TypeNode, Integer> typeIndex = new IdentityHashMap<>();
+
+	private int[] roots = new int[64]; // dichiarazioni del let principale, poi l'espressione
+	private int rootCount;
+	private boolean letIn;
+
+	FlatAST(Symbols symbols) {
+		this.symbols = symbols;
+	}
+
+	/*------------------------------------------------------------------
+	 * COSTRUZIONE: una dichiarazione del let principale alla volta, poi l'espressione
+	 *------------------------------------------------------------------*/
+
+	void declaration(DecNode dec) {
+		root(flatten(dec));
+	}
+
+	// chiude la costruzione: gli array sono ridotti alla dimensione usata
+	void expression(Node exp, boolean letIn) {
+		root(flatten(exp));
+		this.letIn = letIn;
+		kind = Arrays.copyOf(kind, nodes);
+		line = Arrays.copyOf(line, nodes);
+		data = Arrays.copyOf(data, nodes);
+		size = Arrays.copyOf(size, nodes);
+		extra = Arrays.copyOf(extra, extraSize);
+		roots = Arrays.copyOf(roots, rootCount);
+	}
+
+	private void root(int node) {
+		if (rootCount == roots.length) roots = Arrays.copyOf(roots, 2 * rootCount);
+		roots[rootCount++] = node;
+	}
+
+	// aggiunge il sottoalbero di n (i figli prima, con flatten) e ritorna l'indice della sua radice
+	private int flatten(Node n) {
+		int start = nodes;
+		if (n instanceof FunNode f) {
+			for (ParNode p : f.parlist) flatten(p);
+			for (DecNode d : f.declist) flatten(d);
+			flatten(f.exp);
+			return add(FUN, n, extra(f.sym, type(f.retType), f.parlist.size()), start);
+		}
+		if (n instanceof MethodNode m) {
+			for (ParNode p : m.parlist) flatten(p);
+			for (DecNode d : m.declist) flatten(d);
+			flatten(m.exp);
+			return add(METHOD, n, extra(symbols.intern(m.id), type(m.retType), m.parlist.size()), start);
+		}
+		if (n instanceof ClassNode cl) {
+			for (FieldNode f : cl.fields) flatten(f);
+			for (MethodNode m : cl.methods) flatten(m);
+			return add(CLASS, n, extra(cl.sym, cl.superSym, cl.fields.size()), start);
+		}
+		if (n instanceof ParNode p) return add(PAR, n, extra(p.sym, type(p.getType())), start);
+		if (n instanceof FieldNode f) return add(FIELD, n, extra(symbols.intern(f.id), type(f.getType())), start);
+		if (n instanceof VarNode v) {
+			flatten(v.exp);
+			return add(VAR, n, extra(v.sym, type(v.getType())), start);
+		}
+		if (n instanceof IdNode id) return add(ID, n, id.sym, start);
+		if (n instanceof IntNode i) return add(INT, n, i.val, start);
+		if (n instanceof BoolNode bool) return add(BOOL, n, bool.val ? 1 : 0, start);
+		if (n instanceof EmptyNode) return add(EMPTY, n, 0, start);
+		if (n instanceof CallNode call) {
+			for (Node arg : call.arglist) flatten(arg);
+			return add(CALL, n, call.sym, start);
+		}
+		if (n instanceof NewNode nw) {
+			for (Node arg : nw.argumentList) flatten(arg);
+			return add(NEW, n, nw.classSym, start);
+		}
+		if (n instanceof ClassCallNode cc) {
+			for (Node arg : cc.argumentList) flatten(arg);
+			return add(CLASS_CALL, n, extra(cc.classSym, symbols.intern(cc.methodId)), start);
+		}
+		if (n instanceof IfNode i) {
+			flatten(i.cond);
+			flatten(i.th);
+			flatten(i.el);
+			return add(IF, n, 0, start);
+		}
+		if (n instanceof PrintNode p) {
+			flatten(p.exp);
+			return add(PRINT, n, 0, start);
+		}
+		if (n instanceof NotNode not) {
+			flatten(not.exp);
+			return add(NOT, n, 0, start);
+		}
+		Node l, r;
+		byte k;
+		if (n instanceof EqualNode e) { k = EQUAL; l = e.left; r = e.right; }
+		else if (n instanceof LessEqualNode e) { k = LESS_EQUAL; l = e.left; r = e.right; }
+		else if (n instanceof GreaterEqualNode e) { k = GREATER_EQUAL; l = e.left; r = e.right; }
+		else if (n instanceof AndNode e) { k = AND; l = e.left; r = e.right; }
+		else if (n instanceof OrNode e) { k = OR; l = e.left; r = e.right; }
+		else if (n instanceof TimesNode e) { k = TIMES; l = e.left; r = e.right; }
+		else if (n instanceof DivNode e) { k = DIV; l = e.left; r = e.right; }
+		else if (n instanceof PlusNode e) { k = PLUS; l = e.left; r = e.right; }
+		else if (n instanceof MinusNode e) { k = MINUS; l = e.left; r = e.right; }
+		else throw new UnsupportedOperationException("Unexpected node "+(n == null ? null : n.getClass().getSimpleName()));
+		flatten(l);
+		flatten(r);
+		return add(k, n, 0, start);
+	}
+
+	private int type(TypeNode t) {
+		return typeIndex.computeIfAbsent(t, k -> {
+			types.add(k);
+			return types.size() - 1;
+		});
+	}
+
+	private int extra(int... fields) {
+		if (extraSize + fields.length > extra.length) extra = Arrays.copyOf(extra, 2 * extra.length);
+		System.arraycopy(fields, 0, extra, extraSize, fields.length);
+		extraSize += fields.length;
+		return extraSize - fields.length;
+	}
+
+	// nuovo nodo, radice dei nodi aggiunti da start in poi
+	private int add(byte k, Node n, int d, int start) {
+		if (nodes == kind.length) {
+			int capacity = 2 * nodes;
+			kind = Arrays.copyOf(kind, capacity);
+			line = Arrays.copyOf(line, capacity);
+			data = Arrays.copyOf(data, capacity);
+			size = Arrays.copyOf(size, capacity);
+		}
+		kind[nodes] = k;
+		line[nodes] = n.getLine();
+		data[nodes] = d;
+		size[nodes] = nodes - start + 1;
+		return nodes++;
+	}
+
+	/*------------------------------------------------------------------
+	 * ACCESSO
+	 *------------------------------------------------------------------*/
+
+	int size() {
+		return nodes;
+	}
+
+	boolean isLetIn() {
+		return letIn;
+	}
+
+	// dichiarazioni del let principale (0 per un programma senza let)
+	int declarations() {
+		return rootCount - 1;
+	}
+
+	DecNode declaration(int i) {
+		return (DecNode) node(roots[i]);
+	}
+
+	Node expression() {
+		return node(roots[rootCount - 1]);
+	}
+
+	/*------------------------------------------------------------------
+	 * MATERIALIZZAZIONE
+	 *------------------------------------------------------------------*/
+
+	Node node(int i) {
+		int[] kids = children(i);
+		Node n;
+		int x = data[i];
+		switch (kind[i]) {
+			case FUN -> n = new FunNode(symbols.name(extra[x]), extra[x], types.get(extra[x+1]), pars(kids, extra[x+2]),
+					decs(kids, extra[x+2]), node(kids[kids.length - 1]));
+			case METHOD -> {
+				List<ParNode> parList = pars(kids, extra[x+2]);
+				List<TypeNode> parTypes = new ArrayList<>();
+				for (ParNode p : parList) parTypes.add(p.getType());
+				TypeNode retType = types.get(extra[x+1]);
+				n = new MethodNode(symbols.name(extra[x]), retType, parList, decs(kids, extra[x+2]), node(kids[kids.length - 1]),
+						TypeFactory.arrowType(parTypes, retType));
+			}
+			case CLASS -> {
+				int superSym = extra[x+1];
+				List<FieldNode> fields = new ArrayList<>();
+				List<TypeNode> fieldTypes = new ArrayList<>();
+				for (int k = 0; k < extra[x+2]; k++) {
+					FieldNode f = (FieldNode) node(kids[k]);
+					fields.add(f);
+					fieldTypes.add(f.getType());
+				}
+				List<MethodNode> methods = new ArrayList<>();
+				List<ArrowTypeNode> methodsArrowTypes = new ArrayList<>();
+				for (int k = extra[x+2]; k < kids.length; k++) {
+					MethodNode m = (MethodNode) node(kids[k]);
+					methods.add(m);
+					if (superSym < 0) methodsArrowTypes.add((ArrowTypeNode) m.getType()); // come ASTGenerationSTVisitor
+				}
+				n = new ClassNode(symbols.name(extra[x]), extra[x], methods, fields, superSym < 0 ? null : symbols.name(superSym),
+						superSym, new ClassTypeNode(fieldTypes, methodsArrowTypes));
+			}
+			case PAR -> n = new ParNode(symbols.name(extra[x]), extra[x], types.get(extra[x+1]));
+			case FIELD -> n = new FieldNode(symbols.name(extra[x]), types.get(extra[x+1]));
+			case VAR -> n = new VarNode(symbols.name(extra[x]), extra[x], types.get(extra[x+1]), node(kids[0]));
+			case CLASS_CALL -> n = new ClassCallNode(symbols.name(extra[x]), extra[x], symbols.name(extra[x+1]), args(kids));
+			case ID -> n = new IdNode(symbols.name(x), x);
+			case INT -> n = new IntNode(x);
+			case BOOL -> n = new BoolNode(x != 0);
+			case EMPTY -> n = new EmptyNode();
+			case CALL -> n = new CallNode(symbols.name(x), x, args(kids));
+			case NEW -> n = new NewNode(symbols.name(x), x, args(kids));
+			case IF -> n = new IfNode(node(kids[0]), node(kids[1]), node(kids[2]));
+			case PRINT -> n = new PrintNode(node(kids[0]));
+			case NOT -> n = new NotNode(node(kids[0]));
+			case EQUAL -> n = new EqualNode(node(kids[0]), node(kids[1]));
+			case LESS_EQUAL -> n = new LessEqualNode(node(kids[0]), node(kids[1]));
+			case GREATER_EQUAL -> n = new GreaterEqualNode(node(kids[0]), node(kids[1]));
+			case AND -> n = new AndNode(node(kids[0]), node(kids[1]));
+			case OR -> n = new OrNode(node(kids[0]), node(kids[1]));
+			case TIMES -> n = new TimesNode(node(kids[0]), node(kids[1]));
+			case DIV -> n = new DivNode(node(kids[0]), node(kids[1]));
+			case PLUS -> n = new PlusNode(node(kids[0]), node(kids[1]));
+			default -> n = new MinusNode(node(kids[0]), node(kids[1]));
+		}
+		if (line[i] != -1) n.setLine(line[i]);
+		return n;
+	}
+
+	// indici dei figli di i, in ordine
+	private int[] children(int i) {
+		int count = 0;
+		for (int j = i - 1; j > i - size[i]; j -= size[j]) count++;
+		int[] kids = new int[count];
+		for (int j = i - 1; j > i - size[i]; j -= size[j]) kids[--count] = j;
+		return kids;
+	}
+
+	private List<ParNode> pars(int[] kids, int count) {
+		List<ParNode> parList = new ArrayList<>(count);
+		for (int k = 0; k < count; k++) parList.add((ParNode) node(kids[k]));
+		return parList;
+	}
+
+	// dichiarazioni locali di FUN e METHOD: tra i parametri e l'espressione
+	private List<DecNode> decs(int[] kids, int pars) {
+		List<DecNode> decList = new ArrayList<>();
+		for (int k = pars; k < kids.length - 1; k++) decList.add((DecNode) node(kids[k]));
+		return decList;
+	}
+
+	private List<Node> args(int[] kids) {
+		List<Node> args = new ArrayList<>(kids.length);
+		for (int kid : kids) args.add(node(kid));
+		return args;
+	}
+
+}
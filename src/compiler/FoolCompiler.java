@@ -0,0 +1,421 @@
+package compiler;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.misc.Interval;
+import compiler.AST.*;
+import compiler.FOOLParser.*;
+import compiler.ir.*;
+import compiler.lib.*;
+import compiler.exc.*;
+import svm.*;
+
+/**
+ * Compilatore FOOL da usare come libreria: compila da stringa (o CharStream) senza accedere al
+ * disco e senza stampare nulla; messaggi di errore, AST arricchito, asm e codice SVM assemblato
+ * sono restituiti in un Result, che sa anche eseguire il programma.
+ * Un'istanza riusa lexer e parser tra una compilazione e l'altra: non va usata da piu' thread
+ * contemporaneamente (per compilare in parallelo basta un'istanza per thread).
+ *
+ * Un compilatore incrementale (new FoolCompiler(true)) ricorda le dichiarazioni del let principale
+ * compilate senza errori e, nelle compilazioni successive, rianalizza e rigenera solo quelle
+ * cambiate o che dipendono da dichiarazioni cambiate (vedi DeclarationCache). Le etichette del
+ * codice generato sono diverse da quelle della compilazione non incrementale.
+ *
+ * Il front-end usa prima FOOLDirectParser (lexer e parser scritti a mano, costruiscono direttamente
+ * l'AST); solo se il sorgente contiene errori l'analisi e' ripetuta con FOOLLexer e FOOLParser,
+ * che producono i messaggi di errore.
+ *
+ * Sorgenti molto grandi (almeno flatSourceSize caratteri, compilatore non incrementale) sono
+ * compilati in forma compatta (FlatAST): ogni dichiarazione del let principale e' materializzata,
+ * attraversa symbol table, type checking e generazione del codice e viene scartata, quindi l'AST a
+ * oggetti dell'intero programma non c'e' mai in memoria. I messaggi arrivano in ordine di
+ * dichiarazione invece che fase per fase, e Result.ast e' null.
+ * Con almeno parallelDeclarations dichiarazioni nel let principale (e un pool fork-join comune con
+ * piu' di un thread) il type checking controlla dichiarazioni e metodi in parallelo, con i messaggi
+ * nello stesso ordine, e funzioni e metodi sono generati in parallelo (codice deterministico, con
+ * altre etichette).
+ *
+ * Con setOptimization il codice e' generato passando dalla rappresentazione intermedia a blocchi
+ * base (compiler.ir), con i passi di ottimizzazione del livello scelto (vedi PassManager); con
+ * setMemoization le funzioni pure ricorsive sono memoizzate dalla SVM (vedi Memoization).
+ * L'asm restituito e assemblato e' gia' passato dall'ottimizzatore peephole (PeepholeOptimizer).
+ *
+ * Compilazione separata: compileModule compila un modulo in un file oggetto (ObjectModule) contro
+ * i moduli che lo precedono, link li collega in un programma eseguibile (vedi Linker).
+ */
+public class FoolCompiler {
+
+	public enum Phase { LEXER, PARSER, SYMBOL_TABLE, TYPE_CHECK, LINKER, ASSEMBLER }
+
+	public static class Diagnostic {
+		public final Phase phase;
+		public final String message;
+
+		Diagnostic(Phase phase, String message) {
+			this.phase = phase;
+			this.message = message;
+		}
+
+		@Override
+		public String toString() {
+			return message;
+		}
+	}
+
+	public static class Result {
+		public final List<Diagnostic> diagnostics;
+		public final Node ast; // AST arricchito (null se il parsing non ha prodotto niente o con FlatAST)
+		public final String asm; // null se ci sono errori nel front-end
+		public final int[] code; // codice SVM assemblato, null se ci sono errori
+		public final Map<String,Integer> labels; // etichetta -> indirizzo in code (per CodeMap)
+		public int reusedDeclarations; // dichiarazioni prese dalla cache (compilatore incrementale)
+		public ObjectModule module; // file oggetto (compileModule), null se ci sono errori
+
+		Result(List<Diagnostic> diagnostics, Node ast, String asm, int[] code, Map<String,Integer> labels) {
+			this.diagnostics = Collections.unmodifiableList(diagnostics);
+			this.ast = ast;
+			this.asm = asm;
+			this.code = code;
+			this.labels = labels;
+		}
+
+		public boolean ok() {
+			return code != null || module != null;
+		}
+
+		public ExecuteVM newVM(OutputSink out) {
+			if (!ok()) throw new IllegalStateException("Program has compilation errors");
+			if (code == null) throw new IllegalStateException("Modules must be linked before running");
+			return new ExecuteVM(code, out);
+		}
+
+		// esegue il programma (al massimo fuel, vedi ExecuteVM.run) raccogliendo i valori stampati;
+		// gli errori della macchina (es. stack esaurito) arrivano come RuntimeException
+		public Execution run(long fuel) {
+			CaptureOutputSink out = new CaptureOutputSink();
+			boolean halted = newVM(out).run(fuel);
+			return new Execution(halted, out.values(), out.emptyStackPrints());
+		}
+
+		public Execution run() {
+			return run(Long.MAX_VALUE);
+		}
+	}
+
+	public static class Execution {
+		public final boolean halted; // false se e' finito il fuel
+		public final int[] output; // valori stampati, in ordine
+		public final int emptyStackPrints;
+
+		Execution(boolean halted, int[] output, int emptyStackPrints) {
+			this.halted = halted;
+			this.output = output;
+			this.emptyStackPrints = emptyStackPrints;
+		}
+	}
+
+	private final FOOLLexer lexer = new FOOLLexer(CharStreams.fromString(""));
+	private final CommonTokenStream tokens = new CommonTokenStream(lexer);
+	private final FOOLParser parser = new FOOLParser(tokens);
+
+	private Symbols symbols = new Symbols(); // condivisi tra le compilazioni solo se incrementale (vedi newSymbols)
+	private final FOOLDirectParser directParser = new FOOLDirectParser(symbols);
+	private final DeclarationCache declarations; // null se non incrementale
+
+	int flatSourceSize = 1 << 20; // caratteri da cui si compila con FlatAST
+	int parallelDeclarations = 64; // dichiarazioni del let principale da cui type checking e codice sono paralleli
+	boolean peephole = true; // asm ottimizzato da PeepholeOptimizer prima dell'assemblaggio
+	int optimization = -1; // livello -O dei passi sulla IR (compiler.ir); -1: codice generato direttamente dall'AST
+	boolean memoization = false; // funzioni pure ricorsive memoizzate dalla SVM (passa dalla IR)
+
+	private List<Diagnostic> diagnostics;
+	private Phase phase; // fase corrente, per i messaggi che arrivano dal CompilationContext
+
+	public FoolCompiler() {
+		this(false);
+	}
+
+	public FoolCompiler(boolean incremental) {
+		declarations = incremental ? new DeclarationCache() : null;
+		lexer.removeErrorListeners();
+		lexer.errorReporter = m -> report(Phase.LEXER, m);
+		parser.removeErrorListeners();
+		parser.addErrorListener(collector(Phase.PARSER));
+	}
+
+	// livello di ottimizzazione (0-PassManager.MAX_LEVEL) con cui il codice passa dalla IR, -1 per
+	// generarlo direttamente dall'AST; la IR non si usa con il compilatore incrementale ne' con FlatAST
+	public void setOptimization(int level) {
+		if (level > PassManager.MAX_LEVEL) throw new IllegalArgumentException("Optimization level "+level);
+		optimization = level;
+	}
+
+	// memoizzazione delle funzioni pure ricorsive (memoget/memoput): il codice passa dalla IR,
+	// almeno a -O0
+	public void setMemoization(boolean enabled) {
+		memoization = enabled;
+	}
+
+	public void setPeephole(boolean enabled) {
+		peephole = enabled;
+	}
+
+	public Result compile(String source) {
+		return compile(CharStreams.fromString(source));
+	}
+
+	public Result compile(CharStream source) {
+		if (declarations == null) return compileAll(source);
+		Result result = null;
+		try {
+			result = compileAll(source);
+			result.reusedDeclarations = declarations.reusedCount();
+			return result;
+		} finally {
+			declarations.commit(result == null || !result.ok());
+		}
+	}
+
+	private Result compileAll(CharStream source) {
+		diagnostics = new ArrayList<>();
+		newSymbols();
+		String text = source.getText(Interval.of(0, source.size()-1));
+		int syntaxErrors = 0;
+		List<DeclarationCache.Source> sources = null;
+		Node ast = null;
+		if (declarations == null && text.length() >= flatSourceSize) {
+			FlatAST flat = directParser.parseFlat(text);
+			if (flat != null) return compileFlat(flat);
+		} else {
+			ast = directParser.parse(text);
+		}
+		if (ast == null && directParser.error() != null) return parseError();
+		if (ast != null) {
+			sources = directParser.declarations();
+		} else { // errori lessicali o sintattici: li riportano lexer e parser di ANTLR
+			ProgContext st = parseANTLR(source);
+			ast = astOf(st);
+			if (ast == null) return new Result(diagnostics, null, null, null, null);
+			syntaxErrors = lexer.lexicalErrors+parser.getNumberOfSyntaxErrors();
+			if (syntaxErrors == 0 && st.progbody() instanceof LetInProgContext prog) sources = DeclarationCache.sources(prog, tokens);
+		}
+
+		CompilationContext ctx = new CompilationContext(m -> report(phase, m));
+		if (declarations != null && ast instanceof ProgLetInNode prog && sources != null) {
+			ctx.declarations = declarations;
+			ast = new ProgLetInNode(declarations.prepare(prog.declist, sources), prog.exp);
+		}
+		phase = Phase.SYMBOL_TABLE;
+		SymbolTableASTVisitor symtableVisitor = new SymbolTableASTVisitor(ctx);
+		symtableVisitor.visit(ast);
+		phase = Phase.TYPE_CHECK;
+		boolean parallel = ast instanceof ProgLetInNode prog && prog.declist.size() >= parallelDeclarations
+				&& ForkJoinPool.getCommonPoolParallelism() > 1;
+		try {
+			new TypeCheckEASTVisitor(ctx, false, parallel).visit(ast);
+		} catch (IncomplException e) { // gli errori che rendono l'albero incompleto sono gia' riportati
+		} catch (TypeException e) {
+			ctx.typeErrors++;
+			ctx.report("Type checking error in main program expression: "+e.text);
+		}
+		int frontEndErrors = syntaxErrors+symtableVisitor.stErrors+ctx.typeErrors;
+		if (frontEndErrors > 0) return new Result(diagnostics, ast, null, null, null);
+
+		if ((optimization >= 0 || memoization) && ctx.declarations == null)
+			return assemble(optimized(ast, ctx, Math.max(optimization, 0), memoization), ast);
+		return assemble(new CodeGenerationASTVisitor(ctx, false, false, parallel).visit(ast), ast);
+	}
+
+	// codice generato passando dalla IR, ottimizzata con i passi del livello dato
+	static String optimized(Node ast, CompilationContext ctx, int level, boolean memoize) {
+		IrProgram ir = new IRGenerationASTVisitor(ctx, frameObjects(ast, level)).program(ast);
+		new PassManager(level, memoize).run(ir);
+		return Lowering.lower(ir, ctx::freshLabel, ctx::freshNewLabel);
+	}
+
+	// oggetti che non sfuggono, allocati nel frame invece che nello heap (da -O1)
+	static Set<NewNode> frameObjects(Node ast, int level) {
+		return level >= 1 ? new EscapeAnalysisASTVisitor().frameObjects(ast) : Set.of();
+	}
+
+	// simboli di una compilazione: con la DeclarationCache restano quelli delle precedenti, usati dai
+	// nodi in cache; altrimenti ne servono di nuovi, o tabella e binding crescerebbero a ogni compilazione
+	private void newSymbols() {
+		if (declarations == null) symbols = new Symbols();
+		directParser.setSymbols(symbols);
+	}
+
+	// errore rilevato solo dal parser diretto (es. intero fuori intervallo)
+	private Result parseError() {
+		report(Phase.PARSER, directParser.error());
+		return new Result(diagnostics, null, null, null, null);
+	}
+
+	// AST dal parse tree di ANTLR; null se gli errori sintattici (gia' nelle diagnostiche) hanno
+	// lasciato un albero da cui non si riesce a costruirlo, es. un NUM mancante dopo il recupero
+	private Node astOf(ProgContext st) {
+		try {
+			return new ASTGenerationSTVisitor(symbols).visit(st);
+		} catch (RuntimeException e) {
+			if (lexer.lexicalErrors+parser.getNumberOfSyntaxErrors() == 0) throw e;
+			return null;
+		}
+	}
+
+	private ProgContext parseANTLR(CharStream source) {
+		source.seek(0);
+		lexer.setInputStream(source);
+		lexer.lexicalErrors = 0;
+		tokens.setTokenSource(lexer);
+		parser.setTokenStream(tokens);
+		return parser.prog();
+	}
+
+	/**
+	 * Compila il modulo name (solo lettere e cifre) in un file oggetto, Result.module, contro i
+	 * moduli imports: le loro dichiarazioni sono visibili e ne occupano gli slot globali, quindi nel
+	 * link dovranno precedere questo modulo nello stesso ordine. Result.asm e Result.code sono null.
+	 */
+	public Result compileModule(String name, String source, List<ObjectModule> imports) {
+		if (!ObjectModule.validName(name)) throw new IllegalArgumentException("Invalid module name: "+name);
+		diagnostics = new ArrayList<>();
+		newSymbols();
+		Node ast = directParser.parse(source);
+		if (ast == null && directParser.error() != null) return parseError();
+		if (ast == null) {
+			ast = astOf(parseANTLR(CharStreams.fromString(source)));
+			if (ast == null || lexer.lexicalErrors+parser.getNumberOfSyntaxErrors() > 0) return new Result(diagnostics, ast, null, null, null);
+		}
+		List<DecNode> declist = ast instanceof ProgLetInNode prog ? prog.declist : List.of();
+		Node exp = ast instanceof ProgLetInNode prog ? prog.exp : ((ProgNode) ast).exp;
+
+		CompilationContext ctx = new CompilationContext(m -> report(phase, m));
+		SymbolTableASTVisitor symtableVisitor = new SymbolTableASTVisitor(ctx);
+		CodeGenerationASTVisitor codeVisitor = new CodeGenerationASTVisitor(ctx);
+		List<ObjectModule.Import> imported = new ArrayList<>();
+		phase = Phase.SYMBOL_TABLE;
+		symtableVisitor.beginProgram();
+		int slots = 0;
+		for (ObjectModule m : imports) {
+			imported.add(new ObjectModule.Import(m.name, m.interfaceHash()));
+			for (ObjectModule.Export e : m.exports) {
+				symtableVisitor.declareImport(symbols.intern(e.id), e.id, new STentry(0, e.type, -2-slots++), e.virtualTable, e.superId);
+				codeVisitor.importSlot(e.dispatchTable);
+			}
+		}
+		for (DecNode dec : declist) symtableVisitor.declaration(dec);
+		List<ObjectModule.Export> exports = new ArrayList<>();
+		for (DecNode dec : declist) {
+			if (dec instanceof ClassNode c) {
+				ObjectModule.Export e = new ObjectModule.Export("class", c.id, symtableVisitor.global(c.sym).type);
+				e.superId = c.superId;
+				e.virtualTable = new HashMap<>(symtableVisitor.virtualTable(c.id)); // anche i membri ereditati
+				exports.add(e);
+			} else if (dec instanceof FunNode f) exports.add(new ObjectModule.Export("fun", f.id, symtableVisitor.global(f.sym).type));
+			else exports.add(new ObjectModule.Export("var", ((VarNode) dec).id, symtableVisitor.global(((VarNode) dec).sym).type));
+		}
+		symtableVisitor.endProgram(exp);
+		phase = Phase.TYPE_CHECK;
+		try {
+			new TypeCheckEASTVisitor(ctx).visit(ast);
+		} catch (IncomplException e) {
+		} catch (TypeException e) {
+			ctx.typeErrors++;
+			ctx.report("Type checking error in main program expression: "+e.text);
+		}
+		if (symtableVisitor.stErrors+ctx.typeErrors > 0) return new Result(diagnostics, ast, null, null, null);
+
+		ctx.enterLabelNamespace(ObjectModule.labelNamespace(name));
+		StringBuilder init = new StringBuilder();
+		for (DecNode dec : declist) {
+			String code = codeVisitor.declaration(dec);
+			if (code != null) init.append(init.isEmpty() ? "" : "\n").append(code);
+		}
+		String main = codeVisitor.visit(exp);
+		ctx.exitLabelNamespace();
+		for (int i = 0; i < declist.size(); i++)
+			if (declist.get(i) instanceof ClassNode) exports.get(i).dispatchTable = new ArrayList<>(codeVisitor.dispatchTable(slots+i));
+		Result result = new Result(diagnostics, ast, null, null, null);
+		result.module = new ObjectModule(name, DeclarationCache.hash(source), imported, exports,
+				init.isEmpty() ? null : init.toString(), main, ctx.codeFragmentsSince(0));
+		return result;
+	}
+
+	/**
+	 * Collega i file oggetto in un programma eseguibile (vedi Linker): ogni modulo deve essere
+	 * stato compilato contro esattamente i moduli che lo precedono, l'ultimo e' il principale.
+	 */
+	public Result link(List<ObjectModule> modules) {
+		diagnostics = new ArrayList<>();
+		String asm = Linker.link(modules, m -> report(Phase.LINKER, m));
+		if (asm == null) return new Result(diagnostics, null, null, null, null);
+		return assemble(asm, null);
+	}
+
+	// il let principale una dichiarazione alla volta: ciascuna e' materializzata dal FlatAST, visitata
+	// da tutte le fasi e poi scartata; il codice si genera finche' non ci sono errori
+	private Result compileFlat(FlatAST flat) {
+		CompilationContext ctx = new CompilationContext(m -> report(phase, m));
+		SymbolTableASTVisitor symtableVisitor = new SymbolTableASTVisitor(ctx);
+		TypeCheckEASTVisitor typeCheckVisitor = new TypeCheckEASTVisitor(ctx);
+		CodeGenerationASTVisitor codeVisitor = new CodeGenerationASTVisitor(ctx);
+		StringBuilder declCode = new StringBuilder();
+		symtableVisitor.beginProgram();
+		for (int i = 0; i < flat.declarations(); i++) {
+			DecNode dec = flat.declaration(i);
+			phase = Phase.SYMBOL_TABLE;
+			symtableVisitor.declaration(dec);
+			phase = Phase.TYPE_CHECK;
+			typeCheckVisitor.declaration(dec);
+			if (symtableVisitor.stErrors+ctx.typeErrors > 0) continue;
+			String code = codeVisitor.declaration(dec);
+			if (code != null) declCode.append(declCode.isEmpty() ? "" : "\n").append(code);
+		}
+		Node exp = flat.expression();
+		phase = Phase.SYMBOL_TABLE;
+		symtableVisitor.endProgram(exp);
+		phase = Phase.TYPE_CHECK;
+		try {
+			typeCheckVisitor.visit(exp);
+		} catch (IncomplException e) {
+		} catch (TypeException e) {
+			ctx.typeErrors++;
+			ctx.report("Type checking error in main program expression: "+e.text);
+		}
+		if (symtableVisitor.stErrors+ctx.typeErrors > 0) return new Result(diagnostics, null, null, null, null);
+
+		String asm = flat.isLetIn() ? codeVisitor.program(declCode.isEmpty() ? null : declCode.toString(), exp)
+				: codeVisitor.visit(new ProgNode(exp));
+		return assemble(asm, null);
+	}
+
+	private Result assemble(String asm, Node ast) {
+		if (peephole) asm = new PeepholeOptimizer().optimize(asm);
+		SVMLexer lexerASM = new SVMLexer(CharStreams.fromString(asm));
+		SVMParser parserASM = new SVMParser(new CommonTokenStream(lexerASM));
+		lexerASM.removeErrorListeners();
+		parserASM.removeErrorListeners();
+		parserASM.addErrorListener(collector(Phase.ASSEMBLER));
+		parserASM.assembly();
+		if (lexerASM.lexicalErrors+parserASM.getNumberOfSyntaxErrors() > 0) return new Result(diagnostics, ast, asm, null, null);
+		return new Result(diagnostics, ast, asm, parserASM.code, parserASM.labelDef);
+	}
+
+	private void report(Phase phase, String message) {
+		diagnostics.add(new Diagnostic(phase, message));
+	}
+
+	// come il ConsoleErrorListener di ANTLR, ma raccoglie i messaggi invece di stamparli
+	private BaseErrorListener collector(Phase phase) {
+		return new BaseErrorListener() {
+			@Override
+			public void syntaxError(Recognizer<?,?> recognizer, Object offendingSymbol, int line, int charPositionInLine,
+					String msg, RecognitionException e) {
+				report(phase, "line "+line+":"+charPositionInLine+" "+msg);
+			}
+		};
+	}
+
+}
@@ -0,0 +1,326 @@
+package compiler;
+
+import compiler.AST.*;
+import compiler.ir.*;
+import compiler.lib.*;
+import compiler.exc.*;
+
+import java.util.*;
+
+/**
+ * Traduce l'AST arricchito nella IR (compiler.ir): ogni espressione lascia il suo valore sullo
+ * stack degli operandi, if e operatori booleani diventano blocchi base, le dichiarazioni slot
+ * espliciti dei frame. I blocchi sono creati nell'ordine del codice di CodeGenerationASTVisitor,
+ * quindi senza ottimizzazioni (-O0) si generano le stesse istruzioni (a meno di etichette e ordine
+ * delle funzioni).
+ */
+public class IRGenerationASTVisitor extends BaseASTVisitor<Void, VoidException> {
+
+    private final CompilationContext ctx; //etichette di funzioni e metodi
+    private final IrProgram program = new IrProgram();
+    private final Map<Integer, List<String>> dispatchTables = new HashMap<>(); //per slot globale
+    private final Map<Integer, Slot> fields = new HashMap<>(); //per offset: lo stesso campo dell'oggetto corrente
+    private final Set<NewNode> frameObjects; //allocati nel frame (EscapeAnalysisASTVisitor)
+    private final boolean checkpoint; //chkp dopo le dichiarazioni del let principale, come CodeGenerationASTVisitor
+    private IrFunction fn; //funzione di cui si genera il codice
+    private Block cur; //blocco corrente
+
+    IRGenerationASTVisitor(CompilationContext ctx) {
+        this(ctx, Set.of());
+    }
+
+    IRGenerationASTVisitor(CompilationContext ctx, Set<NewNode> frameObjects) {
+        this(ctx, frameObjects, false);
+    }
+
+    IRGenerationASTVisitor(CompilationContext ctx, Set<NewNode> frameObjects, boolean checkpoint) {
+        this.ctx = ctx;
+        this.frameObjects = frameObjects;
+        this.checkpoint = checkpoint;
+    }
+
+    IrProgram program(Node ast) {
+        fn = program.main;
+        cur = fn.entry();
+        visit(ast);
+        return program;
+    }
+
+    @Override
+    public Void visitNode(ProgLetInNode n) {
+        declarations(n.declist);
+        if (checkpoint) cur.add(Instr.checkpoint()); //snapshot con le dichiarazioni gia' valutate
+        visit(n.exp);
+        cur.add(Instr.halt());
+        return null;
+    }
+
+    @Override
+    public Void visitNode(ProgNode n) {
+        visit(n.exp);
+        cur.add(Instr.halt());
+        return null;
+    }
+
+    // gli slot sono creati tutti prima, nell'ordine della symbol table: le funzioni possono
+    // riferirsi a se stesse e alle dichiarazioni che seguono
+    private void declarations(List<DecNode> decs) {
+        int first = fn.localCount();
+        for (DecNode dec : decs) fn.newLocal(id(dec));
+        for (int i = 0; i < decs.size(); i++) {
+            DecNode dec = decs.get(i);
+            Slot slot = fn.local(first + i);
+            if (dec instanceof ClassNode c) {
+                cur.add(Instr.dispatch(classTable(c, first + i)));
+            } else if (dec instanceof FunNode f) {
+                cur.add(Instr.label(function(IrFunction.Kind.FUNCTION, ctx.freshFunLabel(f.parlist.size()), fn, f.retType, f.parlist, f.declist, f.exp)));
+            } else {
+                visit(dec);
+            }
+            cur.add(Instr.define(slot));
+        }
+    }
+
+    private static String id(DecNode dec) {
+        if (dec instanceof VarNode v) return v.id;
+        if (dec instanceof FunNode f) return f.id;
+        return ((ClassNode) dec).id;
+    }
+
+    // genera una funzione o un metodo e ne ritorna l'etichetta
+    private String function(IrFunction.Kind kind, String label, IrFunction parent, TypeNode retType, List<ParNode> parlist, List<DecNode> declist, Node exp) {
+        IrFunction outerFn = fn;
+        Block outerBlock = cur;
+        fn = program.newFunction(kind, label, parent, parlist.size(), retType instanceof RefTypeNode);
+        for (int i = 0; i < parlist.size(); i++) fn.param(parlist.get(i).id, i + 1);
+        cur = fn.entry();
+        declarations(declist);
+        visit(exp);
+        cur.add(Instr.ret());
+        fn = outerFn;
+        cur = outerBlock;
+        return label;
+    }
+
+    // dispatch table della classe nello slot globale index, dopo aver generato i suoi metodi
+    private List<String> classTable(ClassNode n, int index) {
+        List<String> table = n.superId == null ? new ArrayList<>()
+                : new ArrayList<>(dispatchTables.get(-n.superEntry.offset - 2)); //eredito
+        for (MethodNode m : n.methods) {
+            m.label = function(IrFunction.Kind.METHOD, ctx.freshMethodLabel(m.parlist.size()), null, m.retType, m.parlist, m.declist, m.exp);
+            if (m.offset >= table.size()) table.add(m.offset, m.label);
+            else table.set(m.offset, m.label);
+        }
+        dispatchTables.put(index, table);
+        return table;
+    }
+
+    // slot dichiarato da entry nel frame depth anelli sopra quello corrente: oltre un metodo
+    // c'e' il suo oggetto, quindi un campo
+    private Slot slot(STentry entry, int depth, String id) {
+        IrFunction f = fn;
+        for (int d = 0; d < depth; d++) {
+            if (f.parent() == null) return fields.computeIfAbsent(entry.offset, o -> Slot.field(id, o));
+            f = f.parent();
+        }
+        return entry.offset > 0 ? f.param(id, entry.offset) : f.local(-entry.offset - 2);
+    }
+
+    @Override
+    public Void visitNode(VarNode n) {
+        visit(n.exp);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(PrintNode n) {
+        visit(n.exp);
+        cur.add(Instr.print());
+        return null;
+    }
+
+    @Override
+    public Void visitNode(IfNode n) {
+        visit(n.cond);
+        cur.add(Instr.constant(1));
+        Block th = fn.createBlock(), el = fn.newBlock(), join = fn.createBlock();
+        cur.add(Instr.branch("beq", th, el));
+        cur = el;
+        visit(n.el);
+        cur.add(Instr.jump(join));
+        fn.place(th);
+        cur = th;
+        visit(n.th);
+        cur.add(Instr.jump(join));
+        fn.place(join);
+        cur = join;
+        return null;
+    }
+
+    // confronto dei due valori in cima allo stack, materializzato come 0/1
+    private Void compare(String op) {
+        Block yes = fn.createBlock(), no = fn.newBlock(), join = fn.createBlock();
+        cur.add(Instr.branch(op, yes, no));
+        no.add(Instr.constant(0));
+        no.add(Instr.jump(join));
+        fn.place(yes);
+        yes.add(Instr.constant(1));
+        yes.add(Instr.jump(join));
+        fn.place(join);
+        cur = join;
+        return null;
+    }
+
+    @Override
+    public Void visitNode(EqualNode n) {
+        visit(n.left);
+        visit(n.right);
+        return compare("beq");
+    }
+
+    @Override
+    public Void visitNode(LessEqualNode n) {
+        visit(n.left);
+        visit(n.right);
+        return compare("bleq");
+    }
+
+    @Override
+    public Void visitNode(GreaterEqualNode n) {
+        visit(n.right);
+        visit(n.left);
+        return compare("bleq");
+    }
+
+    // and e or: il secondo operando e' valutato solo se il primo non decide (short-circuit);
+    // shortValue e' il valore che decide
+    private Void shortCircuit(Node left, Node right, int shortValue) {
+        Block decided = fn.createBlock(), join = fn.createBlock();
+        visit(left);
+        cur.add(Instr.constant(shortValue));
+        Block second = fn.newBlock();
+        cur.add(Instr.branch("beq", decided, second));
+        cur = second;
+        visit(right);
+        cur.add(Instr.constant(shortValue));
+        Block other = fn.newBlock();
+        cur.add(Instr.branch("beq", decided, other));
+        other.add(Instr.constant(1 - shortValue));
+        other.add(Instr.jump(join));
+        fn.place(decided);
+        decided.add(Instr.constant(shortValue));
+        decided.add(Instr.jump(join));
+        fn.place(join);
+        cur = join;
+        return null;
+    }
+
+    @Override
+    public Void visitNode(AndNode n) {
+        return shortCircuit(n.left, n.right, 0);
+    }
+
+    @Override
+    public Void visitNode(OrNode n) {
+        return shortCircuit(n.left, n.right, 1);
+    }
+
+    @Override
+    public Void visitNode(NotNode n) {
+        visit(n.exp);
+        cur.add(Instr.constant(1));
+        Block isTrue = fn.createBlock(), isFalse = fn.newBlock(), join = fn.createBlock();
+        cur.add(Instr.branch("beq", isTrue, isFalse));
+        isFalse.add(Instr.constant(1));
+        isFalse.add(Instr.jump(join));
+        fn.place(isTrue);
+        isTrue.add(Instr.constant(0));
+        isTrue.add(Instr.jump(join));
+        fn.place(join);
+        cur = join;
+        return null;
+    }
+
+    private Void binary(Node left, Node right, String op) {
+        visit(left);
+        visit(right);
+        cur.add(Instr.binary(op));
+        return null;
+    }
+
+    @Override
+    public Void visitNode(TimesNode n) {
+        return binary(n.left, n.right, "mult");
+    }
+
+    @Override
+    public Void visitNode(DivNode n) {
+        return binary(n.left, n.right, "div");
+    }
+
+    @Override
+    public Void visitNode(PlusNode n) {
+        return binary(n.left, n.right, "add");
+    }
+
+    @Override
+    public Void visitNode(MinusNode n) {
+        return binary(n.left, n.right, "sub");
+    }
+
+    @Override
+    public Void visitNode(CallNode n) {
+        int depth = n.nl - n.entry.nl;
+        cur.add(Instr.frame(0)); //control link
+        for (int i = n.arglist.size() - 1; i >= 0; i--) visit(n.arglist.get(i));
+        cur.add(Instr.frame(depth)); //access link: frame della dichiarazione (o oggetto, per un metodo)
+        if (n.entry.offset >= 0) cur.add(Instr.callMethod(n.entry.offset, n.arglist.size()));
+        else cur.add(Instr.callFunction(slot(n.entry, depth, n.id), n.arglist.size()));
+        return null;
+    }
+
+    @Override
+    public Void visitNode(IdNode n) {
+        int depth = n.nl - n.entry.nl;
+        cur.add(Instr.load(slot(n.entry, depth, n.id), depth));
+        return null;
+    }
+
+    @Override
+    public Void visitNode(BoolNode n) {
+        cur.add(Instr.constant(n.val ? 1 : 0));
+        return null;
+    }
+
+    @Override
+    public Void visitNode(IntNode n) {
+        cur.add(Instr.constant(n.val));
+        return null;
+    }
+
+    @Override
+    public Void visitNode(EmptyNode n) {
+        cur.add(Instr.constant(-1));
+        return null;
+    }
+
+    @Override
+    public Void visitNode(ClassCallNode n) {
+        int depth = n.nestingLevel - n.classEntry.nl;
+        cur.add(Instr.frame(0)); //control link
+        for (int i = n.argumentList.size() - 1; i >= 0; i--) visit(n.argumentList.get(i));
+        cur.add(Instr.load(slot(n.classEntry, depth, n.classId), depth)); //access link: l'oggetto
+        cur.add(Instr.callMethod(n.methodEntry.offset, n.argumentList.size()));
+        return null;
+    }
+
+    @Override
+    public Void visitNode(NewNode n) {
+        for (Node arg : n.argumentList) visit(arg);
+        Slot classSlot = program.main.local(-n.classEntry.offset - 2);
+        if (frameObjects.contains(n)) cur.add(Instr.newFrameObject(classSlot, n.argumentList.size(), fn.newObject(n.argumentList.size())));
+        else cur.add(Instr.newObject(classSlot, n.argumentList.size()));
+        return null;
+    }
+
+}
@@ -0,0 +1,56 @@
+package compiler;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+import static compiler.lib.FOOLlib.*;
+
+/**
+ * Linker dei file oggetto (ObjectModule): i moduli, in ordine, diventano un unico programma SVM.
+ * Gli slot globali sono assegnati nell'ordine dei moduli, quindi ogni modulo deve essere stato
+ * compilato contro esattamente i moduli che lo precedono; l'espressione eseguita e' quella
+ * dell'ultimo modulo.
+ *
+ * Il risultato e' assembly: le etichette dei moduli (riferimenti di push e salti, anche tra moduli
+ * diversi, come quelle dei metodi nelle dispatch table delle sottoclassi) sono risolte
+ * dall'assemblatore, che ne fa la rilocazione nell'immagine finale.
+ */
+final class Linker {
+
+	private Linker() {}
+
+	// null se i moduli non si possono collegare (i motivi vanno a errors)
+	static String link(List<ObjectModule> modules, Consumer<String> errors) {
+		if (modules.isEmpty()) {
+			errors.accept("No modules to link");
+			return null;
+		}
+		boolean ok = true;
+		Set<String> names = new HashSet<>();
+		for (int i = 0; i < modules.size(); i++) {
+			ObjectModule m = modules.get(i);
+			if (!names.add(m.name)) {
+				errors.accept("Module "+m.name+" linked twice");
+				ok = false;
+			} else if (!m.compiledAgainst(modules.subList(0, i))) {
+				errors.accept("Module "+m.name+" was not compiled against the modules linked before it: recompile it");
+				ok = false;
+			}
+		}
+		if (!ok) return null;
+
+		StringBuilder init = new StringBuilder(), code = new StringBuilder();
+		for (ObjectModule m : modules) {
+			if (m.init != null) init.append(init.isEmpty() ? "" : "\n").append(m.init);
+			for (String c : m.code) code.append("\n\n").append(c);
+		}
+		return nlJoin(
+				"push 0",
+				init.isEmpty() ? null : init.toString(), // dichiarazioni di tutti i moduli, in ordine di slot
+				modules.get(modules.size()-1).main,
+				"halt",
+				code.toString()
+		);
+	}
+
+}
@@ -0,0 +1,267 @@
+package compiler;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import compiler.AST.*;
+import compiler.lib.*;
+
+/**
+ * File oggetto di un modulo FOOL compilato separatamente (FoolCompiler.compileModule).
+ *
+ * Un modulo e' un programma FOOL; esporta tutte le dichiarazioni del suo let principale, che
+ * occupano gli slot globali successivi a quelli dei moduli importati (i moduli che lo precedono
+ * nel link, vedi Linker). L'oggetto contiene:
+ *  - le esportazioni: per ogni slot nome, tipo e, per le classi, superclasse, layout (offset e
+ *    tipi di campi e metodi) ed etichette della dispatch table;
+ *  - il codice SVM, ancora in assembly: le etichette usate da push e salti sono i riferimenti
+ *    da rilocare, risolti dal linker quando assembla l'immagine (sono nel namespace
+ *    "m<modulo>x", quindi restano uniche tra moduli diversi);
+ *  - l'hash del sorgente e quello dell'interfaccia (le esportazioni), e per ogni modulo importato
+ *    l'hash dell'interfaccia con cui e' stato compilato: un modulo va ricompilato solo se cambia
+ *    il suo sorgente o l'interfaccia di un modulo che lo precede.
+ *
+ * Formato testuale, a righe:
+ *   fool-object 1
+ *   module <nome>
+ *   source <hash>
+ *   interface <hash>
+ *   import <modulo> <hash interfaccia>              uno per modulo importato, in ordine
+ *   class <id> <superclasse|-> <dispatch table...>   esportazioni, in ordine di slot
+ *   field <id> <offset> <tipo>                      membri della classe precedente
+ *   method <id> <offset> <tipo>
+ *   fun <id> <tipo>
+ *   var <id> <tipo>
+ *   init <n>   n righe: codice delle dichiarazioni (un valore per slot)
+ *   main <n>   n righe: codice dell'espressione (usato solo se il modulo e' l'ultimo)
+ *   code <n>   n righe: codice di funzioni e metodi
+ *   end
+ * I tipi sono int, bool, il nome di una classe o (t1,...,tn)->t.
+ */
+public class ObjectModule {
+
+	static final String MAGIC = "fool-object 1";
+
+	static class Import {
+		final String module;
+		final String interfaceHash;
+
+		Import(String module, String interfaceHash) {
+			this.module = module;
+			this.interfaceHash = interfaceHash;
+		}
+	}
+
+	static class Export {
+		final String kind; // class, fun o var
+		final String id;
+		final TypeNode type; // per le classi il ClassTypeNode
+		String superId; // solo classi
+		Map<String, STentry> virtualTable; // solo classi: tutti i membri, anche ereditati
+		List<String> dispatchTable; // solo classi
+
+		Export(String kind, String id, TypeNode type) {
+			this.kind = kind;
+			this.id = id;
+			this.type = type;
+		}
+	}
+
+	public final String name;
+	final String sourceHash;
+	final List<Import> imports;
+	final List<Export> exports;
+	final String init; // null se il modulo non ha dichiarazioni
+	final String main;
+	final List<String> code;
+	private String interfaceHash;
+
+	ObjectModule(String name, String sourceHash, List<Import> imports, List<Export> exports,
+			String init, String main, List<String> code) {
+		this.name = name;
+		this.sourceHash = sourceHash;
+		this.imports = imports;
+		this.exports = exports;
+		this.init = init;
+		this.main = main;
+		this.code = code;
+	}
+
+	// nomi dei moduli: finiscono nelle etichette, quindi solo lettere e cifre
+	public static boolean validName(String name) {
+		return name.matches("[a-zA-Z0-9]+");
+	}
+
+	static String labelNamespace(String module) {
+		return "m"+module+"x";
+	}
+
+	public String interfaceHash() {
+		if (interfaceHash == null) {
+			StringBuilder s = new StringBuilder();
+			writeExports(s);
+			interfaceHash = DeclarationCache.hash(s.toString());
+		}
+		return interfaceHash;
+	}
+
+	// l'oggetto e' aggiornato se e' stato compilato da questo sorgente e con questi moduli importati
+	public boolean upToDate(String source, List<ObjectModule> modules) {
+		return sourceHash.equals(DeclarationCache.hash(source)) && compiledAgainst(modules);
+	}
+
+	// compilato importando esattamente questi moduli, in quest'ordine e con queste interfacce
+	boolean compiledAgainst(List<ObjectModule> modules) {
+		if (imports.size() != modules.size()) return false;
+		for (int i = 0; i < modules.size(); i++) {
+			Import imp = imports.get(i);
+			if (!imp.module.equals(modules.get(i).name) || !imp.interfaceHash.equals(modules.get(i).interfaceHash())) return false;
+		}
+		return true;
+	}
+
+	public void write(Path file) throws IOException {
+		Files.writeString(file, toString(), StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder s = new StringBuilder();
+		s.append(MAGIC).append('\n');
+		s.append("module ").append(name).append('\n');
+		s.append("source ").append(sourceHash).append('\n');
+		s.append("interface ").append(interfaceHash()).append('\n');
+		for (Import imp : imports) s.append("import ").append(imp.module).append(' ').append(imp.interfaceHash).append('\n');
+		writeExports(s);
+		writeSection(s, "init", init == null ? List.of() : List.of(init.split("\n")));
+		writeSection(s, "main", List.of(main.split("\n")));
+		List<String> lines = new ArrayList<>();
+		for (String c : code) lines.addAll(List.of(c.split("\n")));
+		writeSection(s, "code", lines);
+		s.append("end\n");
+		return s.toString();
+	}
+
+	private void writeExports(StringBuilder s) {
+		for (Export e : exports) {
+			s.append(e.kind).append(' ').append(e.id);
+			if (e.virtualTable == null) {
+				s.append(' ').append(type(e.type)).append('\n');
+				continue;
+			}
+			s.append(' ').append(e.superId == null ? "-" : e.superId);
+			for (String label : e.dispatchTable) s.append(' ').append(label);
+			s.append('\n');
+			// membri in ordine di offset: campi (offset negativi) poi metodi
+			List<Map.Entry<String, STentry>> members = new ArrayList<>(e.virtualTable.entrySet());
+			members.sort(Comparator.comparingInt(m -> m.getValue().offset < 0 ? -m.getValue().offset - 1 : Integer.MAX_VALUE / 2 + m.getValue().offset));
+			for (Map.Entry<String, STentry> m : members)
+				s.append(m.getValue().offset < 0 ? "field " : "method ").append(m.getKey()).append(' ')
+						.append(m.getValue().offset).append(' ').append(type(m.getValue().type)).append('\n');
+		}
+	}
+
+	private static void writeSection(StringBuilder s, String section, List<String> lines) {
+		s.append(section).append(' ').append(lines.size()).append('\n');
+		for (String l : lines) s.append(l).append('\n');
+	}
+
+	public static ObjectModule read(Path file) throws IOException {
+		return parse(Files.readString(file, StandardCharsets.UTF_8));
+	}
+
+	// IllegalArgumentException se il testo non e' un file oggetto ben formato
+	public static ObjectModule parse(String text) {
+		List<String> lines = List.of(text.split("\n", -1));
+		int i = 0;
+		try {
+			if (!lines.get(i++).equals(MAGIC)) throw new IllegalArgumentException("Not a FOOL object file");
+			String name = field(lines.get(i++), "module");
+			String source = field(lines.get(i++), "source");
+			String iface = field(lines.get(i++), "interface");
+			List<Import> imports = new ArrayList<>();
+			List<Export> exports = new ArrayList<>();
+			Export cls = null;
+			String init = null, main = null;
+			List<String> code = null;
+			while (!lines.get(i).equals("end")) {
+				String[] w = lines.get(i++).split(" ");
+				switch (w[0]) {
+					case "import" -> imports.add(new Import(w[1], w[2]));
+					case "fun", "var" -> exports.add(new Export(w[0], w[1], parseType(w[2])));
+					case "class" -> {
+						cls = new Export("class", w[1], null);
+						cls.superId = w[2].equals("-") ? null : w[2];
+						cls.virtualTable = new HashMap<>();
+						cls.dispatchTable = new ArrayList<>(List.of(w).subList(3, w.length));
+						exports.add(cls);
+					}
+					case "field", "method" -> cls.virtualTable.put(w[1], new STentry(1, parseType(w[3]), Integer.parseInt(w[2])));
+					case "init", "main", "code" -> {
+						int n = Integer.parseInt(w[1]);
+						List<String> section = lines.subList(i, i+n);
+						i += n;
+						if (w[0].equals("code")) code = List.of(String.join("\n", section));
+						else if (w[0].equals("main")) main = String.join("\n", section);
+						else init = n == 0 ? null : String.join("\n", section);
+					}
+					default -> throw new IllegalArgumentException("Bad line "+i+" in object file: "+lines.get(i-1));
+				}
+			}
+			if (main == null || code == null) throw new IllegalArgumentException("Incomplete object file");
+			List<Export> resolved = new ArrayList<>();
+			for (Export e : exports) resolved.add(e.virtualTable == null ? e : classExport(e));
+			ObjectModule module = new ObjectModule(name, source, imports, resolved, init, main, code);
+			if (!module.interfaceHash().equals(iface)) throw new IllegalArgumentException("Corrupted object file (interface hash)");
+			return module;
+		} catch (IndexOutOfBoundsException | NumberFormatException | NullPointerException e) {
+			throw new IllegalArgumentException("Bad object file at line "+i, e);
+		}
+	}
+
+	// ricostruisce il ClassTypeNode dalla virtual table
+	private static Export classExport(Export e) {
+		List<TypeNode> fields = new ArrayList<>();
+		List<ArrowTypeNode> methods = new ArrayList<>();
+		for (STentry m : e.virtualTable.values()) {
+			if (m.offset < 0) while (fields.size() < -m.offset) fields.add(null);
+			else while (methods.size() <= m.offset) methods.add(null);
+		}
+		for (STentry m : e.virtualTable.values()) {
+			if (m.offset < 0) fields.set(-m.offset-1, m.type);
+			else methods.set(m.offset, (ArrowTypeNode) m.type);
+		}
+		Export c = new Export("class", e.id, new ClassTypeNode(fields, methods));
+		c.superId = e.superId;
+		c.virtualTable = e.virtualTable;
+		c.dispatchTable = e.dispatchTable;
+		return c;
+	}
+
+	private static String field(String line, String key) {
+		if (!line.startsWith(key+" ")) throw new IllegalArgumentException("Expected "+key+" in object file");
+		return line.substring(key.length()+1);
+	}
+
+	static String type(TypeNode t) {
+		if (t instanceof IntTypeNode) return "int";
+		if (t instanceof BoolTypeNode) return "bool";
+		if (t instanceof RefTypeNode r) return r.id;
+		ArrowTypeNode a = (ArrowTypeNode) t;
+		StringJoiner pars = new StringJoiner(",", "(", ")->");
+		for (TypeNode p : a.parlist) pars.add(type(p));
+		return pars+type(a.ret);
+	}
+
+	static TypeNode parseType(String s) {
+		if (s.equals("int")) return TypeFactory.intType();
+		if (s.equals("bool")) return TypeFactory.boolType();
+		if (!s.startsWith("(")) return TypeFactory.refType(s);
+		int close = s.indexOf(")->"); // i parametri non sono funzionali
+		List<TypeNode> pars = new ArrayList<>();
+		if (close > 1) for (String p : s.substring(1, close).split(",")) pars.add(parseType(p));
+		return TypeFactory.arrowType(pars, parseType(s.substring(close+3)));
+	}
+
+}
@@ -7,7 +7,33 @@ import compiler.lib.*;
 
 public class SymbolTableASTVisitor extends BaseASTVisitor<Void,VoidException> {
 	
-	private List<Map<String, STentry>> symTable = new ArrayList<>();
+	/**
+	 * Symbol table indicizzata per simbolo (intero assegnato da ASTGenerationSTVisitor):
+	 * bindings[sym] e' la pila delle dichiarazioni visibili di sym, in cima la piu' interna.
+	 * Ogni scope ricorda in declared i simboli che ha dichiarato per toglierli in uscita,
+	 * quindi lookup, ingresso e uscita non cercano piu' livello per livello.
+	 */
+	private static class Binding {
+		STentry entry;
+		final int nl;
+		final Binding shadowed; // dichiarazione nascosta da questa (scope piu' esterno)
+
+		Binding(STentry entry, int nl, Binding shadowed) {
+			this.entry = entry;
+			this.nl = nl;
+			this.shadowed = shadowed;
+		}
+	}
+
+	private Binding[] bindings = new Binding[64];
+	private int[] declared = new int[64]; // simboli dichiarati negli scope aperti, in ordine
+	private int declaredTop = 0;
+	private int[] scopeStart = new int[8]; // per ogni nesting level aperto: inizio in declared
+
+	// virtual table della classe che si sta visitando: lo scope dei suoi membri (campi e metodi)
+	private Map<String, STentry> classScope;
+	private int classLevel;
+
 	private int nestingLevel=0; // current nesting level
 	private int decOffset=-2; // counter for offset of local declarations at current nesting level 
 	int stErrors=0;
@@ -17,29 +43,114 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void,VoidException> {
 	 */
 	private final Map<String, Map<String, STentry>> classTable = new HashMap<>(); //dove HashMap<String, STentry> è la VirtualTable della classe con id String
 
-	SymbolTableASTVisitor() {}
-	SymbolTableASTVisitor(boolean debug) {super(debug);} // enables print for debugging
+	private final CompilationContext ctx;
+
+	SymbolTableASTVisitor(CompilationContext ctx) {this.ctx = ctx;}
+	SymbolTableASTVisitor(CompilationContext ctx, boolean debug) {super(debug); this.ctx = ctx;} // enables print for debugging
 
-	private STentry stLookup(String id) {
-		int j = nestingLevel;
-		STentry entry = null;
-		while (j >= 0 && entry == null) 
-			entry = symTable.get(j--).get(id);	
-		return entry;
+	private STentry stLookup(int sym, String id) {
+		Binding b = sym < bindings.length ? bindings[sym] : null;
+		//dentro una classe i membri nascondono le dichiarazioni dei livelli piu' esterni
+		if (classScope != null && (b == null || b.nl < classLevel)) {
+			STentry member = classScope.get(id);
+			if (member != null) return member;
+		}
+		return b == null ? null : b.entry;
+	}
+
+	// dichiara sym nello scope corrente; false se vi era gia' dichiarato (la entry viene sostituita)
+	private boolean stDeclare(int sym, STentry entry) {
+		if (sym >= bindings.length) bindings = Arrays.copyOf(bindings, Math.max(sym+1, 2*bindings.length));
+		Binding b = bindings[sym];
+		if (b != null && b.nl == nestingLevel) {
+			b.entry = entry;
+			return false;
+		}
+		bindings[sym] = new Binding(entry, nestingLevel, b);
+		if (declaredTop == declared.length) declared = Arrays.copyOf(declared, 2*declared.length);
+		declared[declaredTop++] = sym;
+		return true;
+	}
+
+	private void openScope() {
+		if (nestingLevel >= scopeStart.length) scopeStart = Arrays.copyOf(scopeStart, 2*scopeStart.length);
+		scopeStart[nestingLevel] = declaredTop;
+	}
+
+	private void closeScope() {
+		while (declaredTop > scopeStart[nestingLevel]) {
+			int sym = declared[--declaredTop];
+			bindings[sym] = bindings[sym].shadowed;
+		}
 	}
 
 	@Override
 	public Void visitNode(ProgLetInNode n) {
 		if (print) printNode(n);
-		Map<String, STentry> hm = new HashMap<>();
-		symTable.add(hm);
-	    for (Node dec : n.declist) visit(dec);
-		//se n.exp non c'è qui si rompe
-		visit(n.exp);
-		symTable.remove(0);
+		beginProgram();
+		for (Node dec : n.declist) declaration(dec);
+		endProgram(n.exp);
 		return null;
 	}
 
+	// il let principale si puo' visitare anche a pezzi (FoolCompiler, con FlatAST):
+	// beginProgram, declaration per ogni dichiarazione in ordine, endProgram con l'espressione
+	void beginProgram() {
+		openScope();
+	}
+
+	void declaration(Node dec) {
+		DeclarationCache.Entry cached = ctx.declarations == null ? null : ctx.declarations.reused(dec);
+		if (cached != null) {
+			restore(cached);
+			return;
+		}
+		visit(dec);
+		DeclarationCache.Entry fresh = ctx.declarations == null ? null : ctx.declarations.fresh(dec);
+		if (fresh != null) {
+			fresh.entry = bindings[fresh.sym].entry;
+			if (dec instanceof ClassNode c) fresh.virtualTable = classTable.get(c.id);
+		}
+	}
+
+	void endProgram(Node exp) {
+		//se exp non c'è qui si rompe
+		visit(exp);
+		closeScope();
+		ctx.typeRels.buildHierarchy(); // tutte le classi sono note: indice per isSubtype/lowestCommonAncestor
+	}
+
+	// dichiarazione globale di un modulo importato (FoolCompiler.compileModule): occupa il suo slot
+	// nello scope globale come se fosse dichiarata prima delle dichiarazioni del let principale
+	void declareImport(int sym, String id, STentry entry, Map<String, STentry> virtualTable, String superId) {
+		decOffset--;
+		if (virtualTable != null) {
+			if (superId != null) ctx.typeRels.addSuperType(id, superId);
+			classTable.put(id, virtualTable);
+		}
+		stDeclare(sym, entry);
+	}
+
+	// STentry globale di sym e virtual table della classe id, prima di endProgram (esportazioni dei moduli)
+	STentry global(int sym) {
+		return bindings[sym].entry;
+	}
+
+	Map<String, STentry> virtualTable(String id) {
+		return classTable.get(id);
+	}
+
+	// dichiarazione riusata da una compilazione precedente (DeclarationCache): se ne ripristinano
+	// gli effetti sullo scope globale senza rivisitarla
+	private void restore(DeclarationCache.Entry cached) {
+		decOffset--;
+		if (cached.node instanceof ClassNode c) {
+			if (c.superId != null) ctx.typeRels.addSuperType(c.id, c.superId);
+			classTable.put(c.id, cached.virtualTable);
+		}
+		stDeclare(cached.sym, cached.entry);
+	}
+
 	@Override
 	public Void visitNode(ProgNode n) {
 		if (print) printNode(n);
@@ -51,32 +162,31 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void,VoidException> {
 	public Void visitNode(FunNode n) {
 		if (print) printNode(n);
 
-		Map<String, STentry> hm = symTable.get(nestingLevel);
 		List<TypeNode> parTypes = new ArrayList<>();  
 		for (ParNode par : n.parlist) parTypes.add(par.getType()); 
-		STentry entry = new STentry(nestingLevel, new ArrowTypeNode(parTypes,n.retType),decOffset--);
+		STentry entry = new STentry(nestingLevel, TypeFactory.arrowType(parTypes,n.retType),decOffset--);
 		//inserimento di ID nella symtable
-		if (hm.put(n.id, entry) != null) {
-			System.out.println("Fun id " + n.id + " at line "+ n.getLine() +" already declared");
+		if (!stDeclare(n.sym, entry)) {
+			ctx.report("Fun id " + n.id + " at line "+ n.getLine() +" already declared");
 			stErrors++;
 		} 
-		//creare una nuova hashmap per la symTable
+		//aprire un nuovo scope
 		nestingLevel++;
-		Map<String, STentry> hmn = new HashMap<>();
-		symTable.add(hmn);
+		openScope();
 		int prevNLDecOffset=decOffset; // stores counter for offset of declarations at previous nesting level 
 		decOffset=-2;
 		
 		int parOffset=1;
 		for (ParNode par : n.parlist)
-			if (hmn.put(par.id, new STentry(nestingLevel,par.getType(),parOffset++)) != null) {
-				System.out.println("Par id " + par.id + " at line "+ n.getLine() +" already declared");
+			if (!stDeclare(par.sym, new STentry(nestingLevel,par.getType(),parOffset++))) {
+				ctx.report("Par id " + par.id + " at line "+ n.getLine() +" already declared");
 				stErrors++;
 			}
 		for (Node dec : n.declist) visit(dec);
 		visit(n.exp);
-		//rimuovere la hashmap corrente poiche' esco dallo scope               
-		symTable.remove(nestingLevel--);
+		//togliere le dichiarazioni dello scope corrente poiche' esco dallo scope
+		closeScope();
+		nestingLevel--;
 		decOffset=prevNLDecOffset; // restores counter for offset of declarations at previous nesting level
 
 		return null;
@@ -86,11 +196,11 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void,VoidException> {
 	public Void visitNode(VarNode n) {
 		if (print) printNode(n);
 		visit(n.exp);
-		Map<String, STentry> hm = symTable.get(nestingLevel);
 		STentry entry = new STentry(nestingLevel,n.getType(),decOffset--);
+		n.entry = entry;
 		//inserimento di ID nella symtable
-		if (hm.put(n.id, entry) != null) {
-			System.out.println("Var id " + n.id + " at line "+ n.getLine() +" already declared");
+		if (!stDeclare(n.sym, entry)) {
+			ctx.report("Var id " + n.id + " at line "+ n.getLine() +" already declared");
 			stErrors++;
 		}
 		return null;
@@ -194,9 +304,9 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void,VoidException> {
 	@Override
 	public Void visitNode(CallNode n) {
 		if (print) printNode(n);
-		STentry entry = stLookup(n.id);
+		STentry entry = stLookup(n.sym, n.id);
 		if (entry == null) {
-			System.out.println("Fun id " + n.id + " at line "+ n.getLine() + " not declared");
+			ctx.report("Fun id " + n.id + " at line "+ n.getLine() + " not declared");
 			stErrors++;
 		} else {
 			n.entry = entry;
@@ -209,9 +319,9 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void,VoidException> {
 	@Override
 	public Void visitNode(IdNode n) {
 		if (print) printNode(n);
-		STentry entry = stLookup(n.id);
+		STentry entry = stLookup(n.sym, n.id);
 		if (entry == null) {
-			System.out.println("Var or Par id " + n.id + " at line "+ n.getLine() + " not declared");
+			ctx.report("Var or Par id " + n.id + " at line "+ n.getLine() + " not declared");
 			stErrors++;
 		} else {
 			n.entry = entry;
@@ -280,42 +390,44 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void,VoidException> {
 	public Void visitNode(ClassNode n) throws VoidException { //senza ereditarietà
 		if (print) printNode(n);
 
-		Map<String, STentry> hm = symTable.get(nestingLevel);
 		HashSet<String> thisClassAllIds = new HashSet<>();
 
 		//se è presente una superclasse reperisco la sua classtable
 		//ed estrapolo le informazioni (tipi parametri e tipo ritorno metodi) da aggiungere a quelle
 		//della classe corrente
-		Map<String,STentry> superClassTable = new HashMap<>();
-		List<TypeNode> superTypeFields = new ArrayList<>();
-		List<ArrowTypeNode> superMethodsArrowTypes = new ArrayList<>();
+		//virtual table e ClassTypeNode della sottoclasse condividono quelli della superclasse
+		//(strutture a strati): si memorizzano solo i membri dichiarati o ridefiniti
+		ClassTypeNode classType = new ClassTypeNode(new ArrayList<>(), new ArrayList<>());
+		Map<String, STentry> vt = new HashMap<>();
 		if (n.superId!=null) {
-			n.superEntry = stLookup(n.superId);
+			n.superEntry = stLookup(n.superSym, n.superId);
 			ClassTypeNode superClassTypeNode = (ClassTypeNode) n.superEntry.type;
-			superTypeFields.addAll(superClassTypeNode.allFields);
-			superMethodsArrowTypes.addAll(superClassTypeNode.allMethods);
-
-			superClassTable = classTable.get(n.superId);
+			classType = new ClassTypeNode(superClassTypeNode);
+			vt = new OverlayMap<>(classTable.get(n.superId));
+			ctx.typeRels.addSuperType(n.id, n.superId);
 		}
+		int superFields = classType.allFields.size(), superMethods = classType.allMethods.size();
 
 		//classtype è aggiornato in seguito (seguo le slide del prof)
-		STentry entry = new STentry(nestingLevel, new ClassTypeNode(superTypeFields,superMethodsArrowTypes),decOffset--);
+		STentry entry = new STentry(nestingLevel, classType, decOffset--);
 
 		//creazione virtual table
 		nestingLevel++;
-        //copio la virtualTable della superclasse (se non esiste rimane vuota)
-        Map<String, STentry> vt = new HashMap<>(superClassTable);
-		symTable.add(vt);
+		openScope();
+		Map<String, STentry> prevClassScope = classScope;
+		int prevClassLevel = classLevel;
+		classScope = vt;
+		classLevel = nestingLevel;
 		int prevNLDecOffset=decOffset; // stores counter for offset of declarations at previous nesting level
-		decOffset=superMethodsArrowTypes.isEmpty()?0:superMethodsArrowTypes.size();
+		decOffset=superMethods;
 
-		int fieldOffset= superTypeFields.isEmpty() ?-1:(-superTypeFields.size()-1);
+		int fieldOffset=-superFields-1;
 
 		for (FieldNode field : n.fields) {
 			field.offset = fieldOffset--;
 			//controllo che il campo non sia già presente all'interno di questa classe
 			if(!thisClassAllIds.add(field.id)) {
-				System.out.println("Field id " + field.id + " at line " + n.getLine() + " already declared");
+				ctx.report("Field id " + field.id + " at line " + n.getLine() + " already declared");
 				stErrors++;
 			}
 			//inserisco il campo in VirtualTable curando il fatto che se presente nella superclasse devo fare override
@@ -335,15 +447,15 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void,VoidException> {
 			meth.offset = decOffset++;
 			//controllo che il metodo non sia già presente all'interno di questa classe
 			if(!thisClassAllIds.add(meth.id)) {
-				System.out.println("Method id " + meth.id + " at line " + n.getLine() + " already declared");
+				ctx.report("Method id " + meth.id + " at line " + n.getLine() + " already declared");
 				stErrors++;
 			}
 
 			//inserisco i metodi in virtual table curando il fatto che se presente nella superclasse devo fare override
 			//mantenedo il precedente offset
 			List<TypeNode> methodParsTypes = new ArrayList<>();
-			ArrowTypeNode methodType = new ArrowTypeNode(methodParsTypes,meth.retType);
 			for (ParNode par : meth.parlist) methodParsTypes.add(par.getType());
+			ArrowTypeNode methodType = TypeFactory.arrowType(methodParsTypes,meth.retType);
 			if(vt.putIfAbsent(meth.id, new STentry(nestingLevel, methodType, meth.offset))!=null){
 				decOffset--;
 				meth.offset = vt.get(meth.id).offset;
@@ -358,13 +470,16 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void,VoidException> {
 		}
 
 
-		//rimuovere la hashmap corrente poiche' esco dallo scope
-		symTable.remove(nestingLevel--);
+		//esco dallo scope della classe
+		closeScope();
+		nestingLevel--;
+		classScope = prevClassScope;
+		classLevel = prevClassLevel;
 		decOffset=prevNLDecOffset; // restores counter for offset of declarations at previous nesting level
 
 		//inserimento della classe nella symtable
-		if (hm.put(n.id, entry) != null) {
-			System.out.println("Class id " + n.id + " at line "+ n.getLine() +" already declared");
+		if (!stDeclare(n.sym, entry)) {
+			ctx.report("Class id " + n.id + " at line "+ n.getLine() +" already declared");
 			stErrors++;
 		}
 		
@@ -383,24 +498,24 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void,VoidException> {
 	public Void visitNode(MethodNode n) throws VoidException { //dovrebbe essere molto simile a visit funNode
 		if (print) printNode(n);
 
-		//creare una nuova hashmap per la symTable
+		//aprire un nuovo scope
 		nestingLevel++;
-		Map<String, STentry> hmn = new HashMap<>();
-		symTable.add(hmn);
+		openScope();
 		//TODO controlla se puoi rimuovere decOffset. ty.
 		int prevNLDecOffset=decOffset; // stores counter for offset of declarations at previous nesting level
 		decOffset=-2;
 
 		int parOffset=1;
 		for (ParNode par : n.parlist)
-			if (hmn.put(par.id, new STentry(nestingLevel,par.getType(),parOffset++)) != null) {
-				System.out.println("Par id " + par.id + " at line "+ n.getLine() +" already declared");
+			if (!stDeclare(par.sym, new STentry(nestingLevel,par.getType(),parOffset++))) {
+				ctx.report("Par id " + par.id + " at line "+ n.getLine() +" already declared");
 				stErrors++;
 			}
 		for (Node dec : n.declist) visit(dec);
 		visit(n.exp);
-		//rimuovere la hashmap corrente poiche' esco dallo scope
-		symTable.remove(nestingLevel--);
+		//togliere le dichiarazioni dello scope corrente poiche' esco dallo scope
+		closeScope();
+		nestingLevel--;
 		decOffset=prevNLDecOffset; // restores counter for offset of declarations at previous nesting level
 
 		return null;
@@ -409,12 +524,12 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void,VoidException> {
 	@Override
 	public Void visitNode(NewNode n) {
 		if (print) printNode(n);
-		STentry entry = stLookup(n.className);
+		STentry entry = stLookup(n.classSym, n.className);
 		if (entry == null) {
-			System.out.println("Class id " + n.className + " at line "+ n.getLine() + " not declared");
+			ctx.report("Class id " + n.className + " at line "+ n.getLine() + " not declared");
 			stErrors++;
 		} if (!classTable.containsKey(n.className)) {
-			System.out.println("Id " + n.className + " at line "+ n.getLine() + " not a class");
+			ctx.report("Id " + n.className + " at line "+ n.getLine() + " not a class");
 			stErrors++;
 		}else {
 			n.classEntry = entry;
@@ -427,10 +542,10 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void,VoidException> {
 	@Override
 	public Void visitNode(ClassCallNode n) {
 		if (print) printNode(n);
-		STentry entry = stLookup(n.classId);
+		STentry entry = stLookup(n.classSym, n.classId);
 
 		if (entry == null) {
-			System.out.println("Object id " + n.classId + " at line "+ n.getLine() + " not declared");
+			ctx.report("Object id " + n.classId + " at line "+ n.getLine() + " not declared");
 			stErrors++;
 		} else {
 			n.classEntry = entry;
@@ -445,13 +560,13 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void,VoidException> {
 				STentry methodEntry = hm.get(n.methodId);
 				//se non lo trovo errore
 				if (methodEntry == null) {
-					System.out.println("Object id " + n.classId + " at line " + n.getLine() + " has no method " + n.methodId);
+					ctx.report("Object id " + n.classId + " at line " + n.getLine() + " has no method " + n.methodId);
 					this.stErrors++;
 				} else {//se lo trovo lo assegno
 					n.methodEntry = methodEntry;
 				}
 			} else {//se ID1 non è reftype errore
-				System.out.println("Object id " + n.classId + " at line " + n.getLine() + " is not a RefTypeNode");
+				ctx.report("Object id " + n.classId + " at line " + n.getLine() + " is not a RefTypeNode");
 				this.stErrors++;
 			}
 
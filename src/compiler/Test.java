@@ -1,8 +1,11 @@
 package compiler;
 
 import java.io.*;
+import java.nio.file.Paths;
+import java.util.Map;
 import org.antlr.v4.runtime.*;
 import org.antlr.v4.runtime.tree.*;
+import compiler.ir.*;
 import compiler.lib.*;
 import compiler.exc.*;
 import svm.*;
@@ -12,6 +15,15 @@ public class Test {
    			
     	String fileName = "prova.fool";
 
+    	// -Drestore=<file>: riprende l'esecuzione da uno snapshot salvato con -Dcheckpoint=<file>
+    	if (System.getProperty("restore") != null) {
+    		ExecuteVM.restore(Paths.get(System.getProperty("restore"))).cpu();
+    		return;
+    	}
+    	String checkpoint = System.getProperty("checkpoint");
+
+    	// ogni fase e' anche un evento JFR (fool.CompilerPhase), gratuito se non si registra
+    	PhaseEvent phase = PhaseEvent.start("lex/parse", fileName);
     	CharStream chars = CharStreams.fromFileName(fileName);
     	FOOLLexer lexer = new FOOLLexer(chars);
     	CommonTokenStream tokens = new CommonTokenStream(lexer);
@@ -19,17 +31,23 @@ public class Test {
 
     	System.out.println("Generating ST via lexer and parser.");
     	ParseTree st = parser.prog();
+    	phase.end(lexer.lexicalErrors+parser.getNumberOfSyntaxErrors());
     	System.out.println("You had "+lexer.lexicalErrors+" lexical errors and "+
     		parser.getNumberOfSyntaxErrors()+" syntax errors.\n");
 
     	System.out.println("Generating AST.");
+    	phase = PhaseEvent.start("ast generation", fileName);
     	ASTGenerationSTVisitor visitor = new ASTGenerationSTVisitor(); // use true to visualize the ST
     	Node ast = visitor.visit(st);
+    	phase.end(0);
     	System.out.println("");
 
+    	CompilationContext ctx = new CompilationContext(); // stato di questa compilazione
     	System.out.println("Enriching AST via symbol table.");
-    	SymbolTableASTVisitor symtableVisitor = new SymbolTableASTVisitor();
+    	SymbolTableASTVisitor symtableVisitor = new SymbolTableASTVisitor(ctx);
+    	phase = PhaseEvent.start("symbol table", fileName);
     	symtableVisitor.visit(ast);
+    	phase.end(symtableVisitor.stErrors);
     	System.out.println("You had "+symtableVisitor.stErrors+" symbol table errors.\n");
 
     	System.out.println("Visualizing Enriched AST.");
@@ -37,45 +55,107 @@ public class Test {
     	System.out.println("");
 
     	System.out.println("Checking Types.");
+    	phase = PhaseEvent.start("type checking", fileName);
     	try {
-    		TypeCheckEASTVisitor typeCheckVisitor = new TypeCheckEASTVisitor();
+    		TypeCheckEASTVisitor typeCheckVisitor = new TypeCheckEASTVisitor(ctx);
     		TypeNode mainType = typeCheckVisitor.visit(ast);
     		System.out.print("Type of main program expression is: ");
     		new PrintEASTVisitor().visit(mainType);
     	} catch (IncomplException e) {    		
     		System.out.println("Could not determine main program expression type due to errors detected before type checking.");
     	} catch (TypeException e) {
+    		ctx.typeErrors++;
     		System.out.println("Type checking error in main program expression: "+e.text); 
     	}       	
-    	System.out.println("You had "+FOOLlib.typeErrors+" type checking errors.\n");
+    	phase.end(ctx.typeErrors);
+    	System.out.println("You had "+ctx.typeErrors+" type checking errors.\n");
 
-    	int frontEndErrors = lexer.lexicalErrors+parser.getNumberOfSyntaxErrors()+symtableVisitor.stErrors+FOOLlib.typeErrors;
+    	int frontEndErrors = lexer.lexicalErrors+parser.getNumberOfSyntaxErrors()+symtableVisitor.stErrors+ctx.typeErrors;
 		System.out.println("You had a total of "+frontEndErrors+" front-end errors.\n");
 		
 		if ( frontEndErrors > 0) System.exit(1);   
 
     	System.out.println("Generating code.");
-    	String code = new CodeGenerationASTVisitor().visit(ast);        
+    	phase = PhaseEvent.start("code generation", fileName);
+    	String code;
+    	boolean memo = System.getProperty("memo") != null; // -Dmemo memoizza le funzioni pure ricorsive (passa dalla IR)
+    	if (System.getProperty("opt") != null || memo) { // -Dopt=<livello> genera il codice passando dalla IR ottimizzata
+    		int level = Integer.parseInt(System.getProperty("opt", "0"));
+    		IrProgram ir = new IRGenerationASTVisitor(ctx, FoolCompiler.frameObjects(ast, level), checkpoint != null).program(ast);
+    		PassManager passes = new PassManager(level, memo);
+    		passes.run(ir);
+    		System.out.println("IR optimization passes:");
+    		passes.printSummary(System.out);
+    		code = Lowering.lower(ir, ctx::freshLabel, ctx::freshNewLabel);
+    	} else code = new CodeGenerationASTVisitor(ctx, false, checkpoint != null).visit(ast);        
+    	phase.end(0);
+    	if (System.getProperty("peephole") != null) { // -Dpeephole ottimizza l'asm prima di scriverlo
+    		PeepholeOptimizer optimizer = new PeepholeOptimizer();
+    		code = optimizer.optimize(code);
+    		System.out.println("Peephole optimization:");
+    		optimizer.printSummary(System.out);
+    	}
     	BufferedWriter out = new BufferedWriter(new FileWriter(fileName+".asm")); 
     	out.write(code);
     	out.close(); 
     	System.out.println("");
 
     	System.out.println("Assembling generated code.");
+    	phase = PhaseEvent.start("assembly", fileName);
     	CharStream charsASM = CharStreams.fromFileName(fileName+".asm");
     	SVMLexer lexerASM = new SVMLexer(charsASM);
     	CommonTokenStream tokensASM = new CommonTokenStream(lexerASM);
     	SVMParser parserASM = new SVMParser(tokensASM);
 
     	parserASM.assembly();
+    	phase.end(lexerASM.lexicalErrors+parserASM.getNumberOfSyntaxErrors());
 
     	// needed only for debug
     	System.out.println("You had: "+lexerASM.lexicalErrors+" lexical errors and "+parserASM.getNumberOfSyntaxErrors()+" syntax errors.\n");
     	if (lexerASM.lexicalErrors+parserASM.getNumberOfSyntaxErrors()>0) System.exit(1);
 
     	System.out.println("Running generated code via Stack Virtual Machine.");
+    	phase = PhaseEvent.start("execution", fileName);
     	ExecuteVM vm = new ExecuteVM(parserASM.code);
-    	vm.cpu();
+    	if (checkpoint != null) vm.setCheckpointFile(Paths.get(checkpoint));
+    	if (JfrListener.isRecording()) // eventi JFR della SVM (fool.VMExecution, fool.VMFrame)
+    		vm.addListener(new JfrListener(vm, new CodeMap(parserASM.labelDef)));
+    	Profiler profiler = null;
+    	if (System.getProperty("profile") != null) { // -Dprofile abilita il profiling della SVM
+    		profiler = new Profiler(new CodeMap(parserASM.labelDef), parserASM.code.length);
+    		vm.addListener(profiler);
+    	}
+    	SamplingProfiler sampler = null;
+    	if (System.getProperty("sample") != null) { // -Dsample abilita il campionamento (flame graph)
+    		sampler = new SamplingProfiler(new CodeMap(parserASM.labelDef, ctx.getArities()), 100);
+    		sampler.start(vm);
+    	}
+    	try {
+    		vm.cpu();
+    	} finally {
+    		if (sampler != null) sampler.stop(); // anche se l'esecuzione fallisce
+    	}
+    	phase.end(0);
+
+    	if (profiler != null) {
+    		System.out.println("\nProfile (written to "+fileName+".profile.json):");
+    		profiler.printSummary(System.out);
+    		BufferedWriter profOut = new BufferedWriter(new FileWriter(fileName+".profile.json"));
+    		profiler.writeJson(profOut);
+    		profOut.close();
+    	}
+    	if (sampler != null) {
+    		System.out.println("\n"+sampler.sampleCount()+" samples written to "+fileName+".folded");
+    		BufferedWriter foldOut = new BufferedWriter(new FileWriter(fileName+".folded"));
+    		sampler.writeCollapsed(foldOut);
+    		foldOut.close();
+    	}
+    	if (!vm.getMemoTables().isEmpty()) {
+    		System.out.println("\nMemoization:");
+    		CodeMap map = new CodeMap(parserASM.labelDef);
+    		for (Map.Entry<Integer, MemoTable> t : vm.getMemoTables().entrySet())
+    			System.out.println("  "+map.functionName(map.functionAt(t.getKey()))+": "+t.getValue());
+    	}
 
     }
 }
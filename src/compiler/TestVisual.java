@@ -34,8 +34,9 @@ public class TestVisual {
         Node ast = visitor.visit(st);
         System.out.println("");
 
+        CompilationContext ctx = new CompilationContext(); // stato di questa compilazione
         System.out.println("Enriching AST via symbol table.");
-        SymbolTableASTVisitor symtableVisitor = new SymbolTableASTVisitor(true);
+        SymbolTableASTVisitor symtableVisitor = new SymbolTableASTVisitor(ctx, true);
         symtableVisitor.visit(ast);
         System.out.println("You had "+symtableVisitor.stErrors+" symbol table errors.\n");
 
@@ -45,24 +46,25 @@ public class TestVisual {
 
         System.out.println("Checking Types.");
         try {
-            TypeCheckEASTVisitor typeCheckVisitor = new TypeCheckEASTVisitor(true);
+            TypeCheckEASTVisitor typeCheckVisitor = new TypeCheckEASTVisitor(ctx, true);
             TypeNode mainType = typeCheckVisitor.visit(ast);
             System.out.print("Type of main program expression is: ");
             new PrintEASTVisitor().visit(mainType);
         } catch (IncomplException e) {
             System.out.println("Could not determine main program expression type due to errors detected before type checking.");
         } catch (TypeException e) {
+            ctx.typeErrors++;
             System.out.println("Type checking error in main program expression: "+e.text);
         }
-        System.out.println("You had "+FOOLlib.typeErrors+" type checking errors.\n");
+        System.out.println("You had "+ctx.typeErrors+" type checking errors.\n");
 
-        int frontEndErrors = lexer.lexicalErrors+parser.getNumberOfSyntaxErrors()+symtableVisitor.stErrors+FOOLlib.typeErrors;
+        int frontEndErrors = lexer.lexicalErrors+parser.getNumberOfSyntaxErrors()+symtableVisitor.stErrors+ctx.typeErrors;
         System.out.println("You had a total of "+frontEndErrors+" front-end errors.\n");
 
         if ( frontEndErrors > 0) System.exit(1);
 
         System.out.println("Generating code.");
-        String code = new CodeGenerationASTVisitor(true).visit(ast);
+        String code = new CodeGenerationASTVisitor(ctx, true).visit(ast);
         BufferedWriter out = new BufferedWriter(new FileWriter(fileName+".asm"));
         out.write(code);
         out.close();
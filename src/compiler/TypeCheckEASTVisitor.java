@@ -4,10 +4,15 @@ import compiler.AST.*;
 import compiler.exc.*;
 import compiler.lib.*;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 import java.util.stream.Collectors;
 
-import static compiler.TypeRels.*;
+import static compiler.TypeFactory.*;
 
 //visitNode(n) fa il type checking di un Node n e ritorna:
 //- per una espressione, il suo tipo (oggetto BoolTypeNode o IntTypeNode)
@@ -17,8 +22,24 @@ import static compiler.TypeRels.*;
 //visitSTentry(s) ritorna, per una STentry s, il tipo contenuto al suo interno
 public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode,TypeException> {
 
-	TypeCheckEASTVisitor() { super(true); } // enables incomplete tree exceptions 
-	TypeCheckEASTVisitor(boolean debug) { super(true,debug); } // enables print for debugging
+	private final CompilationContext ctx;
+	private boolean parallel; // dichiarazioni del let principale e metodi controllati in parallelo (fork-join)
+
+	TypeCheckEASTVisitor(CompilationContext ctx) { super(true); this.ctx = ctx; } // enables incomplete tree exceptions 
+	TypeCheckEASTVisitor(CompilationContext ctx, boolean debug) { super(true,debug); this.ctx = ctx; } // enables print for debugging
+	TypeCheckEASTVisitor(CompilationContext ctx, boolean debug, boolean parallel) {
+		super(true,debug);
+		this.ctx = ctx;
+		this.parallel = parallel && !debug; // le stampe di debug si mescolerebbero
+	}
+
+	private boolean isSubtype(TypeNode a, TypeNode b) {
+		return ctx.typeRels.isSubtype(a, b);
+	}
+
+	private TypeNode lowestCommonAncestor(TypeNode a, TypeNode b) {
+		return ctx.typeRels.lowestCommonAncestor(a, b);
+	}
 
 	//checks that a type object is visitable (not incomplete) 
 	private TypeNode ckvisit(TypeNode t) throws TypeException {
@@ -29,16 +50,67 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode,TypeException
 	@Override
 	public TypeNode visitNode(ProgLetInNode n) throws TypeException {
 		if (print) printNode(n);
-		for (Node dec : n.declist)
-			try {
-				visit(dec);
-			} catch (IncomplException e) { 
-			} catch (TypeException e) {
-				System.out.println("Type checking error in a declaration: " + e.text);
-			}
+		if (parallel) checkAll(n.declist, "Type checking error in a declaration: ");
+		else for (Node dec : n.declist) declaration(dec);
 		return visit(n.exp);
 	}
 
+	// dichiarazione del let principale (usata anche da FoolCompiler per visitare il let a pezzi)
+	void declaration(Node dec) {
+		if (ctx.declarations == null || ctx.declarations.reused(dec) == null) // riusate: gia' controllate
+			check(dec, "Type checking error in a declaration: ");
+	}
+
+	private void check(Node dec, String errorPrefix) {
+		try {
+			visit(dec);
+		} catch (IncomplException e) { 
+		} catch (TypeException e) {
+			ctx.typeErrors++;
+			ctx.report(errorPrefix + e.text);
+		}
+	}
+
+	// controlla le dichiarazioni in parallelo, ognuna con un proprio visitor e un proprio contesto
+	// (CompilationContext.branch); errori e messaggi sono poi riportati nell'ordine delle
+	// dichiarazioni, quindi il risultato e' lo stesso del controllo sequenziale
+	private void checkAll(List<? extends Node> decs, String errorPrefix) {
+		List<Check> checks = new ArrayList<>();
+		for (Node dec : decs)
+			if (ctx.declarations == null || ctx.declarations.reused(dec) == null)
+				checks.add(new Check(dec, errorPrefix));
+		if (ForkJoinTask.inForkJoinPool()) ForkJoinTask.invokeAll(checks);
+		else ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+			@Override
+			protected void compute() {
+				invokeAll(checks);
+			}
+		});
+		for (Check c : checks) {
+			ctx.typeErrors += c.context.typeErrors;
+			c.messages.forEach(ctx::report);
+		}
+	}
+
+	private class Check extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		final Node dec;
+		final String errorPrefix;
+		final List<String> messages = new ArrayList<>();
+		final CompilationContext context = ctx.branch(messages::add);
+
+		Check(Node dec, String errorPrefix) {
+			this.dec = dec;
+			this.errorPrefix = errorPrefix;
+		}
+
+		@Override
+		protected void compute() {
+			new TypeCheckEASTVisitor(context, false, true).check(dec, errorPrefix);
+		}
+	}
+
 	@Override
 	public TypeNode visitNode(ProgNode n) throws TypeException {
 		if (print) printNode(n);
@@ -53,7 +125,8 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode,TypeException
 				visit(dec);
 			} catch (IncomplException e) { 
 			} catch (TypeException e) {
-				System.out.println("Type checking error in a declaration: " + e.text);
+				ctx.typeErrors++;
+				ctx.report("Type checking error in a declaration: " + e.text);
 			}
 		if ( !isSubtype(visit(n.exp),ckvisit(n.retType)) ) 
 			throw new TypeException("Wrong return type for function " + n.id,n.getLine());
@@ -77,7 +150,7 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode,TypeException
 	@Override
 	public TypeNode visitNode(IfNode n) throws TypeException {
 		if (print) printNode(n);
-		if ( !(isSubtype(visit(n.cond), new BoolTypeNode())) )
+		if ( !(isSubtype(visit(n.cond), boolType())) )
 			throw new TypeException("Non boolean condition in if",n.getLine());
 		TypeNode t = visit(n.th);
 		TypeNode e = visit(n.el);
@@ -96,7 +169,7 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode,TypeException
 		TypeNode r = visit(n.right);
 		if ( !(isSubtype(l, r) || isSubtype(r, l)) )
 			throw new TypeException("Incompatible types in equal",n.getLine());
-		return new BoolTypeNode();
+		return boolType();
 	}
 
 	@Override
@@ -106,7 +179,7 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode,TypeException
 		TypeNode r = visit(n.right);
 		if ( !(isSubtype(l, r) || isSubtype(r, l)) )
 			throw new TypeException("Incompatible types in less-equal",n.getLine());
-		return new BoolTypeNode();
+		return boolType();
 	}
 
 	@Override
@@ -116,43 +189,43 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode,TypeException
 		TypeNode r = visit(n.right);
 		if ( !(isSubtype(l, r) || isSubtype(r, l)) )
 			throw new TypeException("Incompatible types in greater-equal",n.getLine());
-		return new BoolTypeNode();
+		return boolType();
 	}
 
 	@Override
 	public TypeNode visitNode(TimesNode n) throws TypeException {
 		if (print) printNode(n);
-		if ( !(isSubtype(visit(n.left), new IntTypeNode())
-				&& isSubtype(visit(n.right), new IntTypeNode())) )
+		if ( !(isSubtype(visit(n.left), intType())
+				&& isSubtype(visit(n.right), intType())) )
 			throw new TypeException("Non integers in multiplication",n.getLine());
-		return new IntTypeNode();
+		return intType();
 	}
 
 	@Override
 	public TypeNode visitNode(DivNode n) throws TypeException {
 		if (print) printNode(n);
-		if ( !(isSubtype(visit(n.left), new IntTypeNode())
-				&& isSubtype(visit(n.right), new IntTypeNode())) )
+		if ( !(isSubtype(visit(n.left), intType())
+				&& isSubtype(visit(n.right), intType())) )
 			throw new TypeException("Non integers in division",n.getLine());
-		return new IntTypeNode();
+		return intType();
 	}
 
 	@Override
 	public TypeNode visitNode(PlusNode n) throws TypeException {
 		if (print) printNode(n);
-		if ( !(isSubtype(visit(n.left), new IntTypeNode())
-				&& isSubtype(visit(n.right), new IntTypeNode())) )
+		if ( !(isSubtype(visit(n.left), intType())
+				&& isSubtype(visit(n.right), intType())) )
 			throw new TypeException("Non integers in sum",n.getLine());
-		return new IntTypeNode();
+		return intType();
 	}
 
 	@Override
 	public TypeNode visitNode(MinusNode n) throws TypeException {
 		if (print) printNode(n);
-		if ( !(isSubtype(visit(n.left), new IntTypeNode())
-				&& isSubtype(visit(n.right), new IntTypeNode())) )
+		if ( !(isSubtype(visit(n.left), intType())
+				&& isSubtype(visit(n.right), intType())) )
 			throw new TypeException("Non integers in sub",n.getLine());
-		return new IntTypeNode();
+		return intType();
 	}
 
 	@Override
@@ -182,13 +255,13 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode,TypeException
 	@Override
 	public TypeNode visitNode(BoolNode n) {
 		if (print) printNode(n,n.val.toString());
-		return new BoolTypeNode();
+		return boolType();
 	}
 
 	@Override
 	public TypeNode visitNode(IntNode n) {
 		if (print) printNode(n,n.val.toString());
-		return new IntTypeNode();
+		return intType();
 	}
 
 // gestione tipi incompleti	(se lo sono lancia eccezione)
@@ -224,31 +297,31 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode,TypeException
 	@Override
 	public TypeNode visitNode(NotNode n) throws TypeException {
 		if (print) printNode(n);
-		if(!(isSubtype(visit(n.exp), new BoolTypeNode())))
+		if(!(isSubtype(visit(n.exp), boolType())))
 			throw new TypeException("Non Boolean in NOT operation, line:",n.getLine());
-		return new BoolTypeNode();
+		return boolType();
 	}
 
 	@Override
 	public TypeNode visitNode(OrNode n) throws TypeException {
 		if (print) printNode(n);
-		if(!(isSubtype(visit(n.left), new BoolTypeNode()) && isSubtype(visit(n.right), new BoolTypeNode())))
+		if(!(isSubtype(visit(n.left), boolType()) && isSubtype(visit(n.right), boolType())))
 			throw new TypeException("Non Boolean in OR operation, line:",n.getLine());
-		return new BoolTypeNode();
+		return boolType();
 	}
 
 	@Override
 	public TypeNode visitNode(AndNode n) throws TypeException {
 		if (print) printNode(n);
-		if(!(isSubtype(visit(n.left), new BoolTypeNode()) && isSubtype(visit(n.right), new BoolTypeNode())))
+		if(!(isSubtype(visit(n.left), boolType()) && isSubtype(visit(n.right), boolType())))
 			throw new TypeException("Non Boolean in AND operation, line:",n.getLine());
-		return new BoolTypeNode();
+		return boolType();
 	}
 
 	@Override
 	public TypeNode visitNode(EmptyNode n) throws TypeException {
 		if (print) printNode(n);
-		return new EmptyTypeNode();
+		return emptyType();
 	}
 
 	@Override
@@ -273,7 +346,8 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode,TypeException
 				visit(dec);
 			} catch (IncomplException e) {
 			} catch (TypeException e) {
-				System.out.println("Type checking error in a method declaration: " + e.text);
+				ctx.typeErrors++;
+				ctx.report("Type checking error in a method declaration: " + e.text);
 			}
 		if ( !isSubtype(visit(n.exp),ckvisit(n.retType)) )
 			throw new TypeException("Wrong return type for method " + n.id,n.getLine());
@@ -285,17 +359,10 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode,TypeException
 		if (print) printNode(n);
 		boolean hasSubClass = n.superId != null;
 		if (!hasSubClass) {
-			for (Node method : n.methods) {
-				try {
-					visit(method);
-				} catch (IncomplException e) {
-				} catch (TypeException e) {
-					System.out.println("Type checking error in a object method declaration: " + e.text);
-				}
-			}
+			if (parallel) checkAll(n.methods, "Type checking error in a object method declaration: ");
+			else for (Node method : n.methods) check(method, "Type checking error in a object method declaration: ");
 		} else {
-			superType.put(n.id, n.superId);
-			//ha sottoclasse, serve mappa in TypeRels
+			//ha sottoclasse: la relazione e' gia' nella gerarchia di TypeRels (registrata dalla symbol table)
 			ClassTypeNode thisClassTypeNode = (ClassTypeNode) n.getType();
 			ClassTypeNode parentClassTypeNode = (ClassTypeNode) n.superEntry.type;
 
@@ -328,7 +395,7 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode,TypeException
 				boolean isOverriding = position < parentClassTypeNode.allMethods.size();
 				if (isOverriding) {
 					ArrowTypeNode subMethodType = (ArrowTypeNode) n.methods.get(i).getType();
-					ArrowTypeNode superMethodType = parentClassTypeNode.allMethods.get(i);
+					ArrowTypeNode superMethodType = parentClassTypeNode.allMethods.get(position);
 					if (!isSubtype(subMethodType, superMethodType)) {
 						throw new TypeException("Method " + n.methods.get(i).id + " in " + n.id +
 								" is not the same " + superMethodType + "of parent class " + n.superId, n.getLine());
@@ -382,7 +449,7 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode,TypeException
 			if ( !(isSubtype(visit(n.argumentList.get(i)),at.allFields.get(i))) )
 				throw new TypeException("Wrong type for "+(i+1)+"-th parameter in the invocation of "+n.className,n.getLine());
 
-		return new RefTypeNode(n.className);
+		return refType(n.className);
 	}
 
 
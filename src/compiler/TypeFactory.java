@@ -0,0 +1,56 @@
+package compiler;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+import compiler.AST.*;
+import compiler.lib.*;
+
+/**
+ * Unico punto di creazione dei tipi int, bool, null, riferimento e funzionali.
+ * I tipi sono "interned" (hash-consing): due tipi strutturalmente uguali sono lo stesso oggetto,
+ * quindi l'uguaglianza strutturale e' un confronto di riferimenti (==) e i risultati di
+ * isSubtype possono essere memorizzati per coppia di tipi (vedi TypeRels).
+ * ClassTypeNode non e' interned: le sue liste vengono completate durante la symbol table.
+ * Le tabelle sono deboli: un tipo che nessun nodo usa piu' ne esce, quindi non crescono con le
+ * compilazioni (CompileServer). Le chiavi sono oggetti del tipo stesso (id, lista dei parametri,
+ * tipo di ritorno), che restano quindi in tabella finche' il tipo e' in uso.
+ */
+public class TypeFactory {
+
+	private static final IntTypeNode INT = new IntTypeNode();
+	private static final BoolTypeNode BOOL = new BoolTypeNode();
+	private static final EmptyTypeNode EMPTY = new EmptyTypeNode();
+
+	private static final Map<String,WeakReference<RefTypeNode>> refTypes = new WeakHashMap<>();
+	// per tipo di ritorno, poi per tipi dei parametri, tutti gia' interned
+	private static final Map<TypeNode,Map<List<TypeNode>,WeakReference<ArrowTypeNode>>> arrowTypes = new WeakHashMap<>();
+
+	public static IntTypeNode intType() { return INT; }
+
+	public static BoolTypeNode boolType() { return BOOL; }
+
+	public static EmptyTypeNode emptyType() { return EMPTY; }
+
+	public static synchronized RefTypeNode refType(String id) {
+		WeakReference<RefTypeNode> ref = refTypes.get(id);
+		RefTypeNode type = ref == null ? null : ref.get();
+		if (type == null) {
+			type = new RefTypeNode(id);
+			refTypes.put(type.id, new WeakReference<>(type));
+		}
+		return type;
+	}
+
+	public static synchronized ArrowTypeNode arrowType(List<TypeNode> parTypes, TypeNode ret) {
+		Map<List<TypeNode>,WeakReference<ArrowTypeNode>> byPars = arrowTypes.computeIfAbsent(ret, k -> new WeakHashMap<>());
+		WeakReference<ArrowTypeNode> ref = byPars.get(parTypes);
+		ArrowTypeNode type = ref == null ? null : ref.get();
+		if (type == null) {
+			type = new ArrowTypeNode(new ArrayList<>(parTypes), ret);
+			byPars.put(type.parlist, new WeakReference<>(type));
+		}
+		return type;
+	}
+
+}
@@ -3,19 +3,65 @@ package compiler;
 import compiler.AST.*;
 import compiler.lib.*;
 
-import java.sql.Ref;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+// relazioni tra tipi di una compilazione (vedi CompilationContext): dipendono dalle classi dichiarate
 public class TypeRels {
 
-	public static Map<String,String> superType = new HashMap<>();
+	private final Map<String,String> superType = new HashMap<>();
+
+	// indice su superType, null se va (ri)costruito; volatile: il type checking parallelo lo legge
+	// da piu' thread (la gerarchia cambia solo durante la symbol table, che e' sequenziale)
+	private volatile ClassHierarchy hierarchy;
+
+	// risultati di isSubtype tra tipi funzionali (usati per l'overriding); i tipi sono interned
+	// (TypeFactory) e non ridefiniscono equals, quindi la chiave e' l'identita' degli oggetti.
+	// Dipende dalla gerarchia. Concorrente per il type checking parallelo.
+	private final Map<TypeNode,Map<TypeNode,Boolean>> arrowSubtypes = new ConcurrentHashMap<>();
+
+	// registra "cls extends sup" (chiamata dalla symbol table); invalida l'indice
+	public void addSuperType(String cls, String sup) {
+		superType.put(cls, sup);
+		hierarchy = null;
+		arrowSubtypes.clear();
+	}
+
+	// costruisce l'indice della gerarchia; chiamata a fine symbol table, prima del type checking
+	public void buildHierarchy() {
+		hierarchy = new ClassHierarchy(superType);
+		arrowSubtypes.clear();
+	}
+
+	private ClassHierarchy hierarchy() {
+		ClassHierarchy h = hierarchy;
+		if (h == null) { // costruzioni concorrenti producono indici uguali
+			h = new ClassHierarchy(superType);
+			hierarchy = h;
+		}
+		return h;
+	}
 
 	// valuta se il tipo "a" e' <= al tipo "b", dove "a" e "b" sono tipi di base: IntTypeNode o BoolTypeNode
-	public static boolean isSubtype(TypeNode a, TypeNode b) {
+	public boolean isSubtype(TypeNode a, TypeNode b) {
+		if (a == b) return true; //tipi interned: stesso oggetto, stesso tipo
+		if (a instanceof ArrowTypeNode && b instanceof ArrowTypeNode) {
+			Map<TypeNode,Boolean> row = arrowSubtypes.computeIfAbsent(a, k -> new ConcurrentHashMap<>());
+			Boolean result = row.get(b);
+			if (result == null) { // non computeIfAbsent: checkSubtype richiama isSubtype
+				result = checkSubtype(a, b);
+				row.put(b, result);
+			}
+			return result;
+		}
+		return checkSubtype(a, b);
+	}
+
+	private boolean checkSubtype(TypeNode a, TypeNode b) {
 		return
-				//fatto in classe
-				a.getClass().equals(b.getClass()) ||
+				//fatto in classe (solo per i tipi non riferimento/funzionali: quelli hanno le loro regole sotto)
+				(a.getClass().equals(b.getClass()) && !(a instanceof RefTypeNode) && !(a instanceof ArrowTypeNode)) ||
 						((a instanceof BoolTypeNode) && (b instanceof IntTypeNode)) ||
 						//– un tipo EmptyTypeNode sottotipo di un qualsiasi tipo riferimento RefTypeNode (ok)
 						//controllo un tipo EmptyTypeNode sottotipo di un qualsiasi
@@ -26,8 +72,7 @@ public class TypeRels {
 							//• raggiungibilità applicandola multiple volte
 						((a instanceof RefTypeNode first) &&
 								((b instanceof RefTypeNode second)) &&
-								superType.containsKey(first.id) &&
-								checkClassSubtypeMultilevel(first, second)) ||
+								hierarchy().isSubclass(first.id, second.id)) ||
 						//– un tipo funzionale ArrowTypeNode sottotipo di un altro (necessario per overriding tra metodi) in base
 						//alla:
 							//• relazione di co-varianza sul tipo di ritorno
@@ -38,7 +83,7 @@ public class TypeRels {
 								checkEqualsMethodsParameters(method1, method2));
 	}
 
-	private static boolean checkEqualsMethodsParameters(ArrowTypeNode method1, ArrowTypeNode method2) {
+	private boolean checkEqualsMethodsParameters(ArrowTypeNode method1, ArrowTypeNode method2) {
 		//numero parametri uguali
 		if (method1.parlist.size() != method2.parlist.size()) return false;
 		//parametro di 2 sottotipo di 1
@@ -48,20 +93,8 @@ public class TypeRels {
 		return true;
 	}
 
-	private static boolean checkClassSubtypeMultilevel(RefTypeNode a, RefTypeNode b) {
-		String current = a.id;
-		
-		while (superType.containsKey(current)) {
-			if (superType.get(current).equals(b.id)) {
-				return true;
-			}
-			current = superType.get(current);
-		}
-		return false;
-	}
-
 
-	public static TypeNode lowestCommonAncestor(TypeNode a, TypeNode b) {
+	public TypeNode lowestCommonAncestor(TypeNode a, TypeNode b) {
 
 		if ((a instanceof RefTypeNode || a instanceof EmptyTypeNode)
 				&& (b instanceof RefTypeNode || b instanceof EmptyTypeNode)){
@@ -70,17 +103,18 @@ public class TypeRels {
 			if (a instanceof EmptyTypeNode) return b;
 			if (b instanceof EmptyTypeNode) return a;
 
-			if (isSubtype(a,b)) return a; //TODO era (new RefTypeNode(((RefTypeNode) a).id)) ma a dovrebbe bastare
-			if (isSubtype(b,a)) return b; //TODO vedi sopra
+			//antenato comune piu' basso nella gerarchia (se a <= b e' b, se b <= a e' a)
+			String lca = hierarchy().lowestCommonAncestor(((RefTypeNode) a).id, ((RefTypeNode) b).id);
+			if (lca != null) return lca.equals(((RefTypeNode) a).id) ? a : lca.equals(((RefTypeNode) b).id) ? b : TypeFactory.refType(lca);
 		}
 
 		//torna int se almeno uno è int, bool altrimenti
 		if((a instanceof IntTypeNode || a instanceof BoolTypeNode)
 				&& (b instanceof IntTypeNode || b instanceof BoolTypeNode)){
 			if (a instanceof IntTypeNode || b instanceof IntTypeNode) {
-				return new IntTypeNode();
+				return TypeFactory.intType();
 			} else {
-				return new BoolTypeNode();
+				return TypeFactory.boolType();
 			}
 		}
 
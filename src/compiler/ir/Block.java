@@ -0,0 +1,67 @@
+package compiler.ir;
+
+import java.util.*;
+
+/**
+ * Blocco base: istruzioni senza salti e un terminatore (end). I valori sullo stack all'ingresso
+ * sono i parametri del blocco, lasciati dai predecessori (tutti con la stessa altezza di stack).
+ */
+public final class Block {
+
+	final int id;
+	final List<Instr> code = new ArrayList<>();
+	Instr end;
+
+	Block(int id) {
+		this.id = id;
+	}
+
+	public void add(Instr i) {
+		if (end != null) throw new IllegalStateException("Block B"+id+" already terminated");
+		if (i.op.terminator()) end = i;
+		else code.add(i);
+	}
+
+	public boolean terminated() {
+		return end != null;
+	}
+
+	List<Block> successors() {
+		return switch (end.op) {
+			case JUMP -> List.of(end.target);
+			case BRANCH -> List.of(end.target, end.next);
+			default -> List.of();
+		};
+	}
+
+	// inizio dell'albero di istruzioni del blocco che calcola il valore di code.get(i) (i compreso),
+	// -1 se usa valori che erano sullo stack all'ingresso del blocco
+	int treeStart(int i) {
+		int need = code.get(i).pops(), start = i;
+		while (need > 0) {
+			if (--start < 0) return -1;
+			Instr c = code.get(start);
+			need += c.pops() - c.pushes();
+		}
+		return start;
+	}
+
+	// gli operandi di code.get(i), dal primo messo sullo stack: indici delle istruzioni che li producono
+	int[] operands(int i) {
+		int[] ops = new int[code.get(i).pops()];
+		int j = i;
+		for (int k = ops.length-1; k >= 0; k--) {
+			ops[k] = --j;
+			j = treeStart(j);
+		}
+		return ops;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder s = new StringBuilder("B"+id+":\n");
+		for (Instr i : code) s.append("  ").append(i).append('\n');
+		return s.append("  ").append(end).append('\n').toString();
+	}
+
+}
@@ -0,0 +1,95 @@
+package compiler.ir;
+
+import java.util.*;
+
+/**
+ * Layout dei blocchi: i salti a blocchi vuoti che saltano altrove puntano direttamente alla
+ * destinazione finale, un blocco raggiunto solo da un salto incondizionato si fonde con il suo
+ * predecessore, e i blocchi sono disposti in catene in modo che ogni blocco sia seguito, se
+ * possibile, dal suo successore preferito (la destinazione del salto incondizionato, il ramo
+ * "altrimenti" di quello condizionato), che Lowering raggiunge senza istruzioni di salto.
+ */
+final class BlockLayout implements Pass {
+
+	@Override
+	public String name() {
+		return "block layout";
+	}
+
+	@Override
+	public boolean run(IrProgram program) {
+		boolean changed = false;
+		for (IrFunction f : program.all()) {
+			changed |= threadJumps(f);
+			changed |= DeadCodeElimination.unreachableBlocks(f);
+			changed |= merge(f);
+			changed |= order(f);
+		}
+		return changed;
+	}
+
+	// destinazione finale di un salto, saltando i blocchi vuoti che saltano soltanto
+	private static Block destination(IrFunction f, Block b) {
+		Set<Block> seen = new HashSet<>();
+		while (b != f.entry() && b.code.isEmpty() && b.end.op == Instr.Op.JUMP && seen.add(b)) b = b.end.target;
+		return b;
+	}
+
+	private boolean threadJumps(IrFunction f) {
+		boolean changed = false;
+		for (Block b : f.blocks) {
+			if (b.end.op != Instr.Op.JUMP && b.end.op != Instr.Op.BRANCH) continue;
+			Block t = destination(f, b.end.target);
+			if (t != b.end.target) {
+				b.end.target = t;
+				changed = true;
+			}
+			if (b.end.op == Instr.Op.BRANCH) {
+				Block n = destination(f, b.end.next);
+				if (n != b.end.next) {
+					b.end.next = n;
+					changed = true;
+				}
+			}
+		}
+		return changed;
+	}
+
+	private boolean merge(IrFunction f) {
+		boolean changed = false;
+		Map<Block, List<Block>> preds = f.predecessors();
+		for (Block b : new ArrayList<>(f.blocks)) {
+			if (!f.blocks.contains(b)) continue; // gia' fuso
+			while (b.end.op == Instr.Op.JUMP) {
+				Block c = b.end.target;
+				if (c == b || c == f.entry() || preds.get(c).size() != 1) break;
+				b.code.addAll(c.code);
+				b.end = c.end;
+				f.blocks.remove(c);
+				for (Block s : c.successors()) Collections.replaceAll(preds.get(s), c, b);
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	private boolean order(IrFunction f) {
+		List<Block> layout = new ArrayList<>();
+		Set<Block> placed = new HashSet<>();
+		for (Block start : f.blocks) {
+			for (Block b = start; b != null && placed.add(b); ) {
+				layout.add(b);
+				b = switch (b.end.op) {
+					case JUMP -> b.end.target;
+					case BRANCH -> b.end.next;
+					default -> null;
+				};
+			}
+		}
+		if (layout.equals(f.blocks)) return false;
+		f.blocks.clear();
+		f.blocks.addAll(layout);
+		return true;
+	}
+
+}
@@ -0,0 +1,175 @@
+package compiler.ir;
+
+import java.util.*;
+
+/**
+ * Eliminazione delle sottoespressioni comuni: un albero di istruzioni deterministiche (costanti,
+ * letture di slot anche lungo la catena statica, aritmetica, chiamate ripetibili secondo Purity)
+ * ricalcolato dove un suo calcolo precedente e' sicuramente gia' avvenuto (nello stesso blocco
+ * prima, o in un blocco che lo domina) e' sostituito dalla lettura di un temporaneo, scritto (TEE)
+ * dopo il primo calcolo. Gli slot non si riassegnano, quindi il valore e' lo stesso. Gli alberi
+ * sono cercati dall'esterno, cosi' si riusa l'albero piu' grande.
+ *
+ * Un temporaneo costa un TEE e uno slot nel frame, la sua lettura quanto un LOAD locale: un albero
+ * e' candidato solo se le sue ripetizioni nella funzione fanno risparmiare istruzioni.
+ */
+final class CommonSubexpressions implements Pass {
+
+	private static final int TEMP_COST = 9; // TEE, push 0 nel prologo e pop nell'epilogo
+	private static final int LOAD_COST = 4; // lettura del temporaneo
+	private static final int CALL_COST = 18; // sequenza di chiamata, prologo ed epilogo del chiamato
+
+	private static class Occurrence {
+		final Block block;
+		final Instr end; // ultima istruzione dell'albero
+		Slot temp;
+		boolean reused; // nelle visite a vuoto
+
+		Occurrence(Block block, Instr end) {
+			this.block = block;
+			this.end = end;
+		}
+	}
+
+	private Purity purity;
+	private IrFunction f;
+	private Block current;
+	private List<Occurrence> pendingTees; // primi calcoli nel blocco corrente: TEE inserito alla fine della visita
+	private Map<List<List<Object>>, Integer> counts;
+	private Map<List<List<Object>>, Occurrence> available;
+	private Map<Block, List<Block>> dominated;
+	private Map<List<List<Object>>, Integer> reuses, temps; // null nella visita che trasforma
+	private boolean changed;
+
+	@Override
+	public String name() {
+		return "common subexpressions";
+	}
+
+	@Override
+	public boolean run(IrProgram program) {
+		changed = false;
+		purity = new Purity(program);
+		for (IrFunction fn : program.all()) function(fn);
+		return changed;
+	}
+
+	private void function(IrFunction fn) {
+		f = fn;
+		counts = new HashMap<>();
+		for (Block b : f.blocks)
+			for (int i = 0; i < b.code.size(); i++) {
+				List<List<Object>> key = key(b, i);
+				if (key != null) counts.merge(key, 1, Integer::sum);
+			}
+		counts.entrySet().removeIf(e -> !profitable(e.getKey(), e.getValue()-1, 1));
+		if (counts.isEmpty()) return;
+		dominated = new HashMap<>();
+		for (Map.Entry<Block, Block> d : f.dominators().entrySet())
+			if (d.getKey() != d.getValue()) dominated.computeIfAbsent(d.getValue(), x -> new ArrayList<>()).add(d.getKey());
+		// visite a vuoto che contano i riusi possibili (solo dove il primo calcolo domina) e i
+		// temporanei che servono, finche' restano solo candidati convenienti; poi la visita che trasforma
+		do {
+			reuses = new HashMap<>();
+			temps = new HashMap<>();
+			available = new HashMap<>();
+			block(f.entry());
+		} while (counts.keySet().removeIf(k -> !profitable(k, reuses.getOrDefault(k, 0), temps.getOrDefault(k, 0))));
+		if (counts.isEmpty()) return;
+		available = new HashMap<>();
+		reuses = temps = null;
+		block(f.entry());
+	}
+
+	private static boolean profitable(List<List<Object>> key, int reuses, int temps) {
+		return reuses*(cost(key)-LOAD_COST) > temps*TEMP_COST;
+	}
+
+	// albero che termina in code.get(i), se fatto solo di istruzioni deterministiche
+	private List<List<Object>> key(Block b, int i) {
+		int start = b.treeStart(i);
+		if (start < 0) return null;
+		List<List<Object>> key = new ArrayList<>();
+		for (int k = start; k <= i; k++) {
+			Instr in = b.code.get(k);
+			if (!in.deterministic() && !purity.repeatable(in)) return null;
+			key.add(in.key());
+		}
+		return key;
+	}
+
+	private static int cost(List<List<Object>> key) {
+		int cost = 0;
+		for (List<Object> k : key) cost += switch ((Instr.Op) k.get(0)) {
+			case LOAD -> 4+(Integer) k.get(1);
+			case FRAME -> 1+(Integer) k.get(1);
+			case CALL -> CALL_COST;
+			default -> 1;
+		};
+		return cost;
+	}
+
+	// visita dell'albero dei dominatori: i calcoli disponibili in b restano tali nei blocchi che domina
+	private void block(Block b) {
+		List<List<List<Object>>> added = new ArrayList<>();
+		List<Instr[]> replaced = new ArrayList<>(); // [inizio, fine, temporaneo letto al loro posto]
+		List<Integer> roots = new ArrayList<>();
+		for (int i = b.code.size()-1; i >= 0; i = b.treeStart(i)-1) {
+			roots.add(0, i);
+			if (b.treeStart(i) < 0) break;
+		}
+		current = b;
+		pendingTees = new ArrayList<>();
+		for (int r : roots) tree(b, r, added, replaced);
+		for (Instr[] r : replaced) {
+			int from = b.code.indexOf(r[0]), to = b.code.indexOf(r[1]);
+			ConstantPropagation.replace(b, from, to, r[2]);
+		}
+		for (Occurrence o : pendingTees) tee(o);
+		for (Block d : dominated.getOrDefault(b, List.of())) block(d);
+		for (List<List<Object>> k : added) available.remove(k);
+	}
+
+	private static void tee(Occurrence o) {
+		List<Instr> code = o.block.code;
+		code.add(code.indexOf(o.end)+1, Instr.tee(o.temp));
+	}
+
+	private void tree(Block b, int i, List<List<List<Object>>> added, List<Instr[]> replaced) {
+		List<List<Object>> key = key(b, i);
+		boolean candidate = key != null && counts.containsKey(key);
+		if (candidate) {
+			Occurrence first = available.get(key);
+			if (first != null && reuses != null) {
+				reuses.merge(key, 1, Integer::sum);
+				if (!first.reused) temps.merge(key, 1, Integer::sum);
+				first.reused = true;
+				return;
+			}
+			if (first != null) {
+				if (first.temp == null) {
+					first.temp = f.newTemp();
+					if (first.block == current) pendingTees.add(first);
+					else tee(first);
+				}
+				replaced.add(new Instr[] {b.code.get(b.treeStart(i)), b.code.get(i), Instr.load(first.temp, 0)});
+				changed = true;
+				return;
+			}
+		}
+		int need = b.code.get(i).pops();
+		List<Integer> operands = new ArrayList<>();
+		for (int j = i-1; need > 0 && j >= 0; need--) {
+			operands.add(0, j);
+			j = b.treeStart(j);
+			if (j < 0) break;
+			j--;
+		}
+		for (int o : operands) tree(b, o, added, replaced);
+		if (candidate) {
+			available.put(key, new Occurrence(b, b.code.get(i)));
+			added.add(key);
+		}
+	}
+
+}
@@ -0,0 +1,138 @@
+package compiler.ir;
+
+import java.util.*;
+
+/**
+ * Propagazione delle costanti:
+ *  - le dichiarazioni inizializzate con una costante (immutabili) sono sostituite dalla costante in
+ *    tutte le loro letture, anche da funzioni annidate;
+ *  - operazioni su costanti e semplificazioni algebriche (x+0, x-0, x*1, x/1, x*0 con x senza
+ *    effetti) sono calcolate a tempo di compilazione;
+ *  - un salto condizionato su due costanti diventa incondizionato, e un predecessore che salta a
+ *    un blocco che confronta con una costante il valore che gli passa (il caso tipico e' un
+ *    booleano materializzato e subito testato da un if) salta direttamente al blocco giusto.
+ * I blocchi che diventano irraggiungibili li toglie DeadCodeElimination.
+ */
+final class ConstantPropagation implements Pass {
+
+	@Override
+	public String name() {
+		return "constant propagation";
+	}
+
+	@Override
+	public boolean run(IrProgram program) {
+		boolean changed = false, again = true;
+		while (again) {
+			again = propagateDeclarations(program);
+			for (IrFunction f : program.all()) {
+				for (Block b : f.blocks) again |= fold(b);
+				again |= thread(f);
+			}
+			changed |= again;
+		}
+		return changed;
+	}
+
+	// valore di op sulle costanti a (il primo operando) e b, null se non si puo' calcolare
+	static Integer apply(String op, int a, int b) {
+		return switch (op) {
+			case "add" -> a+b;
+			case "sub" -> a-b;
+			case "mult" -> a*b;
+			case "div" -> b == 0 ? null : a/b;
+			default -> null;
+		};
+	}
+
+	static boolean holds(String branch, int a, int b) {
+		return branch.equals("beq") ? a == b : a <= b;
+	}
+
+	private boolean propagateDeclarations(IrProgram program) {
+		Map<Slot, Integer> constants = new HashMap<>();
+		for (IrFunction f : program.all())
+			for (Block b : f.blocks)
+				for (int i = 1; i < b.code.size(); i++)
+					if (b.code.get(i).op == Instr.Op.DEFINE && b.code.get(i-1).isConst())
+						constants.put(b.code.get(i).slot, b.code.get(i-1).n);
+		if (constants.isEmpty()) return false;
+		boolean changed = false;
+		for (IrFunction f : program.all())
+			for (Block b : f.blocks)
+				for (ListIterator<Instr> it = b.code.listIterator(); it.hasNext(); ) {
+					Instr i = it.next();
+					if (i.op == Instr.Op.LOAD && constants.containsKey(i.slot)) {
+						it.set(Instr.constant(constants.get(i.slot)));
+						changed = true;
+					}
+				}
+		return changed;
+	}
+
+	private boolean fold(Block b) {
+		boolean changed = false;
+		for (int i = 0; i < b.code.size(); i++) {
+			Instr in = b.code.get(i);
+			if (in.op != Instr.Op.BINARY || b.treeStart(i) < 0) continue;
+			int[] ops = b.operands(i);
+			Instr left = b.code.get(ops[0]), right = b.code.get(ops[1]);
+			Integer value = left.isConst() && right.isConst() ? apply(in.name, left.n, right.n) : null;
+			if (value != null) {
+				replace(b, ops[0], i, Instr.constant(value));
+			} else if (right.isConst() && identity(in.name, right.n)) { // x+0, x-0, x*1, x/1
+				b.code.remove(i);
+				b.code.remove(ops[1]);
+			} else if (left.isConst() && left.n == (in.name.equals("mult") ? 1 : 0) && (in.name.equals("add") || in.name.equals("mult"))) {
+				b.code.remove(i); // 0+x, 1*x
+				b.code.remove(ops[0]);
+			} else if (in.name.equals("mult") && (right.isConst() && right.n == 0 || left.isConst() && left.n == 0) && pure(b, b.treeStart(i), i)) {
+				replace(b, b.treeStart(i), i, Instr.constant(0));
+			} else continue;
+			changed = true;
+			i = ops[0]-1; // il risultato puo' essere operando di un'altra semplificazione
+		}
+		if (b.end.op == Instr.Op.BRANCH && b.code.size() >= 2) {
+			Instr left = b.code.get(b.code.size()-2), right = b.code.get(b.code.size()-1);
+			if (left.isConst() && right.isConst()) {
+				b.code.remove(b.code.size()-1);
+				b.code.remove(b.code.size()-1);
+				b.end = Instr.jump(holds(b.end.name, left.n, right.n) ? b.end.target : b.end.next);
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	private static boolean identity(String op, int value) {
+		return value == 0 && (op.equals("add") || op.equals("sub")) || value == 1 && (op.equals("mult") || op.equals("div"));
+	}
+
+	// istruzioni da from (compresa) a to (esclusa) tutte senza effetti
+	static boolean pure(Block b, int from, int to) {
+		for (int i = from; i < to; i++) if (!b.code.get(i).pure()) return false;
+		return true;
+	}
+
+	// sostituisce le istruzioni da from a to (comprese) con in
+	static void replace(Block b, int from, int to, Instr in) {
+		b.code.subList(from, to+1).clear();
+		b.code.add(from, in);
+	}
+
+	// un predecessore che passa una costante a un blocco che la confronta subito con un'altra
+	// salta direttamente alla destinazione del confronto
+	private boolean thread(IrFunction f) {
+		boolean changed = false;
+		for (Block p : f.blocks) {
+			if (p.end.op != Instr.Op.JUMP || p.code.isEmpty() || !p.code.get(p.code.size()-1).isConst()) continue;
+			Block j = p.end.target;
+			if (j.end.op != Instr.Op.BRANCH || j.code.size() != 1 || !j.code.get(0).isConst()) continue;
+			int c = p.code.remove(p.code.size()-1).n;
+			p.end = Instr.jump(holds(j.end.name, c, j.code.get(0).n) ? j.end.target : j.end.next);
+			changed = true;
+		}
+		return changed;
+	}
+
+}
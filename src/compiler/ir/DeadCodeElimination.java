@@ -0,0 +1,67 @@
+package compiler.ir;
+
+import java.util.*;
+
+/**
+ * Eliminazione del codice morto: blocchi irraggiungibili, dichiarazioni mai lette con un
+ * inizializzatore senza effetti (lo slot sparisce dal frame e gli altri si spostano), funzioni
+ * la cui etichetta non e' piu' usata da nessuna parte.
+ */
+final class DeadCodeElimination implements Pass {
+
+	@Override
+	public String name() {
+		return "dead code elimination";
+	}
+
+	@Override
+	public boolean run(IrProgram program) {
+		boolean changed = false, again = true;
+		while (again) {
+			again = false;
+			for (IrFunction f : program.all()) again |= unreachableBlocks(f);
+			again |= unusedDeclarations(program);
+			again |= unusedFunctions(program);
+			changed |= again;
+		}
+		return changed;
+	}
+
+	static boolean unreachableBlocks(IrFunction f) {
+		Set<Block> reachable = new HashSet<>(f.reversePostorder());
+		return f.blocks.retainAll(reachable);
+	}
+
+	private boolean unusedDeclarations(IrProgram program) {
+		Set<Slot> used = new HashSet<>();
+		for (IrFunction f : program.all())
+			for (Block b : f.blocks)
+				for (Instr i : b.code) if (i.op != Instr.Op.DEFINE && i.slot != null) used.add(i.slot);
+		boolean changed = false;
+		for (IrFunction f : program.all())
+			for (Block b : f.blocks)
+				for (int i = 0; i < b.code.size(); i++) {
+					Instr in = b.code.get(i);
+					if (in.op != Instr.Op.DEFINE || used.contains(in.slot)) continue;
+					int start = b.treeStart(i);
+					if (start < 0 || !ConstantPropagation.pure(b, start, i)) continue;
+					b.code.subList(start, i+1).clear();
+					f.locals.remove(in.slot);
+					i = start-1;
+					changed = true;
+				}
+		return changed;
+	}
+
+	private boolean unusedFunctions(IrProgram program) {
+		Set<String> used = new HashSet<>();
+		for (IrFunction f : program.all())
+			for (Block b : f.blocks)
+				for (Instr i : b.code) {
+					if (i.op == Instr.Op.LABEL) used.add(i.name);
+					if (i.op == Instr.Op.DISPATCH) used.addAll(i.labels);
+				}
+		return program.functions.removeIf(f -> !used.contains(f.label));
+	}
+
+}
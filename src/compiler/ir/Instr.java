@@ -0,0 +1,208 @@
+package compiler.ir;
+
+import java.util.*;
+
+/**
+ * Istruzione della IR. Le istruzioni lavorano su uno stack di operandi, come la SVM: ognuna toglie
+ * pops() valori e ne mette pushes(); un'istruzione che produce un valore ne e' l'unica
+ * definizione, e i valori sono consumati una volta sola da chi li toglie dallo stack (forma SSA
+ * implicita: i valori che passano da un blocco all'altro sono quelli rimasti sullo stack, come
+ * parametri del blocco). Le dichiarazioni non si riassegnano, quindi anche gli slot dei frame sono
+ * scritti una volta sola (DEFINE, TEE).
+ *
+ *   CONST n           push della costante n
+ *   LABEL l           push dell'indirizzo dell'etichetta l (funzione)
+ *   FRAME n           frame n anelli sopra la catena statica (0: il frame corrente)
+ *   LOAD slot n       valore dello slot del frame n anelli sopra
+ *   BINARY op         add, sub, mult, div
+ *   PRINT             stampa il valore in cima, lasciandolo
+ *   CALL              [control link, argomenti dall'ultimo, access link] -> risultato; funzione
+ *                     (slot del frame dell'access link) o metodo (offset nella dispatch table)
+ *   NEW slot n        n argomenti -> oggetto della classe nello slot globale, nello heap o, se
+ *                     object non e' null, negli slot del frame da object in poi (newFrameObject)
+ *   DISPATCH labels   dispatch table nello heap -> suo indirizzo
+ *   DEFINE slot       il valore in cima diventa la dichiarazione slot (stack altrimenti vuoto)
+ *   TEE slot          copia il valore in cima nel temporaneo slot, lasciandolo
+ *   POP               scarta il valore in cima
+ *   CHECKPOINT        snapshot della macchina (chkp), a stack vuoto
+ * Terminatori: JUMP, BRANCH beq/bleq (salta a target se la condizione vale, altrimenti a next),
+ * RETURN, HALT.
+ */
+public final class Instr {
+
+	public enum Op {
+		CONST, LABEL, FRAME, LOAD, BINARY, PRINT, CALL, NEW, DISPATCH, DEFINE, TEE, POP, CHECKPOINT,
+		JUMP, BRANCH, RETURN, HALT;
+
+		boolean terminator() {
+			return ordinal() >= JUMP.ordinal();
+		}
+	}
+
+	public final Op op;
+	final int n;          // CONST: valore; FRAME, LOAD: anelli; CALL, NEW: numero di argomenti
+	final String name;    // LABEL: etichetta; BINARY e BRANCH: istruzione SVM
+	final Slot slot;      // LOAD, DEFINE, TEE, NEW; CALL di funzione: slot della funzione
+	final int offset;     // CALL di metodo: offset nella dispatch table
+	final List<String> labels; // DISPATCH
+	final Slot object;    // NEW nel frame: slot del dispatch pointer, seguito da quelli dei campi
+	Block target, next;   // JUMP: target; BRANCH: target se la condizione vale, next altrimenti
+
+	private Instr(Op op, int n, String name, Slot slot, int offset, List<String> labels, Slot object) {
+		this.op = op;
+		this.n = n;
+		this.name = name;
+		this.slot = slot;
+		this.offset = offset;
+		this.labels = labels;
+		this.object = object;
+	}
+
+	private Instr(Op op, int n, String name, Slot slot, int offset, List<String> labels) {
+		this(op, n, name, slot, offset, labels, null);
+	}
+
+	private Instr(Op op) {
+		this(op, 0, null, null, 0, null);
+	}
+
+	public static Instr constant(int value) {
+		return new Instr(Op.CONST, value, null, null, 0, null);
+	}
+
+	public static Instr label(String label) {
+		return new Instr(Op.LABEL, 0, label, null, 0, null);
+	}
+
+	public static Instr frame(int depth) {
+		return new Instr(Op.FRAME, depth, null, null, 0, null);
+	}
+
+	public static Instr load(Slot slot, int depth) {
+		return new Instr(Op.LOAD, depth, null, slot, 0, null);
+	}
+
+	public static Instr binary(String op) {
+		return new Instr(Op.BINARY, 0, op, null, 0, null);
+	}
+
+	public static Instr print() {
+		return new Instr(Op.PRINT);
+	}
+
+	public static Instr callFunction(Slot function, int args) {
+		return new Instr(Op.CALL, args, null, function, 0, null);
+	}
+
+	public static Instr callMethod(int offset, int args) {
+		return new Instr(Op.CALL, args, null, null, offset, null);
+	}
+
+	public static Instr newObject(Slot classSlot, int args) {
+		return new Instr(Op.NEW, args, null, classSlot, 0, null);
+	}
+
+	// object: primo degli slot riservati con IrFunction.newObject
+	public static Instr newFrameObject(Slot classSlot, int args, Slot object) {
+		return new Instr(Op.NEW, args, null, classSlot, 0, null, object);
+	}
+
+	public static Instr dispatch(List<String> labels) {
+		return new Instr(Op.DISPATCH, 0, null, null, 0, List.copyOf(labels));
+	}
+
+	public static Instr define(Slot slot) {
+		return new Instr(Op.DEFINE, 0, null, slot, 0, null);
+	}
+
+	static Instr tee(Slot temp) {
+		return new Instr(Op.TEE, 0, null, temp, 0, null);
+	}
+
+	static Instr pop() {
+		return new Instr(Op.POP);
+	}
+
+	public static Instr checkpoint() {
+		return new Instr(Op.CHECKPOINT);
+	}
+
+	public static Instr jump(Block target) {
+		Instr i = new Instr(Op.JUMP);
+		i.target = target;
+		return i;
+	}
+
+	public static Instr branch(String op, Block target, Block next) {
+		Instr i = new Instr(Op.BRANCH, 0, op, null, 0, null);
+		i.target = target;
+		i.next = next;
+		return i;
+	}
+
+	public static Instr ret() {
+		return new Instr(Op.RETURN);
+	}
+
+	public static Instr halt() {
+		return new Instr(Op.HALT);
+	}
+
+	int pops() {
+		return switch (op) {
+			case CONST, LABEL, FRAME, LOAD, DISPATCH, CHECKPOINT, JUMP, HALT -> 0;
+			case BINARY, BRANCH -> 2;
+			case CALL -> n+2;
+			case NEW -> n;
+			default -> 1;
+		};
+	}
+
+	int pushes() {
+		return switch (op) {
+			case DEFINE, POP, CHECKPOINT, JUMP, BRANCH, RETURN, HALT -> 0;
+			default -> 1;
+		};
+	}
+
+	// senza effetti (ne' stampe, ne' heap, ne' errori): si puo' togliere se il valore non serve
+	boolean pure() {
+		return switch (op) {
+			case CONST, LABEL, FRAME, LOAD -> true;
+			case BINARY -> !name.equals("div");
+			default -> false;
+		};
+	}
+
+	// il valore dipende solo dagli operandi e dagli slot (immutabili): ricalcolarlo da' lo stesso risultato
+	boolean deterministic() {
+		return pure() || op == Op.BINARY;
+	}
+
+	boolean isConst() {
+		return op == Op.CONST;
+	}
+
+	// chiave per confrontare istruzioni uguali (gli slot per identita')
+	List<Object> key() {
+		return Arrays.asList(op, n, name, slot, offset, labels, object);
+	}
+
+	@Override
+	public String toString() {
+		return switch (op) {
+			case CONST, FRAME -> op.name().toLowerCase()+" "+n;
+			case LABEL -> "label "+name;
+			case LOAD -> "load "+slot+(n > 0 ? " ^"+n : "");
+			case BINARY -> name;
+			case CALL -> "call "+(slot != null ? slot.toString() : "method "+offset)+" /"+n;
+			case NEW -> "new "+slot+" /"+n+(object != null ? " in "+object : "");
+			case DISPATCH -> "dispatch "+labels;
+			case DEFINE, TEE -> op.name().toLowerCase()+" "+slot;
+			case JUMP -> "jump B"+target.id;
+			case BRANCH -> name+" B"+target.id+" else B"+next.id;
+			default -> op.name().toLowerCase();
+		};
+	}
+
+}
@@ -0,0 +1,173 @@
+package compiler.ir;
+
+import java.util.*;
+
+/**
+ * Funzione (o metodo, o programma principale) della IR: grafo di blocchi base, il primo e' quello
+ * d'ingresso, e slot espliciti del suo frame. parent e' la funzione del frame puntato dall'access
+ * link: null per il programma principale e per i metodi (il cui access link e' l'oggetto).
+ */
+public final class IrFunction {
+
+	public enum Kind { MAIN, FUNCTION, METHOD }
+
+	public final Kind kind;
+	public final String label; // null per il programma principale
+	final IrFunction parent;
+	final int params;
+	final boolean referenceResult; // restituisce un oggetto (o null)
+	boolean memoized; // risultati nella tabella di memoizzazione della SVM (Memoization)
+	final List<Slot> locals = new ArrayList<>(); // in ordine di dichiarazione
+	final List<Slot> temps = new ArrayList<>();
+	final List<Block> blocks = new ArrayList<>();
+	private final Slot[] paramSlots;
+	private int blockIds;
+
+	IrFunction(Kind kind, String label, IrFunction parent, int params, boolean referenceResult) {
+		this.kind = kind;
+		this.label = label;
+		this.parent = parent;
+		this.params = params;
+		this.referenceResult = referenceResult;
+		this.paramSlots = new Slot[params];
+		newBlock();
+	}
+
+	public Block entry() {
+		return blocks.get(0);
+	}
+
+	public Block newBlock() {
+		Block b = createBlock();
+		blocks.add(b);
+		return b;
+	}
+
+	// blocco non ancora nel layout: lo si aggiunge con place quando se ne genera il codice
+	public Block createBlock() {
+		return new Block(blockIds++);
+	}
+
+	public void place(Block b) {
+		blocks.add(b);
+	}
+
+	// slot della prossima dichiarazione locale
+	public Slot newLocal(String name) {
+		Slot s = new Slot(Slot.Kind.LOCAL, this, name, 0);
+		locals.add(s);
+		return s;
+	}
+
+	public int localCount() {
+		return locals.size();
+	}
+
+	// slot della i-esima dichiarazione (in ordine, a partire da 0)
+	public Slot local(int i) {
+		return locals.get(i);
+	}
+
+	// parametro con l'offset dato dalla symbol table (1 e' il primo)
+	public Slot param(String name, int offset) {
+		if (paramSlots[offset-1] == null) paramSlots[offset-1] = new Slot(Slot.Kind.PARAM, this, name, offset);
+		return paramSlots[offset-1];
+	}
+
+	public IrFunction parent() {
+		return parent;
+	}
+
+	// slot per un oggetto allocato nel frame: dispatch pointer e poi i campi, consecutivi verso il
+	// basso come nello heap (il campo k all'offset dell'oggetto - k - 1); ritorna il primo
+	public Slot newObject(int fields) {
+		Slot object = newTemp();
+		for (int k = 0; k < fields; k++) newTemp();
+		return object;
+	}
+
+	Slot newTemp() {
+		Slot s = new Slot(Slot.Kind.TEMP, this, null, 0);
+		temps.add(s);
+		return s;
+	}
+
+	Map<Block, List<Block>> predecessors() {
+		Map<Block, List<Block>> preds = new HashMap<>();
+		for (Block b : blocks) preds.put(b, new ArrayList<>());
+		for (Block b : blocks) for (Block s : b.successors()) preds.get(s).add(b);
+		return preds;
+	}
+
+	// blocchi raggiungibili dall'ingresso, in ordine inverso di visita posticipata
+	List<Block> reversePostorder() {
+		List<Block> order = new ArrayList<>();
+		Set<Block> seen = new HashSet<>();
+		Deque<Block> stack = new ArrayDeque<>();
+		Deque<Iterator<Block>> its = new ArrayDeque<>();
+		seen.add(entry());
+		stack.push(entry());
+		its.push(entry().successors().iterator());
+		while (!stack.isEmpty()) {
+			if (its.peek().hasNext()) {
+				Block s = its.peek().next();
+				if (seen.add(s)) {
+					stack.push(s);
+					its.push(s.successors().iterator());
+				}
+			} else {
+				its.pop();
+				order.add(stack.pop());
+			}
+		}
+		Collections.reverse(order);
+		return order;
+	}
+
+	// dominatore immediato di ogni blocco raggiungibile (l'ingresso domina se stesso), con
+	// l'algoritmo iterativo di Cooper, Harvey e Kennedy
+	Map<Block, Block> dominators() {
+		List<Block> rpo = reversePostorder();
+		Map<Block, Integer> index = new HashMap<>();
+		for (int i = 0; i < rpo.size(); i++) index.put(rpo.get(i), i);
+		Map<Block, List<Block>> preds = predecessors();
+		Map<Block, Block> idom = new HashMap<>();
+		idom.put(entry(), entry());
+		for (boolean changed = true; changed; ) {
+			changed = false;
+			for (Block b : rpo.subList(1, rpo.size())) {
+				Block d = null;
+				for (Block p : preds.get(b)) {
+					if (!idom.containsKey(p)) continue;
+					if (d == null) d = p;
+					else
+						for (Block x = p; x != d; ) { // intersezione lungo l'albero dei dominatori
+							while (index.get(x) > index.get(d)) x = idom.get(x);
+							while (index.get(d) > index.get(x)) d = idom.get(d);
+						}
+				}
+				if (idom.get(b) != d) {
+					idom.put(b, d);
+					changed = true;
+				}
+			}
+		}
+		return idom;
+	}
+
+	int size() {
+		int n = 0;
+		for (Block b : blocks) n += b.code.size()+1;
+		return n;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder s = new StringBuilder(label == null ? "main" : label);
+		s.append(" (").append(kind.name().toLowerCase()).append(", ").append(params).append(" params, locals ")
+				.append(locals).append(", ").append(temps.size()).append(" temps)\n");
+		for (Block b : blocks) s.append(b);
+		return s.toString();
+	}
+
+}
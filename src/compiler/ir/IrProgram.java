@@ -0,0 +1,43 @@
+package compiler.ir;
+
+import java.util.*;
+
+/**
+ * Programma nella IR: il programma principale e le funzioni e i metodi, nell'ordine in cui il loro
+ * codice segue quello principale.
+ */
+public final class IrProgram {
+
+	public final IrFunction main = new IrFunction(IrFunction.Kind.MAIN, null, null, 0, false);
+	final List<IrFunction> functions = new ArrayList<>();
+
+	// reference: il risultato e' un oggetto (o null)
+	public IrFunction newFunction(IrFunction.Kind kind, String label, IrFunction parent, int params, boolean reference) {
+		IrFunction f = new IrFunction(kind, label, parent, params, reference);
+		functions.add(f);
+		return f;
+	}
+
+	// il programma principale e poi le funzioni
+	List<IrFunction> all() {
+		List<IrFunction> all = new ArrayList<>();
+		all.add(main);
+		all.addAll(functions);
+		return all;
+	}
+
+	// istruzioni in tutto il programma (terminatori compresi)
+	public int size() {
+		int n = 0;
+		for (IrFunction f : all()) n += f.size();
+		return n;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder s = new StringBuilder();
+		for (IrFunction f : all()) s.append(f).append('\n');
+		return s.toString();
+	}
+
+}
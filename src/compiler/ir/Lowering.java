@@ -0,0 +1,187 @@
+package compiler.ir;
+
+import java.util.*;
+import java.util.function.Supplier;
+import svm.ExecuteVM;
+
+/**
+ * Generazione dell'assembly SVM dalla IR: il codice del programma principale, "halt" e poi quello
+ * di funzioni e metodi, con le stesse convenzioni di chiamata di CodeGenerationASTVisitor.
+ * I blocchi sono emessi nell'ordine di IrFunction.blocks: un salto al blocco seguente diventa
+ * un fall-through. I temporanei sono riservati nel prologo (push 0) e tolti nell'epilogo.
+ */
+public final class Lowering {
+
+	private final Supplier<String> blockLabels, newLabels;
+	private final StringBuilder out = new StringBuilder();
+
+	private Lowering(Supplier<String> blockLabels, Supplier<String> newLabels) {
+		this.blockLabels = blockLabels;
+		this.newLabels = newLabels;
+	}
+
+	// blockLabels e newLabels generano etichette nuove (per i blocchi e per i siti di allocazione)
+	public static String lower(IrProgram program, Supplier<String> blockLabels, Supplier<String> newLabels) {
+		Lowering l = new Lowering(blockLabels, newLabels);
+		l.function(program.main);
+		for (IrFunction f : program.functions) {
+			l.out.append('\n');
+			l.function(f);
+		}
+		return l.out.substring(0, l.out.length()-1);
+	}
+
+	private void emit(String line) {
+		out.append(line).append('\n');
+	}
+
+	private void function(IrFunction f) {
+		if (f.kind == IrFunction.Kind.MAIN) emit("push 0");
+		else {
+			emit(f.label+":");
+			if (f.memoized) emit("memoget "+f.params); // risultato gia' calcolato: ritorna subito
+			emit("cfp"); // set $fp to $sp value
+			emit("lra"); // load $ra value
+		}
+		for (int i = 0; i < f.temps.size(); i++) emit("push 0");
+
+		Map<Block, String> labels = new HashMap<>();
+		for (int k = 0; k < f.blocks.size(); k++) {
+			Block b = f.blocks.get(k), following = k+1 < f.blocks.size() ? f.blocks.get(k+1) : null;
+			if (b.end.op == Instr.Op.BRANCH) labels.computeIfAbsent(b.end.target, x -> blockLabels.get());
+			if (b.end.op == Instr.Op.BRANCH && b.end.next != following) labels.computeIfAbsent(b.end.next, x -> blockLabels.get());
+			if (b.end.op == Instr.Op.JUMP && b.end.target != following) labels.computeIfAbsent(b.end.target, x -> blockLabels.get());
+		}
+		for (int k = 0; k < f.blocks.size(); k++) {
+			Block b = f.blocks.get(k), following = k+1 < f.blocks.size() ? f.blocks.get(k+1) : null;
+			if (labels.containsKey(b)) emit(labels.get(b)+":");
+			for (Instr i : b.code) instr(i);
+			Instr end = b.end;
+			switch (end.op) {
+				case JUMP -> {
+					if (end.target != following) emit("b "+labels.get(end.target));
+				}
+				case BRANCH -> {
+					emit(end.name+" "+labels.get(end.target));
+					if (end.next != following) emit("b "+labels.get(end.next));
+				}
+				case RETURN -> {
+					if (f.memoized) emit("memoput "+f.label);
+					emit("stm"); // set $tm to popped value (function result)
+					for (int i = 0; i < f.locals.size()+f.temps.size(); i++) emit("pop"); // remove local declarations
+					emit("sra"); // set $ra to popped value
+					emit("pop"); // remove Access Link from stack
+					for (int i = 0; i < f.params; i++) emit("pop"); // remove parameters from stack
+					emit("sfp"); // set $fp to popped value (Control Link)
+					emit("ltm"); // load $tm value (function result)
+					emit("lra"); // load $ra value
+					emit("js"); // jump to to popped address
+				}
+				case HALT -> emit("halt");
+				default -> throw new IllegalStateException(end.toString());
+			}
+		}
+	}
+
+	private void instr(Instr i) {
+		switch (i.op) {
+			case CONST -> emit("push "+i.n);
+			case LABEL -> emit("push "+i.name);
+			case FRAME -> frame(i.n);
+			case LOAD -> {
+				frame(i.n);
+				emit("push "+i.slot.offset());
+				emit("add");
+				emit("lw");
+			}
+			case BINARY -> emit(i.name);
+			case PRINT -> emit("print");
+			case CALL -> {
+				emit("stm"); // duplica l'access link
+				emit("ltm");
+				emit("ltm");
+				if (i.slot == null) emit("lw"); // metodo: dispatch pointer dell'oggetto
+				emit("push "+(i.slot == null ? i.offset : i.slot.offset()));
+				emit("add");
+				emit("lw"); // indirizzo della funzione
+				emit("js");
+			}
+			case NEW -> {
+				if (i.object != null) frameObject(i);
+				else heapObject(i);
+			}
+			case DISPATCH -> {
+				emit("lhp");
+				for (String l : i.labels) {
+					emit("push "+l);
+					emit("lhp");
+					emit("sw");
+					emit("push 1");
+					emit("lhp");
+					emit("add");
+					emit("shp");
+				}
+			}
+			case DEFINE -> {} // il valore e' gia' al suo posto nel frame
+			case TEE -> {
+				emit("stm");
+				emit("ltm");
+				emit("ltm");
+				emit("lfp");
+				emit("push "+i.slot.offset());
+				emit("add");
+				emit("sw");
+			}
+			case POP -> emit("pop");
+			case CHECKPOINT -> emit("chkp");
+			default -> throw new IllegalStateException(i.toString());
+		}
+	}
+
+	private void heapObject(Instr i) {
+		emit(newLabels.get()+":"); // sito di allocazione (per il profiler)
+		for (int k = 0; k < i.n; k++) { // argomenti nello heap, uno alla volta
+			emit("lhp");
+			emit("sw");
+			emit("lhp");
+			emit("push 1");
+			emit("add");
+			emit("shp");
+		}
+		emit("push "+(ExecuteVM.MEMSIZE+i.slot.offset())); // dispatch pointer della classe (slot globale)
+		emit("lw");
+		emit("lhp");
+		emit("sw");
+		emit("lhp"); // object pointer
+		emit("lhp");
+		emit("push 1");
+		emit("add");
+		emit("shp");
+	}
+
+	// come nello heap, ma negli slot del frame riservati all'oggetto
+	private void frameObject(Instr i) {
+		int object = i.object.offset();
+		for (int k = i.n-1; k >= 0; k--) { // argomenti dall'ultimo, che e' in cima
+			emit("lfp");
+			emit("push "+(object-k-1));
+			emit("add");
+			emit("sw");
+		}
+		emit("push "+(ExecuteVM.MEMSIZE+i.slot.offset())); // dispatch pointer della classe
+		emit("lw");
+		emit("lfp");
+		emit("push "+object);
+		emit("add");
+		emit("sw");
+		emit("lfp"); // object pointer
+		emit("push "+object);
+		emit("add");
+	}
+
+	private void frame(int depth) {
+		emit("lfp");
+		for (int k = 0; k < depth; k++) emit("lw");
+	}
+
+}
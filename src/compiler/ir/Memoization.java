@@ -0,0 +1,96 @@
+package compiler.ir;
+
+import java.util.*;
+
+/**
+ * Memoizzazione automatica: una funzione ricorsiva pura (Purity) il cui risultato dipende solo
+ * dagli argomenti e' marcata, e Lowering la fa iniziare con memoget (se la SVM ha gia' il
+ * risultato per quegli argomenti ritorna subito, senza costruire il frame) e le fa salvare il
+ * risultato con memoput prima di ritornare.
+ *
+ * Il risultato dipende solo dagli argomenti se la funzione, e quello che chiama, non leggono i
+ * frame delle funzioni che la contengono: il valore li' cambia da un'attivazione all'altra,
+ * mentre il frame del programma principale e' unico e gli slot non si riassegnano. Gli oggetti
+ * passati come argomento sono sempre nello heap (uno nel frame non sfugge) e immutabili, quindi
+ * il loro indirizzo ne identifica il contenuto. I metodi leggono solo il loro oggetto.
+ */
+final class Memoization implements Pass {
+
+	private static final int UNKNOWN = Integer.MAX_VALUE;
+
+	@Override
+	public String name() {
+		return "memoization";
+	}
+
+	@Override
+	public boolean run(IrProgram program) {
+		Purity purity = new Purity(program);
+		// reach: quanti frame sopra il proprio (escluso quello principale) la funzione puo' leggere;
+		// punto fisso a partire da 0, come per la purezza
+		Map<IrFunction, Integer> reach = new HashMap<>();
+		for (IrFunction f : program.functions) reach.put(f, 0);
+		for (boolean changed = true; changed; ) {
+			changed = false;
+			for (IrFunction f : program.functions) {
+				int r = reach(f, purity, reach);
+				if (r > reach.get(f)) {
+					reach.put(f, r);
+					changed = true;
+				}
+			}
+		}
+		boolean marked = false;
+		for (IrFunction f : program.functions) {
+			boolean memoize = f.kind == IrFunction.Kind.FUNCTION && reach.get(f) == 0 && purity.pure(f) && recursive(f, purity);
+			if (memoize != f.memoized) {
+				f.memoized = memoize;
+				marked = true;
+			}
+		}
+		return marked;
+	}
+
+	private static int reach(IrFunction f, Purity purity, Map<IrFunction, Integer> reach) {
+		if (f.kind == IrFunction.Kind.METHOD) return 0; // fuori dal suo frame, solo il suo oggetto
+		int r = 0;
+		for (Block b : f.blocks)
+			for (int i = 0; i < b.code.size(); i++) {
+				Instr in = b.code.get(i);
+				if (in.op == Instr.Op.LOAD && in.n > 0 && !main(f, in.n)) r = Math.max(r, in.n);
+				if (in.op != Instr.Op.CALL || in.slot == null) continue; // i metodi leggono il loro oggetto
+				Instr link = b.code.get(i-1);
+				List<IrFunction> callees = purity.callees(in);
+				if (link.op != Instr.Op.FRAME || callees == null) return UNKNOWN;
+				int c = reach.get(callees.get(0));
+				if (c == UNKNOWN) return UNKNOWN;
+				if (c > 0) r = Math.max(r, link.n+c-1); // il frame del chiamato e' sotto quello dell'access link
+			}
+		return r;
+	}
+
+	// il frame depth anelli sopra quello di f e' del programma principale
+	private static boolean main(IrFunction f, int depth) {
+		for (int d = 0; d < depth && f != null; d++) f = f.parent();
+		return f != null && f.kind == IrFunction.Kind.MAIN;
+	}
+
+	// f puo' chiamare se stessa, direttamente o no
+	private static boolean recursive(IrFunction f, Purity purity) {
+		Set<IrFunction> seen = new HashSet<>();
+		Deque<IrFunction> work = new ArrayDeque<>(List.of(f));
+		while (!work.isEmpty())
+			for (Block b : work.pop().blocks)
+				for (Instr in : b.code) {
+					if (in.op != Instr.Op.CALL) continue;
+					List<IrFunction> callees = purity.callees(in);
+					if (callees == null) continue;
+					for (IrFunction c : callees) {
+						if (c == f) return true;
+						if (seen.add(c)) work.push(c);
+					}
+				}
+		return false;
+	}
+
+}
@@ -0,0 +1,14 @@
+package compiler.ir;
+
+/**
+ * Passo di ottimizzazione della IR, registrato in PassManager.passes per i livelli a cui si applica.
+ * Un passo trasforma il programma sul posto lasciandolo ben formato (lo controlla il Verifier).
+ */
+public interface Pass {
+
+	String name();
+
+	// true se ha cambiato il programma
+	boolean run(IrProgram program);
+
+}
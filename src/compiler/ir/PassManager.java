@@ -0,0 +1,135 @@
+package compiler.ir;
+
+import java.io.*;
+import java.util.*;
+import org.antlr.v4.runtime.*;
+import compiler.FoolCompiler;
+import svm.*;
+
+/**
+ * Esegue i passi di un livello di ottimizzazione sulla IR, controllandola dopo ogni passo
+ * (Verifier) e tenendo statistiche per passo (tempo, istruzioni IR prima e dopo):
+ *   -O0  nessun passo: la IR e' tradotta cosi' com'e'
+ *   -O1  propagazione delle costanti, eliminazione del codice morto, layout dei blocchi; gli
+ *        oggetti che non sfuggono sono allocati nel frame (EscapeAnalysisASTVisitor)
+ *   -O2  come -O1, piu' eliminazione delle sottoespressioni comuni (anche chiamate pure)
+ * A parte, a ogni livello, la memoizzazione delle funzioni pure ricorsive (Memoization).
+ * Un nuovo passo implementa Pass e si aggiunge in passes ai livelli a cui serve.
+ *
+ * main confronta i livelli su file FOOL:  java compiler.ir.PassManager [-peephole] [-memo] a.fool ...
+ * (istruzioni SVM generate ed eseguite e parole di heap usate, con la generazione diretta dall'AST
+ * come riferimento).
+ */
+public final class PassManager {
+
+	public static final int MAX_LEVEL = 2;
+
+	private static class Stats {
+		int runs, changes, before, after;
+		long nanos;
+	}
+
+	private final List<Pass> passes;
+	private final Map<String, Stats> stats = new LinkedHashMap<>();
+
+	public PassManager(int level) {
+		this(level, false);
+	}
+
+	public PassManager(int level, boolean memoize) {
+		this.passes = passes(level);
+		if (memoize) passes.add(new Memoization());
+	}
+
+	static List<Pass> passes(int level) {
+		if (level < 0 || level > MAX_LEVEL) throw new IllegalArgumentException("Optimization level "+level+" (0-"+MAX_LEVEL+")");
+		List<Pass> p = new ArrayList<>();
+		if (level >= 1) {
+			p.add(new ConstantPropagation());
+			p.add(new DeadCodeElimination()); // prima di CSE: un TEE terrebbe vive le dichiarazioni inutili
+		}
+		if (level >= 2) p.add(new CommonSubexpressions());
+		if (level >= 1) p.add(new BlockLayout());
+		return p;
+	}
+
+	public void run(IrProgram program) {
+		Verifier.check(program);
+		for (Pass pass : passes) {
+			Stats s = stats.computeIfAbsent(pass.name(), k -> new Stats());
+			int before = program.size();
+			long start = System.nanoTime();
+			boolean changed = pass.run(program);
+			s.nanos += System.nanoTime()-start;
+			s.runs++;
+			if (changed) s.changes++;
+			s.before += before;
+			s.after += program.size();
+			try {
+				Verifier.check(program);
+			} catch (IllegalStateException e) {
+				throw new IllegalStateException("After pass "+pass.name()+": "+e.getMessage(), e);
+			}
+		}
+	}
+
+	public void printSummary(PrintStream out) {
+		if (stats.isEmpty()) out.println("  no passes");
+		for (Map.Entry<String, Stats> e : stats.entrySet()) {
+			Stats s = e.getValue();
+			out.printf("  %-24s %6d -> %6d IR instructions  %8.3f ms%s%n", e.getKey(), s.before, s.after,
+					s.nanos / 1e6, s.changes == 0 ? "  (no changes)" : "");
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		boolean peephole = false, memo = false;
+		long[] executed = new long[MAX_LEVEL+2], generated = new long[MAX_LEVEL+2], heap = new long[MAX_LEVEL+2];
+		for (String arg : args) {
+			if (arg.equals("-peephole")) {
+				peephole = true;
+				continue;
+			}
+			if (arg.equals("-memo")) { // memoizzazione a tutti i livelli (non nel riferimento)
+				memo = true;
+				continue;
+			}
+			CharStream source = CharStreams.fromFileName(arg);
+			System.out.print(arg+":");
+			int[] reference = null;
+			for (int level = -1; level <= MAX_LEVEL; level++) {
+				FoolCompiler compiler = new FoolCompiler();
+				compiler.setOptimization(level);
+				compiler.setPeephole(peephole);
+				compiler.setMemoization(memo && level >= 0);
+				FoolCompiler.Result result = compiler.compile(source);
+				if (!result.ok()) {
+					System.out.print(" compilation errors: "+result.diagnostics.get(0));
+					break;
+				}
+				CaptureOutputSink out = new CaptureOutputSink();
+				ExecuteVM vm = result.newVM(out);
+				long[] count = new long[1];
+				vm.setListener(new ExecutionListener() {
+					@Override
+					public void instruction(int address, int opcode) {
+						count[0]++;
+					}
+				});
+				vm.cpu();
+				if (level < 0) reference = out.values();
+				boolean same = Arrays.equals(reference, out.values());
+				long instructions = result.asm.lines().filter(l -> !l.isBlank() && !l.trim().endsWith(":")).count();
+				System.out.print("  "+(level < 0 ? "direct" : "-O"+level)+" "+instructions+"/"+count[0]+"/"+vm.getHp()+(same ? "" : " OUTPUT CHANGED"));
+				generated[level+1] += instructions;
+				executed[level+1] += count[0];
+				heap[level+1] += vm.getHp();
+			}
+			System.out.println();
+		}
+		System.out.println("Total (generated/executed SVM instructions, heap words"+(peephole ? ", after peephole" : "")+(memo ? ", memoized" : "")+"):");
+		for (int level = -1; level <= MAX_LEVEL; level++)
+			System.out.println("  "+(level < 0 ? "direct" : "-O"+level)+"  "+generated[level+1]+" / "+executed[level+1]+" / "+heap[level+1]);
+	}
+
+}
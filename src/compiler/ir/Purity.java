@@ -0,0 +1,83 @@
+package compiler.ir;
+
+import java.util.*;
+
+/**
+ * Analisi di purezza di funzioni e metodi. Le dichiarazioni e i campi non si riassegnano, quindi
+ * una funzione puo' avere effetti solo stampando, direttamente o chiamando funzioni che stampano.
+ * Una funzione senza effetti chiamata di nuovo con gli stessi argomenti (e lo stesso access link)
+ * da' lo stesso risultato, a meno che non restituisca un oggetto allocato durante la chiamata: ogni
+ * chiamata ne restituirebbe uno diverso (distinguibile con ==). Gli oggetti allocati e non
+ * restituiti non possono sfuggire altrimenti, non essendoci assegnamenti.
+ *
+ * Una chiamata di metodo puo' eseguire qualunque metodo con quell'offset in una dispatch table
+ * (la classe dell'oggetto non e' nota): e' ripetibile solo se lo sono tutti.
+ */
+final class Purity {
+
+	private final Map<Slot, IrFunction> functions = new HashMap<>(); // per slot della dichiarazione
+	private final Map<Integer, List<IrFunction>> methods = new HashMap<>(); // per offset
+	private final Set<IrFunction> effects = new HashSet<>(); // stampano (o forse)
+	private final Set<IrFunction> fresh = new HashSet<>(); // possono restituire un oggetto nuovo
+
+	Purity(IrProgram program) {
+		Map<String, IrFunction> byLabel = new HashMap<>();
+		for (IrFunction f : program.functions) byLabel.put(f.label, f);
+		for (IrFunction f : program.all())
+			for (Block b : f.blocks)
+				for (int i = 0; i < b.code.size(); i++) {
+					Instr in = b.code.get(i);
+					if (in.op == Instr.Op.DEFINE && i > 0 && b.code.get(i-1).op == Instr.Op.LABEL)
+						functions.put(in.slot, byLabel.get(b.code.get(i-1).name));
+					if (in.op == Instr.Op.DISPATCH)
+						for (int o = 0; o < in.labels.size(); o++)
+							methods.computeIfAbsent(o, x -> new ArrayList<>()).add(byLabel.get(in.labels.get(o)));
+				}
+		// punto fisso a partire da "tutte pure": le chiamate ricorsive non rendono impura una funzione
+		for (boolean changed = true; changed; ) {
+			changed = false;
+			for (IrFunction f : program.functions) {
+				boolean print = false, allocates = false;
+				for (Block b : f.blocks)
+					for (Instr in : b.code) {
+						if (in.op == Instr.Op.PRINT) print = true;
+						if (in.op == Instr.Op.NEW) allocates = true;
+						if (in.op != Instr.Op.CALL) continue;
+						List<IrFunction> callees = callees(in);
+						if (callees == null) print = true;
+						else for (IrFunction c : callees) {
+							print |= effects.contains(c);
+							allocates |= fresh.contains(c);
+						}
+					}
+				if (print && effects.add(f)) changed = true;
+				if (allocates && f.referenceResult && fresh.add(f)) changed = true;
+			}
+		}
+	}
+
+	// funzioni che la chiamata puo' eseguire, null se non si sa
+	List<IrFunction> callees(Instr call) {
+		if (call.slot != null) {
+			IrFunction f = functions.get(call.slot);
+			return f == null ? null : List.of(f);
+		}
+		List<IrFunction> m = methods.get(call.offset);
+		return m == null || m.contains(null) ? null : m;
+	}
+
+	// funzione senza effetti che non restituisce oggetti nuovi
+	boolean pure(IrFunction f) {
+		return !effects.contains(f) && !fresh.contains(f);
+	}
+
+	// chiamata che, ripetuta con gli stessi operandi, non ha effetti e da' lo stesso risultato
+	boolean repeatable(Instr call) {
+		if (call.op != Instr.Op.CALL) return false;
+		List<IrFunction> callees = callees(call);
+		if (callees == null) return false;
+		for (IrFunction c : callees) if (!pure(c)) return false;
+		return true;
+	}
+
+}
@@ -0,0 +1,50 @@
+package compiler.ir;
+
+/**
+ * Slot di un frame (o di un oggetto) letto dalle istruzioni LOAD: parametro, dichiarazione locale,
+ * temporaneo introdotto dai passi di ottimizzazione o campo dell'oggetto di un metodo.
+ *
+ * L'offset rispetto al frame pointer delle dichiarazioni e dei temporanei e' calcolato solo al
+ * momento della generazione del codice dalla posizione dello slot nel suo frame: i passi possono
+ * togliere dichiarazioni o aggiungere temporanei senza rinumerare niente.
+ * Layout del frame: [AL][RA][temporanei][dichiarazioni], con i parametri sopra l'AL.
+ */
+public final class Slot {
+
+	public enum Kind { PARAM, LOCAL, TEMP, FIELD }
+
+	public final Kind kind;
+	final IrFunction owner; // null per i campi
+	final String name;
+	private final int offset; // parametri e campi: offset fisso
+
+	Slot(Kind kind, IrFunction owner, String name, int offset) {
+		this.kind = kind;
+		this.owner = owner;
+		this.name = name;
+		this.offset = offset;
+	}
+
+	public static Slot field(String name, int offset) {
+		return new Slot(Kind.FIELD, null, name, offset);
+	}
+
+	public int offset() {
+		return switch (kind) {
+			case PARAM, FIELD -> offset;
+			case TEMP -> -2 - owner.temps.indexOf(this);
+			case LOCAL -> -2 - owner.temps.size() - owner.locals.indexOf(this);
+		};
+	}
+
+	@Override
+	public String toString() {
+		return switch (kind) {
+			case PARAM -> name+"@p"+offset;
+			case FIELD -> name+"@f"+offset;
+			case TEMP -> "t"+owner.temps.indexOf(this);
+			case LOCAL -> name;
+		};
+	}
+
+}
@@ -0,0 +1,61 @@
+package compiler.ir;
+
+import java.util.*;
+
+/**
+ * Controlla che la IR sia ben formata (IllegalStateException altrimenti): ogni blocco terminato e
+ * con successori nella sua funzione, stack degli operandi mai sotto zero e della stessa altezza
+ * all'ingresso di un blocco da tutti i predecessori, DEFINE con solo il valore della dichiarazione
+ * sullo stack (che diventa lo slot del frame) e nell'ordine degli slot, RETURN con solo il
+ * risultato. La usa il PassManager dopo ogni passo.
+ */
+final class Verifier {
+
+	private Verifier() {}
+
+	static void check(IrProgram program) {
+		for (IrFunction f : program.all()) check(f);
+	}
+
+	static void check(IrFunction f) {
+		String where = f.label == null ? "main" : f.label;
+		Set<Block> own = new HashSet<>(f.blocks);
+		for (Block b : f.blocks) {
+			if (b.end == null) throw error(where, b, "not terminated");
+			for (Block s : b.successors()) if (!own.contains(s)) throw error(where, b, "jumps outside its function");
+		}
+		Map<Block, Integer> height = new HashMap<>();
+		Map<Block, Integer> defined = new HashMap<>(); // dichiarazioni gia' fatte all'ingresso
+		height.put(f.entry(), 0);
+		defined.put(f.entry(), 0);
+		Deque<Block> work = new ArrayDeque<>(List.of(f.entry()));
+		while (!work.isEmpty()) {
+			Block b = work.pop();
+			int h = height.get(b), d = defined.get(b);
+			for (Instr i : b.code) {
+				if (h < i.pops()) throw error(where, b, "stack underflow at "+i);
+				if (i.op == Instr.Op.DEFINE) {
+					if (h != 1) throw error(where, b, i+" with "+h+" values on the stack");
+					if (d >= f.locals.size() || f.locals.get(d) != i.slot) throw error(where, b, i+" out of order");
+					d++;
+				}
+				h += i.pushes()-i.pops();
+			}
+			if (h < b.end.pops()) throw error(where, b, "stack underflow at "+b.end);
+			if (b.end.op == Instr.Op.RETURN && h != 1) throw error(where, b, "return with "+h+" values on the stack");
+			if (b.end.op == Instr.Op.RETURN && d != f.locals.size()) throw error(where, b, "return before all declarations");
+			h -= b.end.pops();
+			for (Block s : b.successors()) {
+				Integer hs = height.putIfAbsent(s, h);
+				Integer ds = defined.putIfAbsent(s, d);
+				if (hs == null) work.push(s);
+				else if (hs != h || ds != d) throw error(where, s, "inconsistent stack at entry");
+			}
+		}
+	}
+
+	private static IllegalStateException error(String function, Block b, String message) {
+		return new IllegalStateException("IR of "+function+", block B"+b.id+": "+message);
+	}
+
+}
@@ -0,0 +1,51 @@
+package compiler.lib;
+
+import java.util.*;
+
+/**
+ * Lista persistente a strati: i primi elementi sono quelli della lista padre, condivisa e non
+ * copiata (il padre non deve piu' essere modificato); lo strato proprio tiene solo gli elementi
+ * ridefiniti (set su un indice del padre) e quelli aggiunti in coda.
+ * Usata per allFields/allMethods di ClassTypeNode e per le dispatch table delle sottoclassi.
+ */
+public class OverlayList<T> extends AbstractList<T> {
+
+	private final List<T> parent;
+	private final int parentSize;
+	private final Map<Integer,T> overridden = new HashMap<>();
+	private final List<T> appended = new ArrayList<>();
+
+	public OverlayList(List<T> parent) {
+		this.parent = parent;
+		this.parentSize = parent.size();
+	}
+
+	@Override
+	public T get(int i) {
+		if (i < 0 || i >= size()) throw new IndexOutOfBoundsException(i);
+		if (i >= parentSize) return appended.get(i - parentSize);
+		T v = overridden.get(i);
+		return v != null || overridden.containsKey(i) ? v : parent.get(i);
+	}
+
+	@Override
+	public T set(int i, T value) {
+		T previous = get(i);
+		if (i >= parentSize) appended.set(i - parentSize, value);
+		else overridden.put(i, value);
+		return previous;
+	}
+
+	@Override
+	public void add(int i, T value) { // solo in coda
+		if (i != size()) throw new UnsupportedOperationException();
+		appended.add(value);
+		modCount++;
+	}
+
+	@Override
+	public int size() {
+		return parentSize + appended.size();
+	}
+
+}
@@ -0,0 +1,46 @@
+package compiler.lib;
+
+import java.util.*;
+
+/**
+ * Mappa persistente a strati: le chiavi non presenti nello strato proprio vengono cercate nella
+ * mappa padre, che viene condivisa e non copiata (il padre non deve piu' essere modificato).
+ * Usata per le virtual table: una sottoclasse memorizza solo i membri che dichiara o ridefinisce.
+ * I valori null non sono ammessi.
+ */
+public class OverlayMap<K,V> extends AbstractMap<K,V> {
+
+	private final Map<K,V> parent;
+	private final Map<K,V> own = new HashMap<>();
+
+	public OverlayMap(Map<K,V> parent) {
+		this.parent = parent;
+	}
+
+	@Override
+	public V get(Object key) {
+		V v = own.get(key);
+		return v != null ? v : parent.get(key);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	@Override
+	public V put(K key, V value) {
+		V previous = get(key);
+		own.put(key, Objects.requireNonNull(value));
+		return previous;
+	}
+
+	// vista unita (padre ridefinito dallo strato proprio): costruita solo se qualcuno la chiede
+	@Override
+	public Set<Entry<K,V>> entrySet() {
+		Map<K,V> all = new LinkedHashMap<>(parent);
+		all.putAll(own);
+		return Collections.unmodifiableMap(all).entrySet();
+	}
+
+}
@@ -0,0 +1,36 @@
+package compiler.lib;
+
+import jdk.jfr.*;
+
+/**
+ * Evento JFR per una fase del compilatore (lex/parse, generazione AST, symbol table, ...).
+ * Se non c'e' una registrazione JFR attiva begin/commit non fanno nulla.
+ */
+@Name("fool.CompilerPhase")
+@Label("FOOL Compiler Phase")
+@Category({"FOOL", "Compiler"})
+public class PhaseEvent extends Event {
+
+	@Label("Phase")
+	public String phase;
+
+	@Label("Source")
+	public String source;
+
+	@Label("Errors")
+	public int errors;
+
+	public static PhaseEvent start(String phase, String source) {
+		PhaseEvent e = new PhaseEvent();
+		e.phase = phase;
+		e.source = source;
+		e.begin();
+		return e;
+	}
+
+	public void end(int errors) {
+		this.errors = errors;
+		commit();
+	}
+
+}
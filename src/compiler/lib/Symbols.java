@@ -0,0 +1,32 @@
+package compiler.lib;
+
+import java.util.*;
+
+/**
+ * Internamento degli identificatori: ogni nome distinto riceve un intero (0, 1, 2, ...)
+ * usato dalla symbol table per indicizzare direttamente le pile dei binding.
+ */
+public class Symbols {
+
+	private final Map<String,Integer> ids = new HashMap<>();
+	private final List<String> names = new ArrayList<>();
+
+	public int intern(String name) {
+		Integer sym = ids.get(name);
+		if (sym == null) {
+			sym = names.size();
+			ids.put(name, sym);
+			names.add(name);
+		}
+		return sym;
+	}
+
+	public String name(int sym) {
+		return names.get(sym);
+	}
+
+	public int size() {
+		return names.size();
+	}
+
+}
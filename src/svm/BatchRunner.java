@@ -0,0 +1,89 @@
+package svm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Esegue in parallelo un lotto di programmi gia' assemblati, ognuno in una propria ExecuteVM
+ * (il codice e' condiviso in sola lettura, la memoria viene dal MemoryPool).
+ * L'output di ogni programma e' catturato a parte; un programma che supera il timeout
+ * viene fermato con ExecuteVM.stop().
+ */
+public class BatchRunner implements AutoCloseable {
+
+    public enum Status { HALTED, TIMEOUT, FAILED }
+
+    public static class Result {
+        public final Status status;
+        public final int[] output;
+        public final Throwable error; // solo per FAILED (es. stack overflow, divisione per zero)
+        public final long nanos;
+
+        Result(Status status, int[] output, Throwable error, long nanos) {
+            this.status = status;
+            this.output = output;
+            this.error = error;
+            this.nanos = nanos;
+        }
+    }
+
+    private final ExecutorService workers;
+    private final ScheduledExecutorService timer;
+    private final MemoryPool pool;
+
+    public BatchRunner() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public BatchRunner(int threads) {
+        workers = Executors.newFixedThreadPool(threads, r -> daemon(r, "svm-worker"));
+        timer = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "svm-timeout"));
+        pool = new MemoryPool(threads);
+    }
+
+    private static Thread daemon(Runnable r, String name) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    // risultati nello stesso ordine dei programmi
+    public List<Result> run(List<int[]> programs, long timeoutMillis) throws InterruptedException {
+        List<Future<Result>> futures = new ArrayList<>();
+        for (int[] code : programs) futures.add(workers.submit(() -> execute(code, timeoutMillis)));
+        List<Result> results = new ArrayList<>();
+        for (Future<Result> f : futures) {
+            try {
+                results.add(f.get());
+            } catch (ExecutionException e) { // execute cattura gia' tutto
+                results.add(new Result(Status.FAILED, new int[0], e.getCause(), 0));
+            }
+        }
+        return results;
+    }
+
+    private Result execute(int[] code, long timeoutMillis) {
+        int[] memory = pool.acquire();
+        CaptureOutputSink out = new CaptureOutputSink();
+        ExecuteVM vm = new ExecuteVM(code, memory, out);
+        ScheduledFuture<?> timeout = timer.schedule(vm::stop, timeoutMillis, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        try {
+            vm.cpu();
+            return new Result(vm.isHalted() ? Status.HALTED : Status.TIMEOUT, out.values(), null, System.nanoTime() - start);
+        } catch (RuntimeException e) {
+            return new Result(Status.FAILED, out.values(), e, System.nanoTime() - start);
+        } finally {
+            timeout.cancel(false);
+            pool.release(vm);
+        }
+    }
+
+    @Override
+    public void close() {
+        workers.shutdownNow();
+        timer.shutdownNow();
+    }
+
+}
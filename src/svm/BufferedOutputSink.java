@@ -0,0 +1,94 @@
+package svm;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Sink di default: converte gli interi in ASCII direttamente in un buffer di byte
+ * e scrive sullo stream solo quando il buffer e' pieno o su flush (a halt).
+ */
+public class BufferedOutputSink implements OutputSink {
+
+    private static final byte[] NEWLINE = System.lineSeparator().getBytes();
+    private static final byte[] EMPTY_STACK = "Empty stack!".getBytes();
+    private static final byte[] MIN_VALUE = Integer.toString(Integer.MIN_VALUE).getBytes();
+    private static final int MAX_LINE = 11 + 2; // "-2147483648" + separatore
+
+    private final OutputStream out;
+    private final byte[] buf;
+    private int count = 0;
+
+    public BufferedOutputSink(OutputStream out) {
+        this(out, 8192);
+    }
+
+    public BufferedOutputSink(OutputStream out, int size) {
+        this.out = out;
+        this.buf = new byte[Math.max(size, MAX_LINE + EMPTY_STACK.length)];
+    }
+
+    @Override
+    public void print(int v) {
+        if (buf.length - count < MAX_LINE) drain();
+        if (v == Integer.MIN_VALUE) { // -v non e' rappresentabile
+            System.arraycopy(MIN_VALUE, 0, buf, count, MIN_VALUE.length);
+            count += MIN_VALUE.length;
+        } else {
+            if (v < 0) {
+                buf[count++] = '-';
+                v = -v;
+            }
+            int end = count + digits(v);
+            int i = end;
+            do {
+                buf[--i] = (byte) ('0' + v % 10);
+                v /= 10;
+            } while (v != 0);
+            count = end;
+        }
+        newline();
+    }
+
+    @Override
+    public void printEmptyStack() {
+        if (buf.length - count < EMPTY_STACK.length + NEWLINE.length) drain();
+        System.arraycopy(EMPTY_STACK, 0, buf, count, EMPTY_STACK.length);
+        count += EMPTY_STACK.length;
+        newline();
+    }
+
+    @Override
+    public void flush() {
+        drain();
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void newline() {
+        for (byte b : NEWLINE) buf[count++] = b;
+    }
+
+    private static int digits(int v) { // v >= 0
+        int d = 1;
+        while (v >= 10) {
+            v /= 10;
+            d++;
+        }
+        return d;
+    }
+
+    private void drain() {
+        if (count == 0) return;
+        try {
+            out.write(buf, 0, count);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        count = 0;
+    }
+
+}
@@ -0,0 +1,45 @@
+package svm;
+
+import java.util.Arrays;
+
+/**
+ * Sink che accumula i valori stampati in un int[] (per test e benchmark).
+ */
+public class CaptureOutputSink implements OutputSink {
+
+    private int[] values = new int[64];
+    private int size = 0;
+    private int emptyStackPrints = 0;
+
+    @Override
+    public void print(int v) {
+        if (size == values.length) values = Arrays.copyOf(values, size * 2);
+        values[size++] = v;
+    }
+
+    @Override
+    public void printEmptyStack() {
+        emptyStackPrints++;
+    }
+
+    @Override
+    public void flush() {}
+
+    public int[] values() {
+        return Arrays.copyOf(values, size);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int emptyStackPrints() {
+        return emptyStackPrints;
+    }
+
+    public void clear() {
+        size = 0;
+        emptyStackPrints = 0;
+    }
+
+}
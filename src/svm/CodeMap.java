@@ -0,0 +1,119 @@
+package svm;
+
+import java.util.*;
+
+/**
+ * Mappa indirizzi del codice -> etichette, costruita a partire dalle etichette definite
+ * dall'assembler (SVMParser.labelDef).
+ * Le etichette "functionN" e "methodN" generate dal compilatore FOOL sono i punti di
+ * ingresso di funzioni e metodi: una js verso uno di questi e' una chiamata, le altre
+ * js sono ritorni.
+ * Il compilatore puo' fornire anche il numero di parametri di ogni funzione, con cui si risale
+ * la catena dei record di attivazione (il control link sta sopra i parametri).
+ */
+public class CodeMap {
+
+    public static final String MAIN = "(main)";
+
+    private final int[] addresses;  // indirizzi delle etichette, ordinati
+    private final String[] labels;  // etichetta per indirizzo (stesso indice di addresses)
+    private final Map<Integer,Integer> entries = new HashMap<>(); // indirizzo -> indice funzione
+    private final List<String> functions = new ArrayList<>();     // indice 0: codice principale
+    private final List<Integer> starts = new ArrayList<>();       // indirizzo d'ingresso per funzione
+    private final List<Integer> arities = new ArrayList<>();      // parametri per funzione, -1 se non noti
+
+    public CodeMap(Map<String,Integer> labelDef) {
+        this(labelDef, Map.of());
+    }
+
+    // arities: numero di parametri per etichetta di funzione o metodo
+    public CodeMap(Map<String,Integer> labelDef, Map<String,Integer> arities) {
+        List<Map.Entry<String,Integer>> sorted = new ArrayList<>(labelDef.entrySet());
+        sorted.sort(Map.Entry.comparingByValue());
+        addresses = new int[sorted.size()];
+        labels = new String[sorted.size()];
+        for (int i = 0; i < sorted.size(); i++) {
+            addresses[i] = sorted.get(i).getValue();
+            labels[i] = sorted.get(i).getKey();
+        }
+        functions.add(MAIN);
+        starts.add(0);
+        this.arities.add(0);
+        for (int i = 0; i < labels.length; i++)
+            if (isFunctionLabel(labels[i])) {
+                entries.put(addresses[i], functions.size());
+                functions.add(labels[i]);
+                starts.add(addresses[i]);
+                this.arities.add(arities.getOrDefault(labels[i], -1));
+            }
+    }
+
+    public static boolean isFunctionLabel(String label) {
+        return label.startsWith("function") || label.startsWith("method");
+    }
+
+    // indice della funzione che inizia a target, -1 se target non e' un punto di ingresso
+    public int functionAt(int target) {
+        Integer f = entries.get(target);
+        return f == null ? -1 : f;
+    }
+
+    public int functionCount() {
+        return functions.size();
+    }
+
+    public String functionName(int f) {
+        return functions.get(f);
+    }
+
+    // indice della funzione il cui codice contiene address (le funzioni seguono il codice principale)
+    public int functionContaining(int address) {
+        int lo = 1, hi = starts.size() - 1, found = 0;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts.get(mid) <= address) {
+                found = mid;
+                lo = mid + 1;
+            } else hi = mid - 1;
+        }
+        return found;
+    }
+
+    public int arity(int f) {
+        return arities.get(f);
+    }
+
+    // indice dell'ultima etichetta definita ad un indirizzo <= address, -1 se non c'e'
+    public int labelIndexAt(int address) {
+        int lo = 0, hi = addresses.length - 1, found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (addresses[mid] <= address) {
+                found = mid;
+                lo = mid + 1;
+            } else hi = mid - 1;
+        }
+        return found;
+    }
+
+    public int labelCount() {
+        return labels.length;
+    }
+
+    public String label(int i) {
+        return i < 0 ? MAIN : labels[i];
+    }
+
+    public int labelAddress(int i) {
+        return addresses[i];
+    }
+
+    // etichetta (con eventuale scostamento) che contiene l'indirizzo, es. "function3+12"
+    public String describe(int address) {
+        int i = labelIndexAt(address);
+        if (i < 0) return MAIN + "+" + address;
+        int delta = address - addresses[i];
+        return delta == 0 ? labels[i] : labels[i] + "+" + delta;
+    }
+
+}
@@ -1,11 +1,22 @@
 package svm;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
 public class ExecuteVM {
     
     public static final int CODESIZE = 10000;
     public static final int MEMSIZE = 10000;
     
     private int[] code;
-    private int[] memory = new int[MEMSIZE];
+    private int[] memory;
     
     private int ip = 0;
     private int sp = MEMSIZE;
@@ -14,14 +25,155 @@ public class ExecuteVM {
     private int fp = MEMSIZE; 
     private int ra;           
     private int tm;
+
+    // memoria scritta: al piu' [0, heapTop) e [stackLow(), MEMSIZE); MemoryPool azzera solo quella.
+    // Ogni istruzione eseguita fa scendere $sp al piu' di uno, quindi lo stack non e' sceso sotto
+    // MEMSIZE-executed (parole di codice eseguite): nessun costo nel ciclo di esecuzione
+    private int heapTop = 0;
+    private long executed = 0;
+
+    private final OutputSink out;
+
+    private ExecutionListener listener; // null: nessun hook nel ciclo di esecuzione
+
+    private Path checkpointFile; // dove l'istruzione chkp salva lo snapshot (null: chkp non fa nulla)
+
+    // "carburante": budget di esecuzione misurato in parole di codice, addebitato un blocco base
+    // alla volta (a ogni salto eseguito) e non a ogni istruzione; finito il budget la macchina
+    // si sospende con lo stato intatto e run() puo' riprenderla
+    private long fuel = Long.MAX_VALUE;
+    private int blockStart = 0; // indirizzo di inizio del blocco base corrente
+
+    private volatile boolean stopRequested = false; // controllato solo ai salti
+
+    private SamplingProfiler sampler; // null: nessun campionamento
+    private volatile boolean sampleRequested = false; // come stopRequested, controllato solo ai salti
+
+    // tabelle di memoizzazione per indirizzo d'ingresso della funzione (la sua memoget); sono una
+    // cache: non fanno parte degli snapshot
+    private final Map<Integer, MemoTable> memo = new HashMap<>();
+    private int memoCapacity = MemoTable.DEFAULT_CAPACITY;
+    private boolean halted = false;
     
     public ExecuteVM(int[] code) {
+      this(code, new BufferedOutputSink(System.out));
+    }
+
+    public ExecuteVM(int[] code, OutputSink out) {
+      this(code, new int[MEMSIZE], out);
+    }
+
+    // memory deve essere lunga MEMSIZE e azzerata (vedi MemoryPool)
+    public ExecuteVM(int[] code, int[] memory, OutputSink out) {
       this.code = code;
+      this.memory = memory;
+      this.out = out;
+    }
+
+    public void setCheckpointFile(Path checkpointFile) {
+      this.checkpointFile = checkpointFile;
+    }
+
+    public void setListener(ExecutionListener listener) {
+      this.listener = listener;
+    }
+
+    // aggiunge un listener a quelli gia' presenti, che ricevono gli hook per primi
+    public void addListener(ExecutionListener listener) {
+      this.listener = this.listener == null ? listener : new ListenerPair(this.listener, listener);
+    }
+
+    // usato da SamplingProfiler.start: i campioni richiesti con requestSample vanno a sampler
+    void setSampler(SamplingProfiler sampler) {
+      this.sampler = sampler;
+    }
+
+    void requestSample() {
+      sampleRequested = true;
+    }
+
+    public int getIp() { return ip; }
+    public int getSp() { return sp; }
+    public int getFp() { return fp; }
+    public int getHp() { return hp; }
+
+    public boolean isHalted() { return halted; }
+
+    // risultati tenuti per ogni funzione memoizzata (vale per le tabelle non ancora create)
+    public void setMemoCapacity(int memoCapacity) {
+      this.memoCapacity = memoCapacity;
+    }
+
+    public Map<Integer, MemoTable> getMemoTables() { return memo; }
+
+    public long getFuel() { return fuel; }
+
+    int[] memory() { return memory; }
+    int heapTop() { return heapTop; }
+    int stackLow() { return (int) Math.max(0, MEMSIZE - executed); }
+
+    // richiede l'interruzione dell'esecuzione (anche da un altro thread): la macchina si ferma
+    // al prossimo salto; i programmi FOOL non hanno cicli, quindi ogni esecuzione lunga passa da js.
+    // La richiesta ferma solo il run() in corso (o il prossimo): lo stato resta intatto e un
+    // altro run() riprende l'esecuzione
+    public void stop() {
+      stopRequested = true;
     }
     
     public void cpu() {
+      run(Long.MAX_VALUE);
+    }
+
+    // esegue fino a halt o finche' non si esaurisce fuel; ritorna true se la macchina e' arrivata a halt
+    public boolean run(long fuel) {
+      this.fuel = fuel;
+      blockStart = ip;
+      try {
+        if (listener == null) {
+          while ( execute(code[ip++]) ); // fetch + execute
+        } else {
+          tracedLoop();
+        }
+        if (stopRequested && !halted) stopRequested = false; // richiesta soddisfatta
+      } finally {
+        executed += fuel - this.fuel + (ip - blockStart); // anche il blocco non addebitato (halt, eccezione)
+        out.flush(); // l'output e' bufferizzato: va scaricato anche se l'esecuzione fallisce
+      }
+      return halted;
+    }
+
+    // ciclo usato solo quando c'e' un listener: il ciclo normale non paga niente per gli hook
+    private void tracedLoop() {
+      ExecutionListener l = listener;
       while ( true ) {
-        int bytecode = code[ip++]; // fetch
+        int address = ip;
+        int bytecode = code[ip++];
+        l.instruction(address, bytecode);
+        if (bytecode == SVMParser.JS) l.jump(address, memory[sp]);
+        else if (bytecode == SVMParser.STOREHP) l.heap(address, hp, memory[sp]);
+        boolean more = execute(bytecode);
+        if (bytecode == SVMParser.MEMOGET && ip != address + 2) l.jump(address, ip); // ritorno senza frame
+        if (!more) break;
+      }
+      if (halted) l.halt();
+    }
+
+    // chiude il blocco base corrente (ip e' subito dopo il salto) addebitandone la lunghezza
+    // e salta a target; ritorna false se la macchina deve sospendersi
+    private boolean enterBlock(int target) {
+        fuel -= ip - blockStart;
+        ip = blockStart = target;
+        if (sampleRequested) sample();
+        return fuel > 0 && !stopRequested;
+    }
+
+    private void sample() {
+        sampleRequested = false;
+        if (sampler != null) sampler.record(ip, fp, ra, memory);
+    }
+
+    // esegue l'istruzione appena letta; ritorna false su halt o se la macchina si sospende
+    private boolean execute(int bytecode) {
         int v1,v2;
         int address;
         switch ( bytecode ) {
@@ -54,30 +206,31 @@ public class ExecuteVM {
           case SVMParser.STOREW : //
             address = pop();
             memory[address] = pop();    
+            if (address >= heapTop && address < sp) heapTop = address + 1; // da $sp in su e' stack
             break;
           case SVMParser.LOADW : //
             push(memory[pop()]);
             break;
           case SVMParser.BRANCH : 
-            address = code[ip];
-            ip = address;
+            address = code[ip++];
+            if (!enterBlock(address)) return false;
             break;
           case SVMParser.BRANCHEQ :
             address = code[ip++];
             v1=pop();
             v2=pop();
-            if (v2 == v1) ip = address;
+            if (v2 == v1 && !enterBlock(address)) return false;
             break;
           case SVMParser.BRANCHLESSEQ :
             address = code[ip++];
             v1=pop();
             v2=pop();
-            if (v2 <= v1) ip = address;
+            if (v2 <= v1 && !enterBlock(address)) return false;
             break;
           case SVMParser.JS : //
             address = pop();
             ra = ip;
-            ip = address;
+            if (!enterBlock(address)) return false;
             break;
          case SVMParser.STORERA : //
             ra=pop();
@@ -107,14 +260,88 @@ public class ExecuteVM {
             push(hp);
             break;
          case SVMParser.PRINT :
-            System.out.println((sp<MEMSIZE)?memory[sp]:"Empty stack!");
+            if (sp<MEMSIZE) out.print(memory[sp]);
+            else out.printEmptyStack();
             break;
          case SVMParser.HALT :
-            return;
+            fuel -= ip - blockStart; // l'ultimo blocco non finisce con un salto
+            blockStart = ip;
+            halted = true;
+            return false;
+         case SVMParser.MEMOGET : // all'ingresso di una funzione: [CL][argomenti][AL] in cima
+            address = ip - 1;
+            v1 = code[ip++]; // numero di argomenti
+            Integer result = memoTable(address).get(memory, sp + 1);
+            if (result != null) { // ritorno senza costruire il frame
+              sp += v1 + 2;
+              push(result);
+              if (!enterBlock(ra)) return false;
+            }
+            break;
+         case SVMParser.MEMOPUT : // prima dell'epilogo: risultato in cima, argomenti da $fp+1
+            memoTable(code[ip++]).put(memory, fp + 1, memory[sp]);
+            break;
+         case SVMParser.CHECKPOINT :
+            if (checkpointFile != null) {
+              try {
+                checkpoint(checkpointFile);
+              } catch (IOException e) {
+                throw new UncheckedIOException(e);
+              }
+            }
+            break;
         }
+        return true;
+    }
+
+    // SNAPSHOT: magic, versione, lunghezza codice, lunghezza memoria, ip sp fp hp ra tm, codice, memoria
+
+    private static final int SNAPSHOT_MAGIC = 0x53564D53; // "SVMS"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int SNAPSHOT_HEADER = 10;
+
+    // salva lo stato completo della macchina; a chkp ip punta gia' all'istruzione successiva
+    public void checkpoint(Path file) throws IOException {
+      try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+              StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        long size = 4L * (SNAPSHOT_HEADER + code.length + memory.length);
+        MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        IntBuffer ints = buf.asIntBuffer();
+        ints.put(SNAPSHOT_MAGIC).put(SNAPSHOT_VERSION).put(code.length).put(memory.length);
+        ints.put(ip).put(sp).put(fp).put(hp).put(ra).put(tm);
+        ints.put(code).put(memory);
+        buf.force();
       }
-    } 
-    
+    }
+
+    public static ExecuteVM restore(Path file) throws IOException {
+      return restore(file, new BufferedOutputSink(System.out));
+    }
+
+    public static ExecuteVM restore(Path file, OutputSink out) throws IOException {
+      try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+        IntBuffer ints = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()).asIntBuffer();
+        if (ints.remaining() < SNAPSHOT_HEADER || ints.get() != SNAPSHOT_MAGIC || ints.get() != SNAPSHOT_VERSION)
+          throw new IOException(file + " is not an SVM snapshot");
+        int codeLength = ints.get(), memLength = ints.get();
+        if (memLength != MEMSIZE || ints.remaining() != 6 + codeLength + memLength)
+          throw new IOException(file + " is not compatible with this SVM");
+        ExecuteVM vm = new ExecuteVM(new int[codeLength], out);
+        vm.ip = ints.get(); vm.sp = ints.get(); vm.fp = ints.get();
+        vm.hp = ints.get(); vm.ra = ints.get(); vm.tm = ints.get();
+        ints.get(vm.code).get(vm.memory);
+        vm.executed = MEMSIZE; // memoria tutta scritta
+        return vm;
+      }
+    }
+
+    // tabella della funzione con ingresso entry, dove memoget ne indica il numero di argomenti
+    private MemoTable memoTable(int entry) {
+      MemoTable t = memo.get(entry);
+      if (t == null) memo.put(entry, t = new MemoTable(code[entry + 1], memoCapacity));
+      return t;
+    }
+
     private int pop() {
       return memory[sp++];
     }
@@ -0,0 +1,20 @@
+package svm;
+
+/**
+ * Hook opzionali sul ciclo di esecuzione della SVM (profiling, sampling, ...).
+ * Se la macchina non ha un listener il ciclo principale non li invoca affatto.
+ */
+public interface ExecutionListener {
+
+    // prima dell'esecuzione dell'istruzione all'indirizzo address
+    default void instruction(int address, int opcode) {}
+
+    // istruzione js all'indirizzo from, che salta a target (chiamata o ritorno)
+    default void jump(int from, int target) {}
+
+    // istruzione shp all'indirizzo address: $hp passa da oldHp a newHp
+    default void heap(int address, int oldHp, int newHp) {}
+
+    default void halt() {}
+
+}
@@ -0,0 +1,73 @@
+package svm;
+
+import jdk.jfr.EventType;
+
+import java.util.Arrays;
+
+/**
+ * Emette gli eventi JFR della SVM: un VMFrameEvent per ogni attivazione di funzione/metodo
+ * e, a halt, un VMExecutionEvent con i massimi di heap, stack e profondita' di chiamata.
+ * Va collegato solo se isRecording() (altrimenti la macchina usa il ciclo senza hook).
+ */
+public class JfrListener implements ExecutionListener {
+
+    private final ExecuteVM vm;
+    private final CodeMap map;
+    private final VMExecutionEvent execution = new VMExecutionEvent();
+    private final boolean frames = EventType.getEventType(VMFrameEvent.class).isEnabled();
+
+    private VMFrameEvent[] stack = new VMFrameEvent[64];
+    private int depth = 0;
+
+    public JfrListener(ExecuteVM vm, CodeMap map) {
+        this.vm = vm;
+        this.map = map;
+        execution.begin();
+    }
+
+    public static boolean isRecording() {
+        return EventType.getEventType(VMExecutionEvent.class).isEnabled()
+                || EventType.getEventType(VMFrameEvent.class).isEnabled();
+    }
+
+    @Override
+    public void instruction(int address, int opcode) {
+        execution.instructions++;
+        int stackDepth = ExecuteVM.MEMSIZE - vm.getSp();
+        if (stackDepth > execution.maxStackDepth) execution.maxStackDepth = stackDepth;
+    }
+
+    @Override
+    public void jump(int from, int target) {
+        int f = map.functionAt(target);
+        if (f >= 0) {
+            if (++depth == stack.length) stack = Arrays.copyOf(stack, depth * 2);
+            if (depth > execution.maxCallDepth) execution.maxCallDepth = depth;
+            if (frames) {
+                VMFrameEvent e = new VMFrameEvent();
+                e.function = map.functionName(f);
+                e.depth = depth;
+                e.begin();
+                stack[depth] = e;
+            }
+        } else if (depth > 0) {
+            VMFrameEvent e = stack[depth];
+            if (e != null) {
+                e.commit();
+                stack[depth] = null;
+            }
+            depth--;
+        }
+    }
+
+    @Override
+    public void heap(int address, int oldHp, int newHp) {
+        if (newHp > execution.heapHighWater) execution.heapHighWater = newHp;
+    }
+
+    @Override
+    public void halt() {
+        execution.commit();
+    }
+
+}
@@ -0,0 +1,40 @@
+package svm;
+
+/**
+ * Due listener sulla stessa macchina (ExecuteVM.addListener): ogni hook e' passato al primo e
+ * poi al secondo. Con piu' di due listener le coppie si annidano.
+ */
+final class ListenerPair implements ExecutionListener {
+
+    private final ExecutionListener first, second;
+
+    ListenerPair(ExecutionListener first, ExecutionListener second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    @Override
+    public void instruction(int address, int opcode) {
+        first.instruction(address, opcode);
+        second.instruction(address, opcode);
+    }
+
+    @Override
+    public void jump(int from, int target) {
+        first.jump(from, target);
+        second.jump(from, target);
+    }
+
+    @Override
+    public void heap(int address, int oldHp, int newHp) {
+        first.heap(address, oldHp, newHp);
+        second.heap(address, oldHp, newHp);
+    }
+
+    @Override
+    public void halt() {
+        first.halt();
+        second.halt();
+    }
+
+}
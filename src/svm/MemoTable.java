@@ -0,0 +1,73 @@
+package svm;
+
+import java.util.*;
+
+/**
+ * Tabella di memoizzazione di una funzione (istruzioni memoget e memoput): risultati indicizzati
+ * dai valori degli argomenti, al piu' capacity, eliminando quello usato meno di recente.
+ * Il compilatore la usa solo per funzioni pure il cui risultato dipende solo dagli argomenti.
+ */
+public final class MemoTable {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final int arity;
+    private final Map<Key, Integer> results;
+    private long hits, misses, evictions;
+
+    // argomenti di una chiamata
+    private static final class Key {
+        final int[] args;
+        final int hash;
+
+        Key(int[] args) {
+            this.args = args;
+            this.hash = Arrays.hashCode(args);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key k && Arrays.equals(args, k.args);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    MemoTable(int arity, int capacity) {
+        this.arity = arity;
+        this.results = new LinkedHashMap<>(16, 0.75f, true) { // in ordine di accesso: LRU
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Integer> eldest) {
+                if (size() <= capacity) return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    // risultato per gli argomenti in memory[from..from+arity-1], null se non c'e'
+    Integer get(int[] memory, int from) {
+        Integer result = results.get(new Key(Arrays.copyOfRange(memory, from, from + arity)));
+        if (result == null) misses++;
+        else hits++;
+        return result;
+    }
+
+    void put(int[] memory, int from, int result) {
+        results.put(new Key(Arrays.copyOfRange(memory, from, from + arity)), result);
+    }
+
+    public long hits() { return hits; }
+    public long misses() { return misses; }
+    public long evictions() { return evictions; }
+    public int size() { return results.size(); }
+
+    @Override
+    public String toString() {
+        return "hits " + hits + ", misses " + misses + ", evictions " + evictions + ", entries " + size();
+    }
+
+}
@@ -0,0 +1,34 @@
+package svm;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Pool di array di memoria (MEMSIZE interi) riusati tra un'istanza di ExecuteVM e l'altra.
+ * Un array viene azzerato quando torna nel pool, cosi' un programma non vede mai i dati
+ * lasciati dal precedente; si azzerano solo le parti che la macchina ha scritto (fondo dello
+ * heap e cima dello stack), di solito una piccola frazione di MEMSIZE.
+ */
+public class MemoryPool {
+
+    private final BlockingQueue<int[]> free;
+
+    public MemoryPool(int capacity) {
+        free = new ArrayBlockingQueue<>(capacity);
+    }
+
+    public int[] acquire() {
+        int[] memory = free.poll();
+        return memory != null ? memory : new int[ExecuteVM.MEMSIZE];
+    }
+
+    // restituisce la memoria di vm, che non deve piu' essere eseguita
+    public void release(ExecuteVM vm) {
+        int[] memory = vm.memory();
+        Arrays.fill(memory, 0, vm.heapTop(), 0);
+        Arrays.fill(memory, vm.stackLow(), memory.length, 0);
+        free.offer(memory); // se il pool e' pieno l'array viene lasciato al GC
+    }
+
+}
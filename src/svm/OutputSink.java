@@ -0,0 +1,15 @@
+package svm;
+
+/**
+ * Destinazione dei valori stampati dall'istruzione PRINT della SVM.
+ * Lo stack vuoto viene segnalato a parte, cosi' il caso normale resta su int senza boxing.
+ */
+public interface OutputSink {
+
+    void print(int v);
+
+    void printEmptyStack();
+
+    void flush();
+
+}
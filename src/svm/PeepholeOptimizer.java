@@ -0,0 +1,365 @@
+package svm;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import org.antlr.v4.runtime.*;
+
+/**
+ * Ottimizzatore peephole del codice SVM, tra la generazione del codice e l'assemblaggio: legge
+ * l'asm come lista di istruzioni ed etichette e applica la tabella Pattern finche' qualcosa cambia.
+ * Ogni passata scorre la lista una volta sola costruendone una nuova; i conteggi dei riferimenti
+ * alle etichette (push e salti) sono aggiornati a ogni riscrittura, quindi un'etichetta viene
+ * eliminata solo se nessun altro la usa.
+ *
+ * Dal codice generato si assume solo cio' che la SVM garantisce: $tm e' considerato vivo
+ * dopo ogni etichetta o salto, e halt non guarda lo stack.
+ *
+ * Con main(file.asm ...) riporta sul corpus i pattern applicati e le istruzioni statiche
+ * ed eseguite prima e dopo, controllando che l'output dei programmi non cambi.
+ */
+public class PeepholeOptimizer {
+
+    private static final int MAX_PASSES = 16;
+
+    // istruzione o, con op null, definizione dell'etichetta arg
+    static final class Instr {
+        final String op;
+        final String arg;
+        final boolean intArg; // arg e' un intero (altrimenti un'etichetta)
+
+        Instr(String op, String arg) {
+            this.op = op;
+            this.arg = arg;
+            this.intArg = arg != null && isInt(arg);
+        }
+
+        // operando che fa riferimento a un'etichetta
+        boolean refersLabel() { return op != null && arg != null && !intArg; }
+
+        boolean isLabel() { return op == null; }
+        boolean is(String o) { return o.equals(op); }
+        boolean isBranch() { return is("b") || is("beq") || is("bleq"); }
+        boolean isPushInt() { return intArg && is("push"); }
+        boolean isPush(int v) { return isPushInt() && Integer.parseInt(arg) == v; }
+
+        @Override
+        public String toString() {
+            return op == null ? arg + ":" : arg == null ? op : op + " " + arg;
+        }
+    }
+
+    enum Pattern {
+        /** push 0; add  oppure  push 0; sub  ->  niente */
+        ADD_ZERO("push") {
+            int match(PeepholeOptimizer p, int i) {
+                if (!p.at(i).isPush(0) || !(p.at(i+1) != null && (p.at(i+1).is("add") || p.at(i+1).is("sub")))) return 0;
+                return p.rewrite(i, 2);
+            }
+        },
+        /** push a; push b; add|sub|mult  ->  push (a op b) */
+        CONSTANT_FOLD("push") {
+            int match(PeepholeOptimizer p, int i) {
+                Instr a = p.at(i), b = p.at(i+1), o = p.at(i+2);
+                if (o == null || !a.isPushInt() || !b.isPushInt()) return 0;
+                int x = Integer.parseInt(a.arg), y = Integer.parseInt(b.arg);
+                int r;
+                if (o.is("add")) r = x+y;
+                else if (o.is("sub")) r = x-y;
+                else if (o.is("mult")) r = x*y;
+                else return 0;
+                return p.rewrite(i, 3, new Instr("push", Integer.toString(r)));
+            }
+        },
+        /**
+         * valore 0/1 materializzato e subito confrontato:
+         *   bX L1; push a; b L2; L1: push b; L2: push c; beq T
+         * con L1 e L2 usate solo qui diventa  bX T  se b == c != a, oppure  bX L1; b T; L1:  se a == c != b
+         */
+        BRANCH_ON_BOOL("beq", "bleq") {
+            int match(PeepholeOptimizer p, int i) {
+                Instr br = p.at(i), a = p.at(i+1), j = p.at(i+2), l1 = p.at(i+3), b = p.at(i+4), l2 = p.at(i+5), c = p.at(i+6), beq = p.at(i+7);
+                if (beq == null || !(br.is("beq") || br.is("bleq")) || !a.isPushInt() || !j.is("b")
+                        || !l1.isLabel() || !l1.arg.equals(br.arg) || !b.isPushInt() || !l2.isLabel() || !l2.arg.equals(j.arg)
+                        || !c.isPushInt() || !beq.is("beq") || p.refs(l1.arg) != 1 || p.refs(l2.arg) != 1) return 0;
+                if (b.arg.equals(c.arg) && !a.arg.equals(c.arg)) return p.rewrite(i, 8, new Instr(br.op, beq.arg));
+                if (a.arg.equals(c.arg) && !b.arg.equals(c.arg))
+                    return p.rewrite(i, 8, new Instr(br.op, l1.arg), new Instr("b", beq.arg), l1);
+                return 0;
+            }
+        },
+        /** salto a un'etichetta seguita da  b M  ->  salto a M (fino in fondo alla catena) */
+        JUMP_THREADING("b", "beq", "bleq") {
+            int match(PeepholeOptimizer p, int i) {
+                Instr br = p.at(i);
+                String target = p.threaded(br.arg);
+                return target == null ? 0 : p.rewrite(i, 1, new Instr(br.op, target));
+            }
+        },
+        /** b L seguito (al piu' da altre etichette) da L:  ->  niente */
+        JUMP_TO_NEXT("b") {
+            int match(PeepholeOptimizer p, int i) {
+                if (!p.at(i).is("b")) return 0;
+                for (int k = i+1; p.at(k) != null && p.at(k).isLabel(); k++)
+                    if (p.at(k).arg.equals(p.at(i).arg)) return p.rewrite(i, 1);
+                return 0;
+            }
+        },
+        /** stm; ltm  ->  niente, se $tm e' riscritto prima di essere riletto */
+        STORE_LOAD_TM("stm") {
+            int match(PeepholeOptimizer p, int i) {
+                if (!p.at(i).is("stm") || p.at(i+1) == null || !p.at(i+1).is("ltm")) return 0;
+                for (int k = i+2; p.at(k) != null; k++) {
+                    Instr n = p.at(k);
+                    if (n.is("stm") || n.is("halt")) return p.rewrite(i, 2);
+                    if (n.is("ltm") || n.isLabel() || n.isBranch() || n.is("js")) return 0;
+                }
+                return 0;
+            }
+        },
+        /** push x|lfp|lhp|lra|ltm; pop  ->  niente */
+        PUSH_POP("push", "lfp", "lhp", "lra", "ltm") {
+            int match(PeepholeOptimizer p, int i) {
+                Instr v = p.at(i), pop = p.at(i+1);
+                if (pop == null || !pop.is("pop") || !(v.is("push") || v.is("lfp") || v.is("lhp") || v.is("lra") || v.is("ltm"))) return 0;
+                return p.rewrite(i, 2);
+            }
+        },
+        /** pop prima di halt: lo stack non serve piu'  ->  niente */
+        POP_BEFORE_HALT("pop") {
+            int match(PeepholeOptimizer p, int i) {
+                int k = i;
+                while (p.at(k) != null && p.at(k).is("pop")) k++;
+                if (k == i || p.at(k) == null || !p.at(k).is("halt")) return 0;
+                return p.rewrite(i, k-i);
+            }
+        },
+        /** istruzioni dopo b o halt e prima della prossima etichetta: irraggiungibili */
+        UNREACHABLE("b", "halt") {
+            int match(PeepholeOptimizer p, int i) {
+                if (!(p.at(i).is("b") || p.at(i).is("halt"))) return 0;
+                int k = i+1;
+                while (p.at(k) != null && !p.at(k).isLabel()) k++;
+                if (k == i+1) return 0;
+                Instr end = p.at(i);
+                return p.rewrite(i, k-i, end);
+            }
+        };
+
+        final String[] first; // istruzioni con cui puo' iniziare
+
+        Pattern(String... first) {
+            this.first = first;
+        }
+
+        // se il pattern si applica alla posizione i riscrive con rewrite e ritorna le istruzioni consumate, altrimenti 0
+        abstract int match(PeepholeOptimizer p, int i);
+    }
+
+    // pattern da provare per ogni istruzione, nell'ordine della tabella
+    private static final Map<String, List<Pattern>> BY_FIRST = new HashMap<>();
+    static {
+        for (Pattern p : Pattern.values())
+            for (String op : p.first) BY_FIRST.computeIfAbsent(op, k -> new ArrayList<>()).add(p);
+    }
+
+    private final long[] hits = new long[Pattern.values().length];
+    private int staticBefore, staticAfter;
+
+    // passata corrente: le istruzioni ancora da leggere sono buf[cursor..size), quelle gia' prodotte
+    // sono in out; dopo una riscrittura le ultime WINDOW istruzioni di out tornano in buf, cosi' il
+    // risultato si confronta di nuovo con cio' che lo precede (es. costanti ripiegate a catena)
+    private static final int WINDOW = 7; // lunghezza del pattern piu' lungo meno uno
+    private Instr[] buf;
+    private int size, cursor;
+    private List<Instr> out;
+    private Map<String, Integer> refs;
+    private Map<String, Instr> follows; // etichetta -> prima istruzione dopo la sua definizione
+
+    public String optimize(String asm) {
+        List<Instr> code = parse(asm);
+        staticBefore += instructions(code);
+        for (int pass = 0; pass < MAX_PASSES; pass++) {
+            List<Instr> next = pass(code);
+            if (next == null) break;
+            code = next;
+        }
+        staticAfter += instructions(code);
+        StringBuilder result = new StringBuilder();
+        for (Instr instr : code) {
+            if (instr.isLabel()) result.append(instr.arg).append(':');
+            else if (instr.arg == null) result.append(instr.op);
+            else result.append(instr.op).append(' ').append(instr.arg);
+            result.append('\n');
+        }
+        return result.toString();
+    }
+
+    // null se non ha riscritto niente
+    private List<Instr> pass(List<Instr> code) {
+        refs = new HashMap<>();
+        follows = new HashMap<>();
+        List<String> pending = new ArrayList<>();
+        for (Instr instr : code) {
+            if (instr.isLabel()) {
+                pending.add(instr.arg);
+                continue;
+            }
+            if (instr.refersLabel()) refs.merge(instr.arg, 1, Integer::sum);
+            for (String label : pending) follows.put(label, instr);
+            pending.clear();
+        }
+        buf = code.toArray(new Instr[0]);
+        size = buf.length;
+        cursor = 0;
+        out = new ArrayList<>(size);
+        boolean changed = false;
+        while (cursor < size) {
+            Instr instr = buf[cursor];
+            boolean matched = false;
+            if (!instr.isLabel()) {
+                for (Pattern p : BY_FIRST.getOrDefault(instr.op, List.of())) {
+                    if (p.match(this, cursor) > 0) {
+                        hits[p.ordinal()]++;
+                        changed = matched = true;
+                        break;
+                    }
+                }
+            }
+            if (!matched) out.add(buf[cursor++]);
+        }
+        buf = null;
+        return changed ? out : null;
+    }
+
+    // istruzione in posizione i (null oltre la fine)
+    private Instr at(int i) {
+        return i < size ? buf[i] : null;
+    }
+
+    private int refs(String label) {
+        return refs.getOrDefault(label, 0);
+    }
+
+    // prima istruzione dopo la definizione di label (e di eventuali altre etichette)
+    private Instr afterLabel(String label) {
+        return follows.get(label);
+    }
+
+    // destinazione finale di un salto a label attraverso etichette seguite da b; null se e' label
+    // stessa o se i salti formano un ciclo
+    private String threaded(String label) {
+        String target = label;
+        for (int hops = 0; hops < MAX_PASSES; hops++) {
+            Instr next = afterLabel(target);
+            if (next == null || !next.is("b")) return target.equals(label) ? null : target;
+            target = next.arg;
+            if (target.equals(label)) return null;
+        }
+        return null;
+    }
+
+    // sostituisce le n istruzioni da i (la posizione corrente) con replacement, non piu' lungo,
+    // aggiornando i riferimenti alle etichette; ritorna n
+    private int rewrite(int i, int n, Instr... replacement) {
+        for (int k = i; k < i+n; k++)
+            if (buf[k].refersLabel()) refs.merge(buf[k].arg, -1, Integer::sum);
+        int start = i + n - replacement.length;
+        for (int k = 0; k < replacement.length; k++) {
+            if (replacement[k].refersLabel()) refs.merge(replacement[k].arg, 1, Integer::sum);
+            buf[start + k] = replacement[k];
+        }
+        int back = Math.min(WINDOW, out.size()); // c'e' posto: out non e' mai piu' lunga di cursor
+        for (int k = 1; k <= back; k++) buf[start - k] = out.remove(out.size() - 1);
+        cursor = start - back;
+        return n;
+    }
+
+    private static int instructions(List<Instr> code) {
+        int n = 0;
+        for (Instr instr : code) if (!instr.isLabel()) n++;
+        return n;
+    }
+
+    private static boolean isInt(String s) {
+        char c = s.charAt(0);
+        return c == '-' || (c >= '0' && c <= '9'); // le etichette iniziano con una lettera
+    }
+
+    // stesso lessico di SVM.g4: parole separate da spazi, ':' dopo le etichette definite, commenti /* */
+    static List<Instr> parse(String asm) {
+        List<String> tokens = new ArrayList<>();
+        int n = asm.length();
+        for (int k = 0; k < n; ) {
+            char c = asm.charAt(k);
+            if (Character.isWhitespace(c)) {
+                k++;
+            } else if (c == '/' && asm.startsWith("/*", k)) {
+                int end = asm.indexOf("*/", k + 2);
+                k = end < 0 ? n : end + 2;
+            } else if (c == ':') {
+                tokens.add(":");
+                k++;
+            } else {
+                int s = k;
+                while (k < n && !Character.isWhitespace(asm.charAt(k)) && asm.charAt(k) != ':' && !asm.startsWith("/*", k)) k++;
+                tokens.add(asm.substring(s, k));
+            }
+        }
+        List<Instr> code = new ArrayList<>();
+        for (int t = 0; t < tokens.size(); t++) {
+            String tok = tokens.get(t);
+            if (t+1 < tokens.size() && tokens.get(t+1).equals(":")) {
+                code.add(new Instr(null, tok));
+                t++;
+            } else if (tok.equals("push") || tok.equals("b") || tok.equals("beq") || tok.equals("bleq")
+                    || tok.equals("memoget") || tok.equals("memoput")) {
+                code.add(new Instr(tok.intern(), tokens.get(++t)));
+            } else {
+                code.add(new Instr(tok.intern(), null)); // pochi codici operativi: condivisi
+            }
+        }
+        return code;
+    }
+
+    public void printSummary(PrintStream out) {
+        for (Pattern p : Pattern.values()) out.printf("  %-16s %8d%n", p.name().toLowerCase(), hits[p.ordinal()]);
+        out.printf("  static instructions: %d -> %d%n", staticBefore, staticAfter);
+    }
+
+    // java svm.PeepholeOptimizer file.asm ...: pattern applicati e istruzioni statiche/eseguite sul corpus
+    public static void main(String[] args) throws IOException {
+        PeepholeOptimizer opt = new PeepholeOptimizer();
+        long dynamicBefore = 0, dynamicAfter = 0;
+        for (String file : args) {
+            String asm = Files.readString(Paths.get(file));
+            long[] before = run(asm), after = run(opt.optimize(asm));
+            if (before[0] != after[0]) System.out.println(file + ": OUTPUT CHANGED");
+            System.out.println(file + ": executed " + before[1] + " -> " + after[1]);
+            dynamicBefore += before[1];
+            dynamicAfter += after[1];
+        }
+        opt.printSummary(System.out);
+        System.out.printf("  executed instructions: %d -> %d%n", dynamicBefore, dynamicAfter);
+    }
+
+    // hash dell'output e istruzioni eseguite
+    private static long[] run(String asm) {
+        SVMParser parser = new SVMParser(new CommonTokenStream(new SVMLexer(CharStreams.fromString(asm))));
+        parser.assembly();
+        CaptureOutputSink out = new CaptureOutputSink();
+        ExecuteVM vm = new ExecuteVM(parser.code, out);
+        long[] count = new long[1];
+        vm.setListener(new ExecutionListener() {
+            @Override
+            public void instruction(int address, int opcode) {
+                count[0]++;
+            }
+        });
+        vm.cpu();
+        return new long[] {Arrays.hashCode(out.values()), count[0]};
+    }
+
+}
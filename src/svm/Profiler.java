@@ -0,0 +1,198 @@
+package svm;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.*;
+
+/**
+ * Profiler a livello di istruzione per la SVM (si attiva con vm.setListener(profiler)).
+ * Conta le istruzioni eseguite per opcode e per indirizzo, le chiamate e le istruzioni
+ * inclusive/esclusive per ogni etichetta functionN/methodN, e le parole di heap allocate
+ * per sito (etichetta che precede la shp; i NewNode hanno una etichetta newN propria).
+ */
+public class Profiler implements ExecutionListener {
+
+    private final CodeMap map;
+
+    private long total = 0;
+    private final long[] opcodeCounts = new long[SVMParser.VOCABULARY.getMaxTokenType() + 1];
+    private final long[] addressCounts;
+
+    // per funzione (indice CodeMap, 0 = codice principale)
+    private final long[] calls, inclusive, exclusive;
+    private final int[] active; // attivazioni aperte (per non contare due volte l'inclusivo nelle ricorsioni)
+
+    // stack delle chiamate ombra: funzione e contatore istruzioni all'ingresso
+    private int[] stack = new int[64];
+    private long[] entered = new long[64];
+    private int depth = 0;
+
+    // per sito di allocazione (indice etichetta + 1, 0 = codice principale prima di ogni etichetta)
+    private final long[] heapWords, heapStores;
+
+    public Profiler(CodeMap map, int codeSize) {
+        this.map = map;
+        addressCounts = new long[codeSize];
+        int n = map.functionCount();
+        calls = new long[n];
+        inclusive = new long[n];
+        exclusive = new long[n];
+        active = new int[n];
+        heapWords = new long[map.labelCount() + 1];
+        heapStores = new long[map.labelCount() + 1];
+        stack[0] = 0;
+        active[0] = 1;
+        calls[0] = 1;
+    }
+
+    @Override
+    public void instruction(int address, int opcode) {
+        total++;
+        if (opcode >= 0 && opcode < opcodeCounts.length) opcodeCounts[opcode]++;
+        addressCounts[address]++;
+        exclusive[stack[depth]]++;
+    }
+
+    @Override
+    public void jump(int from, int target) {
+        int f = map.functionAt(target);
+        if (f >= 0) enter(f);
+        else if (depth > 0) exit();
+    }
+
+    @Override
+    public void heap(int address, int oldHp, int newHp) {
+        int site = map.labelIndexAt(address) + 1;
+        heapWords[site] += newHp - oldHp;
+        heapStores[site]++;
+    }
+
+    @Override
+    public void halt() {
+        while (depth > 0) exit();
+        inclusive[0] = total;
+    }
+
+    private void enter(int f) {
+        if (++depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+            entered = Arrays.copyOf(entered, depth * 2);
+        }
+        stack[depth] = f;
+        entered[depth] = total;
+        calls[f]++;
+        active[f]++;
+    }
+
+    private void exit() {
+        int f = stack[depth];
+        if (--active[f] == 0) inclusive[f] += total - entered[depth];
+        depth--;
+    }
+
+    public long totalInstructions() {
+        return total;
+    }
+
+    public long opcodeCount(int opcode) {
+        return opcodeCounts[opcode];
+    }
+
+    public long addressCount(int address) {
+        return addressCounts[address];
+    }
+
+    private static String opcodeName(int opcode) {
+        return SVMParser.VOCABULARY.getSymbolicName(opcode);
+    }
+
+    private Integer[] functionsByExclusive() {
+        Integer[] order = new Integer[calls.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(exclusive[b], exclusive[a]));
+        return order;
+    }
+
+    // oggetti creati in un sito newN: volte in cui e' stata eseguita la prima istruzione del sito
+    private long objects(int site) {
+        if (site == 0 || !map.label(site - 1).startsWith("new")) return -1;
+        return addressCounts[map.labelAddress(site - 1)];
+    }
+
+    public void writeJson(Appendable out) throws IOException {
+        out.append("{\n  \"instructions\": ").append(Long.toString(total)).append(",\n");
+
+        out.append("  \"opcodes\": {");
+        String sep = "";
+        for (int op = 0; op < opcodeCounts.length; op++)
+            if (opcodeCounts[op] > 0) {
+                out.append(sep).append("\n    \"").append(opcodeName(op)).append("\": ").append(Long.toString(opcodeCounts[op]));
+                sep = ",";
+            }
+        out.append("\n  },\n");
+
+        out.append("  \"addresses\": [");
+        sep = "";
+        for (int a = 0; a < addressCounts.length; a++)
+            if (addressCounts[a] > 0) {
+                out.append(sep).append("\n    {\"address\": ").append(Integer.toString(a))
+                   .append(", \"location\": \"").append(map.describe(a))
+                   .append("\", \"count\": ").append(Long.toString(addressCounts[a])).append("}");
+                sep = ",";
+            }
+        out.append("\n  ],\n");
+
+        out.append("  \"functions\": [");
+        sep = "";
+        for (int f = 0; f < calls.length; f++)
+            if (calls[f] > 0) {
+                out.append(sep).append("\n    {\"label\": \"").append(map.functionName(f))
+                   .append("\", \"calls\": ").append(Long.toString(calls[f]))
+                   .append(", \"inclusive\": ").append(Long.toString(inclusive[f]))
+                   .append(", \"exclusive\": ").append(Long.toString(exclusive[f])).append("}");
+                sep = ",";
+            }
+        out.append("\n  ],\n");
+
+        out.append("  \"allocations\": [");
+        sep = "";
+        for (int s = 0; s < heapWords.length; s++)
+            if (heapStores[s] > 0) {
+                out.append(sep).append("\n    {\"site\": \"").append(map.label(s - 1))
+                   .append("\", \"words\": ").append(Long.toString(heapWords[s]))
+                   .append(", \"stores\": ").append(Long.toString(heapStores[s]));
+                long objects = objects(s);
+                if (objects >= 0) out.append(", \"objects\": ").append(Long.toString(objects));
+                out.append("}");
+                sep = ",";
+            }
+        out.append("\n  ]\n}\n");
+    }
+
+    public void printSummary(PrintStream out) {
+        out.println("Executed " + total + " instructions.");
+
+        out.println("\nOpcodes:");
+        Integer[] ops = new Integer[opcodeCounts.length];
+        for (int i = 0; i < ops.length; i++) ops[i] = i;
+        Arrays.sort(ops, (a, b) -> Long.compare(opcodeCounts[b], opcodeCounts[a]));
+        for (int op : ops)
+            if (opcodeCounts[op] > 0)
+                out.printf("  %-14s %12d %6.2f%%%n", opcodeName(op), opcodeCounts[op], 100.0 * opcodeCounts[op] / total);
+
+        out.println("\nFunctions (by exclusive instructions):");
+        out.printf("  %-14s %10s %12s %12s%n", "label", "calls", "inclusive", "exclusive");
+        for (int f : functionsByExclusive())
+            if (calls[f] > 0)
+                out.printf("  %-14s %10d %12d %12d%n", map.functionName(f), calls[f], inclusive[f], exclusive[f]);
+
+        out.println("\nHeap allocation sites:");
+        for (int s = 0; s < heapWords.length; s++)
+            if (heapStores[s] > 0) {
+                long objects = objects(s);
+                out.printf("  %-14s %10d words%s%n", map.label(s - 1), heapWords[s],
+                        objects >= 0 ? " in " + objects + " objects" : "");
+            }
+    }
+
+}
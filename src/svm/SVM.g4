@@ -11,7 +11,7 @@ public int lexicalErrors=0;
 @parser::members { 
 public int[] code = new int[ExecuteVM.CODESIZE];    
 private int i = 0;
-private Map<String,Integer> labelDef = new HashMap<>();
+public Map<String,Integer> labelDef = new HashMap<>(); // pubblica: serve a CodeMap per risalire alle etichette
 private Map<Integer,String> labelRef = new HashMap<>();
 }
 
@@ -54,6 +54,11 @@ instruction :
 	  | STOREHP         {code[i++] = STOREHP;}   //
 	  | PRINT           {code[i++] = PRINT;}
 	  | HALT            {code[i++] = HALT;}
+	  | CHECKPOINT      {code[i++] = CHECKPOINT;}
+	  | MEMOGET n=INTEGER {code[i++] = MEMOGET;
+	                       code[i++] = Integer.parseInt($n.text);}
+	  | MEMOPUT l=LABEL {code[i++] = MEMOPUT;
+	                     labelRef.put(i++,$l.text);}
 	  ;
 	  
 /*------------------------------------------------------------------
@@ -83,6 +88,9 @@ LOADHP	 : 'lhp' ;
 STOREHP	 : 'shp' ;	
 PRINT	 : 'print' ;	
 HALT	 : 'halt' ;	
+CHECKPOINT : 'chkp' ;
+MEMOGET  : 'memoget' ;
+MEMOPUT  : 'memoput' ;
  
 COL	 : ':' ;
 LABEL	 : ('a'..'z'|'A'..'Z')('a'..'z' | 'A'..'Z' | '0'..'9')* ;
@@ -0,0 +1,98 @@
+package svm;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Profiler a campionamento per la SVM, con output in formato "collapsed stack"
+ * (una riga "main;function3;method1 42" per stack) leggibile dagli strumenti per flame graph.
+ *
+ * Un thread in background, a intervalli regolari, richiede un campione alla macchina, che lo
+ * raccoglie al primo salto eseguito (come per stop), quindi sempre su uno stato consistente
+ * e senza costi per le altre istruzioni. Lo stack FOOL e' ricostruito risalendo la catena dei
+ * control link a partire da $fp: in ogni record di attivazione [CL][parametri][AL][RA] il
+ * return address dice chi e' il chiamante e il control link sta sopra i parametri, il cui
+ * numero viene dalla CodeMap (fornito dal compilatore).
+ */
+public class SamplingProfiler {
+
+    private final CodeMap map;
+    private final long intervalNanos;
+
+    private volatile boolean running = false;
+    private Thread timer;
+
+    private int[] stack = new int[64]; // funzioni attive (indici CodeMap) dalla piu' interna
+    private final Map<String,Long> samples = new TreeMap<>();
+    private long sampleCount = 0;
+
+    public SamplingProfiler(CodeMap map, long intervalMicros) {
+        this.map = map;
+        this.intervalNanos = intervalMicros * 1000;
+    }
+
+    public void start(ExecuteVM vm) {
+        vm.setSampler(this);
+        running = true;
+        timer = new Thread(() -> {
+            while (running) {
+                long deadline = System.nanoTime() + intervalNanos;
+                long wait;
+                while ((wait = deadline - System.nanoTime()) > 0 && running)
+                    LockSupport.parkNanos(wait);
+                vm.requestSample();
+            }
+        }, "svm-sampler");
+        timer.setDaemon(true);
+        timer.start();
+    }
+
+    public void stop() {
+        running = false;
+        if (timer != null) {
+            try {
+                timer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            timer = null;
+        }
+    }
+
+    // campione con la macchina appena saltata a ip (ra: registro $ra, chiamante se ip e' un ingresso)
+    void record(int ip, int fp, int ra, int[] memory) {
+        int depth = 0;
+        int f = map.functionContaining(ip);
+        if (f > 0 && map.functionAt(ip) == f) { // appena chiamata: il suo frame non c'e' ancora
+            stack[depth++] = f;
+            f = map.functionContaining(ra);
+        }
+        boolean complete = true;
+        while (f > 0) {
+            if (depth == stack.length) stack = Arrays.copyOf(stack, depth * 2);
+            stack[depth++] = f;
+            int arity = map.arity(f);
+            if (arity < 0 || fp < 1 || fp + arity + 1 >= memory.length) {
+                complete = false; // frame che non si sa risalire
+                break;
+            }
+            f = map.functionContaining(memory[fp - 1]); // return address
+            fp = memory[fp + arity + 1]; // control link
+        }
+        StringBuilder key = new StringBuilder(complete ? "main" : "?");
+        for (int i = depth - 1; i >= 0; i--) key.append(';').append(map.functionName(stack[i]));
+        samples.merge(key.toString(), 1L, Long::sum);
+        sampleCount++;
+    }
+
+    public long sampleCount() {
+        return sampleCount;
+    }
+
+    public void writeCollapsed(Appendable out) throws IOException {
+        for (Map.Entry<String,Long> e : samples.entrySet())
+            out.append(e.getKey()).append(' ').append(Long.toString(e.getValue())).append('\n');
+    }
+
+}
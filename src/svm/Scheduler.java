@@ -0,0 +1,110 @@
+package svm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Scheduler cooperativo: molte istanze di ExecuteVM condividono pochi thread "carrier".
+ * Ogni istanza esegue per al piu' slice unita' di carburante (ExecuteVM.run) e poi torna in
+ * fondo alla coda, cosi' i programmi brevi non aspettano quelli lunghi.
+ * Un programma che supera maxFuel (es. ricorsione senza fine) viene terminato.
+ * Alla chiusura i programmi non ancora terminati finiscono con CANCELLED.
+ */
+public class Scheduler implements AutoCloseable {
+
+    public enum Status { HALTED, OUT_OF_FUEL, FAILED, CANCELLED }
+
+    public static class Task {
+        final ExecuteVM vm;
+        final long maxFuel;
+        long used = 0;
+        Throwable error;
+        public final CompletableFuture<Status> done = new CompletableFuture<>();
+
+        Task(ExecuteVM vm, long maxFuel) {
+            this.vm = vm;
+            this.maxFuel = maxFuel;
+        }
+
+        public long fuelUsed() { return used; }
+
+        public Throwable error() { return error; }
+    }
+
+    private final LinkedBlockingQueue<Task> ready = new LinkedBlockingQueue<>();
+    private final List<Thread> carriers = new ArrayList<>();
+    private final MemoryPool pool;
+    private final long slice;
+    private volatile boolean closed = false;
+
+    public Scheduler(int carrierThreads, long slice) {
+        this.slice = slice;
+        this.pool = new MemoryPool(carrierThreads * 4);
+        for (int i = 0; i < carrierThreads; i++) {
+            Thread t = new Thread(this::carrier, "svm-carrier-" + i);
+            t.setDaemon(true);
+            carriers.add(t);
+            t.start();
+        }
+    }
+
+    public synchronized Task submit(int[] code, OutputSink out, long maxFuel) {
+        if (closed) throw new IllegalStateException("Scheduler closed");
+        Task task = new Task(new ExecuteVM(code, pool.acquire(), out), maxFuel);
+        ready.add(task);
+        return task;
+    }
+
+    private void carrier() {
+        while (!closed) {
+            Task task;
+            try {
+                task = ready.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            long budget = Math.min(slice, task.maxFuel - task.used);
+            try {
+                boolean halted = task.vm.run(budget);
+                task.used += budget - task.vm.getFuel();
+                if (halted) finish(task, Status.HALTED);
+                else if (task.used >= task.maxFuel) finish(task, Status.OUT_OF_FUEL);
+                else ready.add(task); // stato intatto: ripartira' da dove si e' fermata
+            } catch (RuntimeException e) {
+                task.error = e;
+                finish(task, Status.FAILED);
+            }
+        }
+    }
+
+    private void finish(Task task, Status status) {
+        pool.release(task.vm);
+        task.done.complete(status);
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) { // dopo, submit non aggiunge piu' niente a ready
+            if (closed) return;
+            closed = true;
+        }
+        for (Thread t : carriers) t.interrupt();
+        // un carrier a meta' di una fetta la finisce e rimette il task in coda: si aspetta che esca
+        boolean interrupted = false;
+        for (Thread t : carriers) {
+            while (t != Thread.currentThread() && t.isAlive()) {
+                try {
+                    t.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        Task task;
+        while ((task = ready.poll()) != null) finish(task, Status.CANCELLED);
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+}
@@ -0,0 +1,24 @@
+package svm;
+
+import jdk.jfr.*;
+
+@Name("fool.VMExecution")
+@Label("SVM Execution")
+@Category({"FOOL", "SVM"})
+public class VMExecutionEvent extends Event {
+
+    @Label("Instructions")
+    public long instructions;
+
+    @Label("Heap High-Water Mark")
+    @Description("Massimo valore di $hp (parole di heap usate)")
+    public int heapHighWater;
+
+    @Label("Max Stack Depth")
+    @Description("Massimo numero di parole sullo stack (MEMSIZE - $sp minimo)")
+    public int maxStackDepth;
+
+    @Label("Max Call Depth")
+    public int maxCallDepth;
+
+}
@@ -0,0 +1,21 @@
+package svm;
+
+import jdk.jfr.*;
+
+/**
+ * Tempo passato in un record di attivazione di una funzione/metodo FOOL (inclusi i chiamati).
+ * Soglia di default di 1 ms: con le ricorsioni profonde un evento per ogni chiamata sarebbe troppo.
+ */
+@Name("fool.VMFrame")
+@Label("SVM Function Frame")
+@Category({"FOOL", "SVM"})
+@Threshold("1 ms")
+public class VMFrameEvent extends Event {
+
+    @Label("Function")
+    public String function;
+
+    @Label("Call Depth")
+    public int depth;
+
+}